@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Cleanup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.function.IntSupplier;
+
+/**
+ * Runs maintenance functions in batches, each in its own transaction, with a pause between batches to limit the load
+ * on the database.
+ */
+class BatchRunner {
+
+    private BatchRunner() {
+    }
+
+    /**
+     * Runs batches until one of them processes fewer documents than the batch size. Stops early if the current
+     * thread is interrupted.
+     *
+     * @return the total number of documents processed
+     */
+    public static long runBatches(int batchSize, Duration batchDelay, IntSupplier batch) {
+        if (batchSize <= 0) {
+            throw new IllegalStateException("The batch size must be positive.");
+        }
+
+        long total = 0;
+
+        while (true) {
+            int processed = batch.getAsInt();
+            total += processed;
+
+            if (processed < batchSize) {
+                return total;
+            }
+
+            try {
+                Thread.sleep(batchDelay.toMillis());
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return total;
+            }
+        }
+    }
+
+    /**
+     * Runs a single batch by calling a function which returns the number of documents it processed. The connection
+     * must be in auto-commit mode, so that each batch is committed separately.
+     *
+     * @param connection the connection used to call the function
+     * @param action     the action performed by the batch, used in error messages
+     * @param sql        the query calling the function
+     * @param parameters the parameters of the query
+     * @return the number of documents processed
+     */
+    public static int runBatch(Connection connection, String action, String sql, Object... parameters) {
+        try {
+            if (!connection.getAutoCommit()) {
+                throw new IllegalStateException(
+                    String.format("Documents can only be %s when the connection is in auto-commit mode.", action));
+            }
+
+            @Cleanup PreparedStatement statement = connection.prepareStatement(sql);
+
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+
+            @Cleanup ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+
+            return resultSet.getInt(1);
+
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+}
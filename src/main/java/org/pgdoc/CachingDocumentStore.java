@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The <code>CachingDocumentStore</code> class is an implementation of the <code>DocumentStore</code> interface that
+ * caches the documents of another <code>DocumentStore</code> in an <code>OffHeapDocumentCache</code>.
+ * <p>
+ * Reads first retrieve the current version of the documents, which is cheap compared to retrieving their bodies,
+ * and only retrieve the documents whose current version is not cached. Since this takes two queries, the documents
+ * returned by a single read are not guaranteed to come from the same snapshot.
+ */
+public class CachingDocumentStore implements DocumentStore {
+
+    /**
+     * Gets the underlying store.
+     */
+    @Getter
+    private final DocumentStore documentStore;
+
+    /**
+     * Gets the cache holding the document bodies.
+     */
+    @Getter
+    private final OffHeapDocumentCache cache;
+
+    public CachingDocumentStore(@NonNull DocumentStore documentStore, @NonNull OffHeapDocumentCache cache) {
+        this.documentStore = documentStore;
+        this.cache = cache;
+    }
+
+    @Override
+    public void updateDocuments(Iterable<Document> updatedDocuments, Iterable<Document> checkedDocuments)
+        throws UpdateConflictException {
+
+        this.updateDocumentsWithVersions(updatedDocuments, checkedDocuments);
+    }
+
+    @Override
+    public Map<UUID, Long> updateDocumentsWithVersions(
+        Iterable<Document> updatedDocuments,
+        Iterable<Document> checkedDocuments)
+        throws UpdateConflictException {
+
+        List<Document> updatedList = new ArrayList<>();
+        updatedDocuments.forEach(updatedList::add);
+
+        Map<UUID, Long> versions = this.documentStore.updateDocumentsWithVersions(updatedList, checkedDocuments);
+
+        for (Document document : updatedList) {
+            this.cache.put(new Document(document.getId(), document.getBody(), versions.get(document.getId())));
+        }
+
+        return versions;
+    }
+
+    @Override
+    public Set<UUID> createDocuments(Iterable<Document> documents) {
+        // The new versions are not known, so the cache is populated by the next read
+        return this.documentStore.createDocuments(documents);
+    }
+
+    @Override
+    public void overwriteDocuments(Iterable<Document> documents) {
+        this.documentStore.overwriteDocuments(documents);
+    }
+
+    @Override
+    public List<Document> getDocuments(Iterable<UUID> ids) {
+        List<UUID> idList = new ArrayList<>();
+        ids.forEach(idList::add);
+
+        if (idList.isEmpty()) {
+            return List.of();
+        }
+
+        Map<UUID, Long> versions = this.documentStore.getDocumentVersions(idList);
+        Map<UUID, Document> documents = new HashMap<>();
+        Set<UUID> missing = new LinkedHashSet<>();
+
+        for (UUID id : idList) {
+            long version = versions.getOrDefault(id, 0L);
+
+            if (!documents.containsKey(id)) {
+                Document document = version == 0 ? new Document(id, null, 0) : this.cache.get(id, version);
+
+                if (document == null) {
+                    missing.add(id);
+                } else {
+                    documents.put(id, document);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            for (Document document : this.documentStore.getDocuments(missing)) {
+                this.cache.put(document);
+                documents.put(document.getId(), document);
+            }
+        }
+
+        List<Document> result = new ArrayList<>(idList.size());
+        for (UUID id : idList) {
+            result.add(documents.get(id));
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public Map<UUID, Long> getDocumentVersions(Iterable<UUID> ids) {
+        return this.documentStore.getDocumentVersions(ids);
+    }
+}
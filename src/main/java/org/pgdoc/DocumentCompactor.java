@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import java.sql.Connection;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * The <code>DocumentCompactor</code> class physically removes deleted documents, whose body is null, from a range of
+ * IDs. Documents are removed in batches, each in its own transaction, with a pause between batches to limit the load
+ * on the database. This requires the <code>compact_documents</code> function.
+ * <p>
+ * Removing a deleted document raises the version floor of its range, and documents created in that range afterwards
+ * start from a version greater than the floor. This guarantees that a document created again never reuses a version,
+ * but means that the first version of a document is not necessarily one.
+ */
+public class DocumentCompactor {
+
+    /**
+     * Gets the underlying database connection.
+     */
+    @Getter
+    private final Connection connection;
+
+    /**
+     * Gets or sets the maximum number of documents removed by each batch.
+     */
+    @Getter
+    @Setter
+    private int batchSize = 1000;
+
+    /**
+     * Gets or sets the pause between two batches.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private Duration batchDelay = Duration.ofMillis(100);
+
+    public DocumentCompactor(@NonNull Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Removes the deleted documents whose IDs start with a given document type, as returned by the
+     * <code>get_document_type</code> function.
+     *
+     * @param documentType the type whose deleted documents are removed
+     * @return the number of documents removed
+     */
+    public long compactType(int documentType) {
+        return this.compactRange(DocumentTypes.getRangeStart(documentType), DocumentTypes.getRangeEnd(documentType));
+    }
+
+    /**
+     * Removes the deleted documents in a range of IDs, one batch at a time, until none is left. Compaction stops
+     * early if the current thread is interrupted, and can be resumed later.
+     *
+     * @param rangeStart the first ID of the range
+     * @param rangeEnd   the last ID of the range
+     * @return the number of documents removed
+     */
+    public long compactRange(@NonNull UUID rangeStart, @NonNull UUID rangeEnd) {
+        return BatchRunner.runBatches(this.batchSize, this.batchDelay, () -> this.compactBatch(rangeStart, rangeEnd));
+    }
+
+    /**
+     * Removes a single batch of deleted documents in a range of IDs. Documents locked by concurrent updates are
+     * skipped.
+     *
+     * @param rangeStart the first ID of the range
+     * @param rangeEnd   the last ID of the range
+     * @return the number of documents removed
+     */
+    public int compactBatch(@NonNull UUID rangeStart, @NonNull UUID rangeEnd) {
+        return BatchRunner.runBatch(
+            this.connection,
+            "compacted",
+            "SELECT compact_documents(?, ?, ?)",
+            rangeStart,
+            rangeEnd,
+            this.batchSize);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.UUID;
+
+/**
+ * The <code>DocumentConflict</code> class represents a document whose version did not match the version expected by
+ * an update.
+ */
+public class DocumentConflict {
+
+    /**
+     * Gets the ID of the document that caused a conflict.
+     */
+    @Getter
+    private final UUID id;
+
+    /**
+     * Gets the version of the document that the update was based on.
+     */
+    @Getter
+    private final long expectedVersion;
+
+    /**
+     * Gets the current version of the document, or zero if the document does not exist.
+     */
+    @Getter
+    private final long currentVersion;
+
+    public DocumentConflict(@NonNull UUID id, long expectedVersion, long currentVersion) {
+        this.id = id;
+        this.expectedVersion = expectedVersion;
+        this.currentVersion = currentVersion;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The <code>DocumentOperation</code> class represents a modification of a single value in the body of a document,
+ * applied atomically by the database without requiring the current version of the document. Paths are made of
+ * elements separated by dots, and missing intermediate objects are created.
+ */
+public class DocumentOperation {
+
+    /**
+     * The kind of modification applied to the value.
+     */
+    public enum Kind {
+        /**
+         * Adds a number to the value, which is treated as zero if it is missing.
+         */
+        INCREMENT("increment"),
+
+        /**
+         * Appends a value to an array, which is treated as empty if it is missing.
+         */
+        APPEND("append"),
+
+        /**
+         * Replaces the value if the new value is greater, or if the value is missing.
+         */
+        SET_IF_GREATER("set_if_greater");
+
+        private final String sqlName;
+
+        Kind(String sqlName) {
+            this.sqlName = sqlName;
+        }
+    }
+
+    /**
+     * Gets the ID of the document to modify.
+     */
+    @Getter
+    private final UUID id;
+
+    /**
+     * Gets the kind of modification applied to the value.
+     */
+    @Getter
+    private final Kind kind;
+
+    /**
+     * Gets the elements of the path of the value to modify.
+     */
+    @Getter
+    private final List<String> path;
+
+    /**
+     * Gets the operand of the modification, as a JSON string.
+     */
+    @Getter
+    private final String operand;
+
+    public DocumentOperation(@NonNull UUID id, @NonNull Kind kind, @NonNull String path, @NonNull String operand) {
+        List<String> elements = Arrays.asList(path.split("\\.", -1));
+        if (path.isEmpty() || elements.contains("")) {
+            throw new IllegalArgumentException(String.format("The path '%s' is invalid.", path));
+        }
+
+        this.id = id;
+        this.kind = kind;
+        this.path = Collections.unmodifiableList(elements);
+        this.operand = operand;
+    }
+
+    /**
+     * Creates an operation adding a number to a value.
+     */
+    public static DocumentOperation increment(@NonNull UUID id, @NonNull String path, @NonNull BigDecimal amount) {
+        return new DocumentOperation(id, Kind.INCREMENT, path, amount.toPlainString());
+    }
+
+    /**
+     * Creates an operation adding a number to a value.
+     */
+    public static DocumentOperation increment(@NonNull UUID id, @NonNull String path, long amount) {
+        return new DocumentOperation(id, Kind.INCREMENT, path, Long.toString(amount));
+    }
+
+    /**
+     * Creates an operation appending a JSON value to an array.
+     */
+    public static DocumentOperation append(@NonNull UUID id, @NonNull String path, @NonNull String value) {
+        return new DocumentOperation(id, Kind.APPEND, path, value);
+    }
+
+    /**
+     * Creates an operation replacing a value with a JSON value if the JSON value is greater.
+     */
+    public static DocumentOperation setIfGreater(@NonNull UUID id, @NonNull String path, @NonNull String value) {
+        return new DocumentOperation(id, Kind.SET_IF_GREATER, path, value);
+    }
+
+    String getSqlKind() {
+        return this.kind.sqlName;
+    }
+
+    String getSqlPath() {
+        StringBuilder result = new StringBuilder("{");
+        for (String element : this.path) {
+            if (result.length() > 1) {
+                result.append(',');
+            }
+
+            result.append('"').append(element.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+
+        return result.append('}').toString();
+    }
+}
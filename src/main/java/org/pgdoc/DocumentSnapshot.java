@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Cleanup;
+import lombok.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The <code>DocumentSnapshot</code> class represents a read-only file holding a set of documents, which is
+ * memory-mapped when opened. Bodies are only decoded when a document is retrieved. Snapshot files are limited to
+ * 2 GB.
+ */
+public class DocumentSnapshot {
+
+    private static final long magic = 0x5047444f43534e50L;
+    private static final int formatVersion = 1;
+
+    private final ByteBuffer buffer;
+    private final Map<UUID, Integer> offsets;
+
+    private DocumentSnapshot(ByteBuffer buffer, Map<UUID, Integer> offsets) {
+        this.buffer = buffer;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Writes a set of documents to a snapshot file. The file is replaced atomically, so that readers never observe a
+     * partially written snapshot.
+     *
+     * @param file      the path of the snapshot file
+     * @param documents the documents to write
+     */
+    public static void write(@NonNull Path file, @NonNull Iterable<Document> documents) {
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            Path temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+
+            try {
+                int count = 0;
+                for (Document ignored : documents) {
+                    count++;
+                }
+
+                @Cleanup DataOutputStream output =
+                    new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)));
+
+                output.writeLong(magic);
+                output.writeInt(formatVersion);
+                output.writeInt(count);
+
+                for (Document document : documents) {
+                    output.writeLong(document.getId().getMostSignificantBits());
+                    output.writeLong(document.getId().getLeastSignificantBits());
+                    output.writeLong(document.getVersion());
+
+                    if (document.getBody() == null) {
+                        output.writeInt(-1);
+                    } else {
+                        byte[] body = document.getBody().getBytes(StandardCharsets.UTF_8);
+                        output.writeInt(body.length);
+                        output.write(body);
+                    }
+                }
+
+                output.close();
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            } finally {
+                Files.deleteIfExists(temporaryFile);
+            }
+
+        } catch (IOException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Opens an existing snapshot file.
+     *
+     * @param file the path of the snapshot file
+     * @return the snapshot stored in the file
+     */
+    public static DocumentSnapshot open(@NonNull Path file) {
+        try {
+            @Cleanup FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getLong() != magic || buffer.getInt() != formatVersion) {
+                throw new DocumentStoreException(String.format("The file %s is not a valid snapshot.", file), null);
+            }
+
+            int count = buffer.getInt();
+            Map<UUID, Integer> offsets = new HashMap<>(count * 2);
+
+            for (int i = 0; i < count; i++) {
+                offsets.put(new UUID(buffer.getLong(), buffer.getLong()), buffer.position());
+                buffer.getLong();
+                int length = buffer.getInt();
+                buffer.position(buffer.position() + Math.max(0, length));
+            }
+
+            return new DocumentSnapshot(buffer, Collections.unmodifiableMap(offsets));
+
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException exception) {
+            throw new DocumentStoreException(String.format("The snapshot %s could not be read.", file), exception);
+        }
+    }
+
+    /**
+     * Returns the document with the specified ID, or null if the document is not part of the snapshot.
+     */
+    public Document get(@NonNull UUID id) {
+        Integer offset = this.offsets.get(id);
+
+        if (offset == null) {
+            return null;
+        }
+
+        ByteBuffer entry = this.buffer.duplicate();
+        entry.position(offset);
+        long version = entry.getLong();
+        int length = entry.getInt();
+
+        if (length < 0) {
+            return new Document(id, null, version);
+        }
+
+        byte[] body = new byte[length];
+        entry.get(body);
+        return new Document(id, new String(body, StandardCharsets.UTF_8), version);
+    }
+
+    /**
+     * Returns the version of the document with the specified ID without decoding its body, or zero if the document is
+     * not part of the snapshot.
+     */
+    public long getVersion(@NonNull UUID id) {
+        Integer offset = this.offsets.get(id);
+        return offset == null ? 0 : this.buffer.getLong(offset);
+    }
+
+    /**
+     * Gets the IDs of the documents in the snapshot.
+     */
+    public Set<UUID> getIds() {
+        return this.offsets.keySet();
+    }
+}
@@ -18,9 +18,18 @@ package org.pgdoc;
 
 import lombok.NonNull;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The <code>DocumentStore</code> interface is used to retrieve and modify documents.
@@ -36,6 +45,32 @@ public interface DocumentStore {
     void updateDocuments(Iterable<Document> updatedDocuments, Iterable<Document> checkedDocuments)
         throws UpdateConflictException;
 
+    /**
+     * Updates atomically the body of multiple documents, and returns the version of each updated document after the
+     * update. The default implementation assumes that the version of every updated document is incremented.
+     *
+     * @param updatedDocuments the documents being updated
+     * @param checkedDocuments the documents whose versions are checked, but which are not updated
+     * @return a map from the ID of each updated document to its new version
+     */
+    default Map<UUID, Long> updateDocumentsWithVersions(
+        Iterable<Document> updatedDocuments,
+        Iterable<Document> checkedDocuments)
+        throws UpdateConflictException {
+
+        List<Document> updatedList = new ArrayList<>();
+        updatedDocuments.forEach(updatedList::add);
+
+        this.updateDocuments(updatedList, checkedDocuments);
+
+        Map<UUID, Long> result = new HashMap<>();
+        for (Document document : updatedList) {
+            result.put(document.getId(), document.getVersion() + 1);
+        }
+
+        return result;
+    }
+
     /**
      * Retrieves multiple documents given their IDs.
      *
@@ -44,6 +79,105 @@ public interface DocumentStore {
      */
     List<Document> getDocuments(Iterable<UUID> ids);
 
+    /**
+     * Retrieves the current version of multiple documents given their IDs, without retrieving their bodies.
+     *
+     * @param ids the IDs of the documents
+     * @return a map from the ID of each document to its version, which is zero for documents that don't exist
+     */
+    default Map<UUID, Long> getDocumentVersions(Iterable<UUID> ids) {
+        Map<UUID, Long> result = new HashMap<>();
+
+        for (Document document : this.getDocuments(ids)) {
+            result.put(document.getId(), document.getVersion());
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates multiple documents if they don't exist, without requiring their current version. A document exists if
+     * its body is not null. The versions of the documents provided are ignored, and when an ID is provided more than
+     * once, the first body is used. The default implementation reads the documents and updates them, and attempts
+     * this again after a random delay when another writer modifies them concurrently, up to 10 times.
+     *
+     * @param documents the documents to create, which must have a non-null body
+     * @return the IDs of the documents that were created
+     */
+    default Set<UUID> createDocuments(Iterable<Document> documents) {
+        Map<UUID, String> bodies = getWriteBodies(documents, true);
+
+        for (int attempt = 1; ; attempt++) {
+            List<Document> createdDocuments = new ArrayList<>();
+
+            for (Document document : this.getDocuments(bodies.keySet())) {
+                if (document.getBody() == null) {
+                    createdDocuments.add(
+                        new Document(document.getId(), bodies.get(document.getId()), document.getVersion()));
+                }
+            }
+
+            try {
+                this.updateDocuments(createdDocuments, List.of());
+            } catch (UpdateConflictException exception) {
+                // Another writer has modified one of the documents, read them again
+                waitBeforeRetry(attempt, exception);
+                continue;
+            }
+
+            Set<UUID> result = new HashSet<>();
+            createdDocuments.forEach(document -> result.add(document.getId()));
+            return Collections.unmodifiableSet(result);
+        }
+    }
+
+    /**
+     * Replaces the body of multiple documents regardless of their current version. The versions of the documents
+     * provided are ignored, and when an ID is provided more than once, the last body is used. The default
+     * implementation reads the versions of the documents and updates them, and attempts this again after a random
+     * delay when another writer modifies them concurrently, up to 10 times.
+     *
+     * @param documents the documents to overwrite
+     */
+    default void overwriteDocuments(Iterable<Document> documents) {
+        Map<UUID, String> bodies = getWriteBodies(documents, false);
+
+        for (int attempt = 1; ; attempt++) {
+            List<Document> updatedDocuments = new ArrayList<>();
+
+            for (Map.Entry<UUID, Long> entry : this.getDocumentVersions(bodies.keySet()).entrySet()) {
+                updatedDocuments.add(new Document(entry.getKey(), bodies.get(entry.getKey()), entry.getValue()));
+            }
+
+            try {
+                this.updateDocuments(updatedDocuments, List.of());
+                return;
+            } catch (UpdateConflictException exception) {
+                // Another writer has modified one of the documents, read them again
+                waitBeforeRetry(attempt, exception);
+            }
+        }
+    }
+
+    /**
+     * Creates a document if it doesn't exist, without requiring its current version.
+     *
+     * @param document the document to create, which must have a non-null body
+     * @return true if the document was created, or false if it already existed
+     */
+    default boolean createDocument(@NonNull Document document) {
+        return !this.createDocuments(List.of(document)).isEmpty();
+    }
+
+    /**
+     * Replaces the body of multiple documents regardless of their current version.
+     *
+     * @param documents the documents to overwrite
+     */
+    default void overwriteDocuments(Document... documents) {
+        this.overwriteDocuments(Arrays.asList(documents));
+    }
+
     /**
      * Updates atomically the body of multiple documents.
      *
@@ -64,4 +198,42 @@ public interface DocumentStore {
     default Document getDocument(@NonNull UUID id) {
         return this.getDocuments(List.of(id)).get(0);
     }
+
+    /**
+     * Waits for a random delay, which doubles with every attempt, before a write that conflicted is attempted again.
+     * The conflict is thrown once the write has been attempted 10 times.
+     */
+    private static void waitBeforeRetry(int attempt, UpdateConflictException exception) {
+        if (attempt >= 10) {
+            throw exception;
+        }
+
+        long maxDelay = TimeUnit.MILLISECONDS.toNanos(1) << (attempt - 1);
+
+        try {
+            TimeUnit.NANOSECONDS.sleep((long) (ThreadLocalRandom.current().nextDouble() * maxDelay));
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw exception;
+        }
+    }
+
+    private static Map<UUID, String> getWriteBodies(Iterable<Document> documents, boolean create) {
+        Map<UUID, String> bodies = new LinkedHashMap<>();
+
+        for (Document document : documents) {
+            if (create && document.getBody() == null) {
+                throw new IllegalArgumentException(
+                    String.format("The document %s can't be created with a null body.", document.getId()));
+            }
+
+            if (create) {
+                bodies.putIfAbsent(document.getId(), document.getBody());
+            } else {
+                bodies.put(document.getId(), document.getBody());
+            }
+        }
+
+        return bodies;
+    }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Cleanup;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * The <code>DocumentSweeper</code> class deletes the documents whose expiry time has passed. Documents are deleted in
+ * batches, each in its own transaction, with a pause between batches to limit the load on the database. It also
+ * maintains the time to live of ranges of IDs, which sets the expiry time of the documents written in these ranges.
+ * This requires the <code>sweep_expired_documents</code> function.
+ * <p>
+ * Expired documents are retrieved as if they had been deleted before they are swept, including the version increment
+ * of the deletion, so sweeping only needs to run often enough to keep the number of expired documents in check.
+ */
+public class DocumentSweeper {
+
+    /**
+     * Gets the underlying database connection.
+     */
+    @Getter
+    private final Connection connection;
+
+    /**
+     * Gets or sets the maximum number of documents deleted by each batch.
+     */
+    @Getter
+    @Setter
+    private int batchSize = 1000;
+
+    /**
+     * Gets or sets the pause between two batches.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private Duration batchDelay = Duration.ofMillis(100);
+
+    public DocumentSweeper(@NonNull Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Sets the time to live of the documents whose IDs start with a given document type, as returned by the
+     * <code>get_document_type</code> function. Documents expire after this time, unless they are written again. The
+     * time to live only applies to documents written after it has been set, and replaces any expiry time set
+     * explicitly with <code>SqlDocumentStore.setDocumentExpiry</code> when they are written.
+     *
+     * @param documentType the type of the documents
+     * @param timeToLive   the time to live of the documents, or null for documents that never expire
+     */
+    public void setTimeToLive(int documentType, Duration timeToLive) {
+        this.setTimeToLive(
+            DocumentTypes.getRangeStart(documentType),
+            DocumentTypes.getRangeEnd(documentType),
+            timeToLive);
+    }
+
+    /**
+     * Sets the time to live of the documents in a range of IDs. Documents expire after this time, unless they are
+     * written again. The time to live only applies to documents written after it has been set.
+     *
+     * @param rangeStart the first ID of the range
+     * @param rangeEnd   the last ID of the range
+     * @param timeToLive the time to live of the documents, or null for documents that never expire
+     */
+    public void setTimeToLive(@NonNull UUID rangeStart, @NonNull UUID rangeEnd, Duration timeToLive) {
+        if (timeToLive != null && (timeToLive.isNegative() || timeToLive.isZero())) {
+            throw new IllegalArgumentException("The time to live must be positive.");
+        }
+
+        try {
+            @Cleanup PreparedStatement statement = this.connection.prepareStatement(timeToLive == null
+                ? "DELETE FROM document_expiry_policy WHERE range_start = ? AND range_end = ?"
+                : "INSERT INTO document_expiry_policy (range_start, range_end, time_to_live) " +
+                  "VALUES (?, ?, make_interval(secs => ?)) " +
+                  "ON CONFLICT (range_start, range_end) DO UPDATE SET time_to_live = EXCLUDED.time_to_live");
+
+            statement.setObject(1, rangeStart);
+            statement.setObject(2, rangeEnd);
+
+            if (timeToLive != null) {
+                statement.setDouble(3, timeToLive.toNanos() / 1e9);
+            }
+
+            statement.executeUpdate();
+
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Deletes the expired documents, one batch at a time, until none is left. Sweeping stops early if the current
+     * thread is interrupted.
+     *
+     * @return the number of documents deleted
+     */
+    public long sweep() {
+        return BatchRunner.runBatches(this.batchSize, this.batchDelay, this::sweepBatch);
+    }
+
+    /**
+     * Deletes a single batch of expired documents, starting with those that expired first. Documents locked by
+     * concurrent updates are skipped.
+     *
+     * @return the number of documents deleted
+     */
+    public int sweepBatch() {
+        return BatchRunner.runBatch(
+            this.connection,
+            "swept",
+            "SELECT sweep_expired_documents(?)",
+            this.batchSize);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import java.util.UUID;
+
+/**
+ * The <code>DocumentTypes</code> class returns the range of IDs holding the documents of a type, whose first four
+ * bytes are the type as returned by the <code>get_document_type</code> function.
+ */
+public class DocumentTypes {
+
+    private DocumentTypes() {
+    }
+
+    /**
+     * Returns the first ID of the range holding the documents of a type.
+     */
+    public static UUID getRangeStart(int documentType) {
+        return new UUID((long) documentType << 32, 0);
+    }
+
+    /**
+     * Returns the last ID of the range holding the documents of a type.
+     */
+    public static UUID getRangeEnd(int documentType) {
+        return new UUID((long) documentType << 32 | 0xFFFFFFFFL, -1);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.NonNull;
+
+import java.util.UUID;
+
+/**
+ * The <code>HashShardingPolicy</code> class distributes documents evenly across shards using a hash of their ID. The
+ * hash only depends on the ID, so that a document always maps to the same shard as long as the number of shards
+ * doesn't change.
+ */
+public class HashShardingPolicy implements ShardingPolicy {
+
+    @Override
+    public int getShard(@NonNull UUID id, int shardCount) {
+        return Math.floorMod(mix(id.getMostSignificantBits() ^ id.getLeastSignificantBits()), shardCount);
+    }
+
+    /**
+     * Mixes the bits of a 64-bit value, using the finalizer of MurmurHash3.
+     */
+    private static int mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>HedgingMetrics</code> class counts the reads hedged by a <code>HedgingPolicy</code>, and the latency
+ * saved by doing so.
+ */
+public class HedgingMetrics {
+
+    private final AtomicLong readCount = new AtomicLong();
+    private final AtomicLong hedgedReadCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+    private final AtomicLong latencySaved = new AtomicLong();
+
+    /**
+     * Gets the number of reads sent to replicas.
+     */
+    public long getReadCount() {
+        return this.readCount.get();
+    }
+
+    /**
+     * Gets the number of reads that were sent to a second replica.
+     */
+    public long getHedgedReadCount() {
+        return this.hedgedReadCount.get();
+    }
+
+    /**
+     * Gets the number of hedged reads for which the second replica answered first.
+     */
+    public long getHedgeWinCount() {
+        return this.hedgeWinCount.get();
+    }
+
+    /**
+     * Gets the proportion of reads that were sent to a second replica.
+     */
+    public double getHedgeRate() {
+        long reads = this.readCount.get();
+        return reads == 0 ? 0 : (double) this.hedgedReadCount.get() / reads;
+    }
+
+    /**
+     * Gets the total latency saved by hedging. It is measured when the slower read completes, so reads cancelled
+     * before completing only count the time they were outstanding, and the value is a lower bound.
+     */
+    public Duration getLatencySaved() {
+        return Duration.ofNanos(this.latencySaved.get());
+    }
+
+    void recordRead(boolean hedged, boolean hedgeWon) {
+        this.readCount.incrementAndGet();
+
+        if (hedged) {
+            this.hedgedReadCount.incrementAndGet();
+        }
+
+        if (hedgeWon) {
+            this.hedgeWinCount.incrementAndGet();
+        }
+    }
+
+    void recordLatencySaved(long nanos) {
+        if (nanos > 0) {
+            this.latencySaved.addAndGet(nanos);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The <code>HedgingPolicy</code> class decides when a read sent to a replica should be sent again to a second
+ * replica. The delay before hedging is a percentile of the latency of recent reads, so that only the slowest reads
+ * are hedged. The percentile is recomputed every tenth of the window, rather than on every read.
+ */
+public class HedgingPolicy {
+
+    private static final int minimumSamples = 20;
+
+    /**
+     * Gets the executor used to send reads to replicas.
+     */
+    @Getter
+    private final ExecutorService executor;
+
+    /**
+     * Gets the percentile of recent latencies after which a read is hedged, between 0 and 1.
+     */
+    @Getter
+    private final double percentile;
+
+    /**
+     * Gets the minimum delay before a read is hedged.
+     */
+    @Getter
+    private final Duration minimumDelay;
+
+    /**
+     * Gets the metrics recorded for the reads performed using this policy.
+     */
+    @Getter
+    private final HedgingMetrics metrics = new HedgingMetrics();
+
+    private final long[] samples;
+    private final int updateInterval;
+    private int sampleCount = 0;
+    private int nextSample = 0;
+    private int samplesSinceUpdate = 0;
+    private volatile Duration hedgeDelay = null;
+
+    public HedgingPolicy(
+        @NonNull ExecutorService executor,
+        double percentile,
+        int windowSize,
+        @NonNull Duration minimumDelay) {
+
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("The percentile must be between 0 and 1.");
+        } else if (windowSize < minimumSamples) {
+            throw new IllegalArgumentException(
+                String.format("The window size must be at least %d.", minimumSamples));
+        }
+
+        this.executor = executor;
+        this.percentile = percentile;
+        this.minimumDelay = minimumDelay;
+        this.samples = new long[windowSize];
+        this.updateInterval = Math.max(minimumSamples, windowSize / 10);
+    }
+
+    public HedgingPolicy(@NonNull ExecutorService executor) {
+        this(executor, 0.95, 1000, Duration.ofMillis(1));
+    }
+
+    /**
+     * Records the latency of a read sent to a replica.
+     */
+    public void recordLatency(@NonNull Duration latency) {
+        long[] window;
+
+        synchronized (this) {
+            this.samples[this.nextSample] = latency.toNanos();
+            this.nextSample = (this.nextSample + 1) % this.samples.length;
+            this.sampleCount = Math.min(this.sampleCount + 1, this.samples.length);
+            this.samplesSinceUpdate++;
+
+            // The delay is computed as soon as enough reads have been recorded, then once every interval
+            if (this.sampleCount < minimumSamples ||
+                (this.hedgeDelay != null && this.samplesSinceUpdate < this.updateInterval)) {
+                return;
+            }
+
+            this.samplesSinceUpdate = 0;
+            window = Arrays.copyOf(this.samples, this.sampleCount);
+        }
+
+        // Sort outside of the lock, so that other reads can still record their latency
+        Arrays.sort(window);
+        int index = Math.max(0, (int) Math.ceil(this.percentile * window.length) - 1);
+
+        Duration delay = Duration.ofNanos(window[index]);
+        this.hedgeDelay = delay.compareTo(this.minimumDelay) < 0 ? this.minimumDelay : delay;
+    }
+
+    /**
+     * Returns how long to wait for the first replica before hedging a read, or null if not enough reads have been
+     * recorded yet, in which case reads are not hedged.
+     */
+    public Duration getHedgeDelay() {
+        return this.hedgeDelay;
+    }
+}
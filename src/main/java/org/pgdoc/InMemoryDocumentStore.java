@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The <code>InMemoryDocumentStore</code> class is an implementation of the <code>DocumentStore</code> interface that
+ * keeps documents in memory, with the same versioning semantics as <code>SqlDocumentStore</code>.
+ * <p>
+ * Documents are protected by a fixed set of striped locks. Updates lock the stripes of all their documents, in a
+ * consistent order, so that batches are applied atomically. Reads are optimistic, and only fall back to locking when
+ * they overlap with a concurrent update. Unlike PostgreSQL, bodies are stored as provided, without being validated or
+ * normalized.
+ */
+public class InMemoryDocumentStore implements DocumentStore {
+
+    private final ConcurrentHashMap<UUID, Document> documents = new ConcurrentHashMap<>();
+    private final StampedLock[] stripes;
+
+    public InMemoryDocumentStore() {
+        this(256);
+    }
+
+    /**
+     * Creates an empty store using the specified number of lock stripes.
+     */
+    public InMemoryDocumentStore(int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("The number of stripes must be positive.");
+        }
+
+        this.stripes = new StampedLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new StampedLock();
+        }
+    }
+
+    @Override
+    public void updateDocuments(Iterable<Document> updatedDocuments, Iterable<Document> checkedDocuments)
+        throws UpdateConflictException {
+
+        List<Document> updatedList = new ArrayList<>();
+        updatedDocuments.forEach(updatedList::add);
+        List<Document> checkedList = new ArrayList<>();
+        checkedDocuments.forEach(checkedList::add);
+
+        List<UUID> ids = new ArrayList<>(updatedList.size() + checkedList.size());
+        updatedList.forEach(document -> ids.add(document.getId()));
+        checkedList.forEach(document -> ids.add(document.getId()));
+
+        int[] stripeIndexes = this.getStripes(ids);
+        long[] stamps = new long[stripeIndexes.length];
+
+        for (int i = 0; i < stripeIndexes.length; i++) {
+            stamps[i] = this.stripes[stripeIndexes[i]].writeLock();
+        }
+
+        try {
+            // Check all the versions before modifying any document
+            checkVersions(updatedList);
+            checkVersions(checkedList);
+
+            for (Document document : updatedList) {
+                this.documents.put(
+                    document.getId(),
+                    new Document(document.getId(), document.getBody(), document.getVersion() + 1));
+            }
+
+        } finally {
+            for (int i = stripeIndexes.length - 1; i >= 0; i--) {
+                this.stripes[stripeIndexes[i]].unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    @Override
+    public List<Document> getDocuments(Iterable<UUID> ids) {
+        List<UUID> idList = new ArrayList<>();
+        ids.forEach(idList::add);
+
+        if (idList.isEmpty()) {
+            return List.of();
+        }
+
+        int[] stripeIndexes = this.getStripes(idList);
+        long[] stamps = new long[stripeIndexes.length];
+
+        // Read without locking, and make sure no update has modified the documents in the meantime
+        boolean valid = true;
+        for (int i = 0; i < stripeIndexes.length && valid; i++) {
+            stamps[i] = this.stripes[stripeIndexes[i]].tryOptimisticRead();
+            valid = stamps[i] != 0;
+        }
+
+        if (valid) {
+            List<Document> result = this.readDocuments(idList);
+
+            for (int i = 0; i < stripeIndexes.length && valid; i++) {
+                valid = this.stripes[stripeIndexes[i]].validate(stamps[i]);
+            }
+
+            if (valid) {
+                return result;
+            }
+        }
+
+        for (int i = 0; i < stripeIndexes.length; i++) {
+            stamps[i] = this.stripes[stripeIndexes[i]].readLock();
+        }
+
+        try {
+            return this.readDocuments(idList);
+        } finally {
+            for (int i = stripeIndexes.length - 1; i >= 0; i--) {
+                this.stripes[stripeIndexes[i]].unlockRead(stamps[i]);
+            }
+        }
+    }
+
+    private void checkVersions(List<Document> documents) {
+        for (Document document : documents) {
+            Document current = this.documents.get(document.getId());
+            long currentVersion = current == null ? 0 : current.getVersion();
+
+            if (currentVersion != document.getVersion()) {
+                throw new UpdateConflictException(document.getId(), document.getVersion());
+            }
+        }
+    }
+
+    private List<Document> readDocuments(List<UUID> ids) {
+        List<Document> result = new ArrayList<>(ids.size());
+
+        for (UUID id : ids) {
+            Document document = this.documents.get(id);
+            result.add(document == null ? new Document(id, null, 0) : document);
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    private int[] getStripes(List<UUID> ids) {
+        int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = Math.floorMod(ids.get(i).hashCode(), this.stripes.length);
+        }
+
+        Arrays.sort(result);
+
+        // Remove duplicates, so that each stripe is only locked once
+        int count = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (count == 0 || result[count - 1] != result[i]) {
+                result[count++] = result[i];
+            }
+        }
+
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Cleanup;
+import lombok.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The <code>OffHeapDocumentCache</code> class caches document bodies outside of the Java heap, as compressed UTF-8
+ * bytes stored in direct or memory-mapped buffers. Documents are indexed by ID in an open-addressing hash table made
+ * of primitive arrays, so that the size of the cache has almost no impact on garbage collection.
+ * <p>
+ * The storage is divided into segments which are filled one after the other. When all the segments are full, the
+ * oldest segment is discarded along with all the documents it contains. The entries of each segment are linked
+ * together in the index, so that discarding a segment only visits the entries it contains.
+ */
+public class OffHeapDocumentCache {
+
+    private static final int compressionThreshold = 128;
+    private static final int empty = -1;
+    private static final int nullBody = -1;
+
+    private static final ThreadLocal<Deflater> deflaters =
+        ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    private final ByteBuffer[] segments;
+    private final int segmentSize;
+    private final int maxEntries;
+
+    // Index
+    private final int mask;
+    private final long[] keysHigh;
+    private final long[] keysLow;
+    private final long[] versions;
+    private final int[] entrySegments;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int[] rawLengths;
+    private final int[] segmentHeads;
+    private final int[] nextEntries;
+    private final int[] previousEntries;
+    private int count = 0;
+
+    private int currentSegment = 0;
+    private int writeOffset = 0;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * Creates a cache stored in direct buffers.
+     *
+     * @param maxEntries   the maximum number of documents held in the cache
+     * @param segmentSize  the size of each segment, in bytes
+     * @param segmentCount the number of segments
+     */
+    public OffHeapDocumentCache(int maxEntries, int segmentSize, int segmentCount) {
+        this(maxEntries, segmentSize, segmentCount, null);
+    }
+
+    /**
+     * Creates a cache stored in memory-mapped files created in the specified directory, or in direct buffers if the
+     * directory is null.
+     *
+     * @param maxEntries   the maximum number of documents held in the cache
+     * @param segmentSize  the size of each segment, in bytes
+     * @param segmentCount the number of segments
+     * @param directory    the directory in which the segment files are created, or null
+     */
+    public OffHeapDocumentCache(int maxEntries, int segmentSize, int segmentCount, Path directory) {
+        if (maxEntries <= 0 || segmentSize <= 0 || segmentCount <= 0) {
+            throw new IllegalArgumentException("The size of the cache must be positive.");
+        }
+
+        this.maxEntries = maxEntries;
+        this.segmentSize = segmentSize;
+        this.segments = new ByteBuffer[segmentCount];
+
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = directory == null
+                ? ByteBuffer.allocateDirect(segmentSize)
+                : mapSegment(directory, i, segmentSize);
+        }
+
+        // Keep the load factor of the index below 0.75
+        int capacity = Integer.highestOneBit(Math.max(2, maxEntries + maxEntries / 3) * 2 - 1);
+        this.mask = capacity - 1;
+        this.keysHigh = new long[capacity];
+        this.keysLow = new long[capacity];
+        this.versions = new long[capacity];
+        this.entrySegments = new int[capacity];
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+        this.rawLengths = new int[capacity];
+        this.segmentHeads = new int[segmentCount];
+        this.nextEntries = new int[capacity];
+        this.previousEntries = new int[capacity];
+        Arrays.fill(this.entrySegments, empty);
+        Arrays.fill(this.segmentHeads, empty);
+    }
+
+    /**
+     * Returns the cached document with the specified ID, if it is cached at the specified version.
+     *
+     * @param id      the ID of the document
+     * @param version the current version of the document
+     * @return the cached document, or null if the document is not cached at that version
+     */
+    public Document get(@NonNull UUID id, long version) {
+        byte[] bytes;
+        int rawLength;
+
+        synchronized (this) {
+            int slot = this.find(id.getMostSignificantBits(), id.getLeastSignificantBits());
+
+            if (slot == empty || this.versions[slot] != version) {
+                this.missCount++;
+                return null;
+            }
+
+            this.hitCount++;
+            rawLength = this.rawLengths[slot];
+
+            if (rawLength == nullBody) {
+                return new Document(id, null, version);
+            }
+
+            bytes = new byte[this.lengths[slot]];
+            ByteBuffer buffer = this.segments[this.entrySegments[slot]].duplicate();
+            buffer.position(this.offsets[slot]);
+            buffer.get(bytes);
+        }
+
+        return new Document(id, new String(decompress(bytes, rawLength), StandardCharsets.UTF_8), version);
+    }
+
+    /**
+     * Adds a document to the cache, unless a more recent version of the document is already cached.
+     */
+    public void put(@NonNull Document document) {
+        UUID id = document.getId();
+        byte[] raw = document.getBody() == null ? null : document.getBody().getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = raw == null ? new byte[0] : compress(raw);
+
+        synchronized (this) {
+            int slot = this.find(id.getMostSignificantBits(), id.getLeastSignificantBits());
+
+            if (slot != empty && this.versions[slot] > document.getVersion()) {
+                return;
+            } else if (bytes.length > this.segmentSize) {
+                if (slot != empty) {
+                    this.remove(slot);
+                }
+
+                return;
+            }
+
+            if (this.writeOffset + bytes.length > this.segmentSize) {
+                this.currentSegment = (this.currentSegment + 1) % this.segments.length;
+                this.writeOffset = 0;
+                this.evictSegment(this.currentSegment);
+            }
+
+            if (slot == empty) {
+                // Discard segments from the oldest to the most recent, until there is room for a new entry
+                for (int i = 1; this.count >= this.maxEntries && i <= this.segments.length; i++) {
+                    int segment = (this.currentSegment + i) % this.segments.length;
+                    this.evictSegment(segment);
+
+                    if (segment == this.currentSegment) {
+                        this.writeOffset = 0;
+                    }
+                }
+            }
+
+            ByteBuffer buffer = this.segments[this.currentSegment].duplicate();
+            buffer.position(this.writeOffset);
+            buffer.put(bytes);
+
+            // Evictions may have moved the entry
+            slot = this.find(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (slot == empty) {
+                slot = this.insertionSlot(id.getMostSignificantBits(), id.getLeastSignificantBits());
+                this.keysHigh[slot] = id.getMostSignificantBits();
+                this.keysLow[slot] = id.getLeastSignificantBits();
+                this.link(slot, this.currentSegment);
+                this.count++;
+            } else if (this.entrySegments[slot] != this.currentSegment) {
+                this.unlink(slot);
+                this.link(slot, this.currentSegment);
+            }
+
+            this.versions[slot] = document.getVersion();
+            this.offsets[slot] = this.writeOffset;
+            this.lengths[slot] = bytes.length;
+            this.rawLengths[slot] = raw == null ? nullBody : raw.length;
+            this.writeOffset += bytes.length;
+        }
+    }
+
+    /**
+     * Removes a document from the cache.
+     */
+    public synchronized void invalidate(@NonNull UUID id) {
+        int slot = this.find(id.getMostSignificantBits(), id.getLeastSignificantBits());
+
+        if (slot != empty) {
+            this.remove(slot);
+        }
+    }
+
+    /**
+     * Gets the number of documents in the cache.
+     */
+    public synchronized int size() {
+        return this.count;
+    }
+
+    /**
+     * Gets the number of lookups that found the document at the requested version.
+     */
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * Gets the number of lookups that didn't find the document at the requested version.
+     */
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * Gets the number of documents discarded to make room for new ones.
+     */
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    private int find(long high, long low) {
+        for (int slot = hash(high, low) & this.mask; this.entrySegments[slot] != empty; slot = (slot + 1) & this.mask) {
+            if (this.keysHigh[slot] == high && this.keysLow[slot] == low) {
+                return slot;
+            }
+        }
+
+        return empty;
+    }
+
+    private int insertionSlot(long high, long low) {
+        int slot = hash(high, low) & this.mask;
+        while (this.entrySegments[slot] != empty) {
+            slot = (slot + 1) & this.mask;
+        }
+
+        return slot;
+    }
+
+    private void evictSegment(int segment) {
+        while (this.segmentHeads[segment] != empty) {
+            this.remove(this.segmentHeads[segment]);
+            this.evictionCount++;
+        }
+    }
+
+    /**
+     * Adds an entry to the list of entries stored in a segment.
+     */
+    private void link(int slot, int segment) {
+        int head = this.segmentHeads[segment];
+
+        this.entrySegments[slot] = segment;
+        this.previousEntries[slot] = empty;
+        this.nextEntries[slot] = head;
+        if (head != empty) {
+            this.previousEntries[head] = slot;
+        }
+
+        this.segmentHeads[segment] = slot;
+    }
+
+    /**
+     * Removes an entry from the list of entries stored in its segment.
+     */
+    private void unlink(int slot) {
+        int previous = this.previousEntries[slot];
+        int next = this.nextEntries[slot];
+
+        if (previous == empty) {
+            this.segmentHeads[this.entrySegments[slot]] = next;
+        } else {
+            this.nextEntries[previous] = next;
+        }
+
+        if (next != empty) {
+            this.previousEntries[next] = previous;
+        }
+    }
+
+    /**
+     * Removes an entry using backward shift deletion, which keeps probe sequences intact without tombstones.
+     */
+    private void remove(int slot) {
+        this.unlink(slot);
+
+        int hole = slot;
+        int next = slot;
+
+        while (true) {
+            next = (next + 1) & this.mask;
+            if (this.entrySegments[next] == empty) {
+                break;
+            }
+
+            int home = hash(this.keysHigh[next], this.keysLow[next]) & this.mask;
+            boolean reachable = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+
+            if (!reachable) {
+                this.keysHigh[hole] = this.keysHigh[next];
+                this.keysLow[hole] = this.keysLow[next];
+                this.versions[hole] = this.versions[next];
+                this.entrySegments[hole] = this.entrySegments[next];
+                this.offsets[hole] = this.offsets[next];
+                this.lengths[hole] = this.lengths[next];
+                this.rawLengths[hole] = this.rawLengths[next];
+                this.move(next, hole);
+                hole = next;
+            }
+        }
+
+        this.entrySegments[hole] = empty;
+        this.count--;
+    }
+
+    /**
+     * Updates the list of entries of a segment after an entry has been shifted to another slot.
+     */
+    private void move(int from, int to) {
+        int previous = this.previousEntries[from];
+        int next = this.nextEntries[from];
+
+        this.previousEntries[to] = previous;
+        this.nextEntries[to] = next;
+
+        if (previous == empty) {
+            this.segmentHeads[this.entrySegments[to]] = to;
+        } else {
+            this.nextEntries[previous] = to;
+        }
+
+        if (next != empty) {
+            this.previousEntries[next] = to;
+        }
+    }
+
+    private static int hash(long high, long low) {
+        long value = high ^ low;
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+
+    private static byte[] compress(byte[] raw) {
+        if (raw.length < compressionThreshold) {
+            return raw;
+        }
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(raw.length / 4 + 16);
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            output.write(buffer, 0, length);
+        }
+
+        // Only keep the compressed form if it is smaller
+        byte[] compressed = output.toByteArray();
+        return compressed.length < raw.length ? compressed : raw;
+    }
+
+    private static byte[] decompress(byte[] bytes, int rawLength) {
+        if (bytes.length == rawLength) {
+            return bytes;
+        }
+
+        try {
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(bytes);
+
+            byte[] raw = new byte[rawLength];
+            int offset = 0;
+            while (offset < rawLength) {
+                offset += inflater.inflate(raw, offset, rawLength - offset);
+            }
+
+            return raw;
+
+        } catch (DataFormatException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private static ByteBuffer mapSegment(Path directory, int index, int size) {
+        try {
+            Path path = directory.resolve(String.format("segment-%d.bin", index));
+            @Cleanup FileChannel channel = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        } catch (IOException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The <code>ReplicatedDocumentStore</code> class is an implementation of the <code>DocumentStore</code> interface that
+ * sends updates to a primary store, and distributes reads across a set of replica stores.
+ * <p>
+ * Replicas may lag behind the primary. Reads that must observe previous writes can provide a
+ * <code>VersionToken</code>: documents returned by a replica at an older version than required by the token are read
+ * again from the primary.
+ */
+public class ReplicatedDocumentStore implements DocumentStore {
+
+    /**
+     * Gets the store to which updates are sent, and from which stale reads are retried.
+     */
+    @Getter
+    private final DocumentStore primary;
+
+    /**
+     * Gets the stores from which documents are read.
+     */
+    @Getter
+    private final List<DocumentStore> replicas;
+
+    /**
+     * Gets or sets the policy used to send slow reads to a second replica, or null to disable hedging. Hedging
+     * requires at least two replicas.
+     */
+    @Getter
+    @Setter
+    private HedgingPolicy hedgingPolicy;
+
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    private final AtomicIntegerArray abandonedReads;
+
+    public ReplicatedDocumentStore(@NonNull DocumentStore primary, @NonNull List<DocumentStore> replicas) {
+        this.primary = primary;
+        this.replicas = Collections.unmodifiableList(new ArrayList<>(replicas));
+        this.abandonedReads = new AtomicIntegerArray(this.replicas.size());
+    }
+
+    @Override
+    public void updateDocuments(Iterable<Document> updatedDocuments, Iterable<Document> checkedDocuments)
+        throws UpdateConflictException {
+
+        this.primary.updateDocuments(updatedDocuments, checkedDocuments);
+    }
+
+    @Override
+    public Map<UUID, Long> updateDocumentsWithVersions(
+        Iterable<Document> updatedDocuments,
+        Iterable<Document> checkedDocuments)
+        throws UpdateConflictException {
+
+        return this.primary.updateDocumentsWithVersions(updatedDocuments, checkedDocuments);
+    }
+
+    @Override
+    public Set<UUID> createDocuments(Iterable<Document> documents) {
+        return this.primary.createDocuments(documents);
+    }
+
+    @Override
+    public void overwriteDocuments(Iterable<Document> documents) {
+        this.primary.overwriteDocuments(documents);
+    }
+
+    /**
+     * Updates atomically the body of multiple documents, and returns a token that can be used to read the effects of
+     * this update from a replica.
+     *
+     * @param updatedDocuments the documents being updated
+     * @param checkedDocuments the documents whose versions are checked, but which are not updated
+     * @return a token holding the versions of the documents after the update
+     */
+    public VersionToken updateDocumentsWithToken(
+        Iterable<Document> updatedDocuments,
+        Iterable<Document> checkedDocuments)
+        throws UpdateConflictException {
+
+        List<Document> checkedList = new ArrayList<>();
+        checkedDocuments.forEach(checkedList::add);
+
+        Map<UUID, Long> updatedVersions = this.primary.updateDocumentsWithVersions(updatedDocuments, checkedList);
+        Map<UUID, Long> versions = new HashMap<>();
+
+        for (Document document : checkedList) {
+            versions.put(document.getId(), document.getVersion());
+        }
+
+        versions.putAll(updatedVersions);
+
+        return new VersionToken(versions);
+    }
+
+    @Override
+    public List<Document> getDocuments(Iterable<UUID> ids) {
+        return this.getDocuments(ids, VersionToken.EMPTY);
+    }
+
+    /**
+     * Retrieves multiple documents given their IDs, from a replica if it is recent enough, or from the primary
+     * otherwise.
+     *
+     * @param ids             the IDs of the documents to retrieve
+     * @param minimumVersions the minimum version that each document must have
+     * @return a list of documents whose IDs were provided
+     */
+    public List<Document> getDocuments(Iterable<UUID> ids, @NonNull VersionToken minimumVersions) {
+        if (this.replicas.isEmpty()) {
+            return this.primary.getDocuments(ids);
+        }
+
+        List<UUID> idList = new ArrayList<>();
+        ids.forEach(idList::add);
+
+        List<Document> documents;
+        try {
+            documents = this.readFromReplicas(idList);
+        } catch (DocumentStoreException exception) {
+            return this.primary.getDocuments(idList);
+        }
+
+        List<UUID> staleIds = new ArrayList<>();
+        for (Document document : documents) {
+            if (document.getVersion() < minimumVersions.getMinimumVersion(document.getId())) {
+                staleIds.add(document.getId());
+            }
+        }
+
+        if (staleIds.isEmpty()) {
+            return documents;
+        }
+
+        Map<UUID, Document> primaryDocuments = new HashMap<>();
+        for (Document document : this.primary.getDocuments(staleIds)) {
+            primaryDocuments.put(document.getId(), document);
+        }
+
+        List<Document> result = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            result.add(primaryDocuments.getOrDefault(document.getId(), document));
+        }
+
+        return result;
+    }
+
+    private List<Document> readFromReplicas(List<UUID> ids) {
+        int index = Math.floorMod(this.nextReplica.getAndIncrement(), this.replicas.size());
+        HedgingPolicy policy = this.hedgingPolicy;
+
+        if (policy == null || this.replicas.size() < 2) {
+            return this.replicas.get(index).getDocuments(ids);
+        }
+
+        index = this.selectReplica(index, -1);
+        if (index < 0) {
+            return this.primary.getDocuments(ids);
+        }
+
+        HedgedRead read = new HedgedRead(policy);
+        CompletionService<List<Document>> completion = new ExecutorCompletionService<>(policy.getExecutor());
+
+        ReplicaRead first = new ReplicaRead(index, ids, policy, read::firstCompleted);
+        first.submit(completion);
+        ReplicaRead second = null;
+
+        try {
+            Duration delay = policy.getHedgeDelay();
+            Future<List<Document>> winner = delay == null
+                ? completion.take()
+                : completion.poll(delay.toNanos(), TimeUnit.NANOSECONDS);
+
+            if (winner == null) {
+                int secondIndex = this.selectReplica(index + 1, index);
+
+                if (secondIndex >= 0) {
+                    second = new ReplicaRead(secondIndex, ids, policy, () -> { });
+                    second.submit(completion);
+                }
+
+                winner = completion.take();
+            }
+
+            List<Document> result;
+            try {
+                result = winner.get();
+            } catch (ExecutionException exception) {
+                if (second == null) {
+                    throw unwrap(exception);
+                }
+
+                // One of the replicas failed, use the other one
+                winner = completion.take();
+                result = getResult(winner);
+            }
+
+            boolean hedgeWon = second != null && second.isFuture(winner);
+            if (second != null) {
+                (hedgeWon ? first : second).abandon();
+            }
+
+            read.completed(second != null, hedgeWon);
+            return result;
+
+        } catch (InterruptedException exception) {
+            first.abandon();
+            if (second != null) {
+                second.abandon();
+            }
+
+            Thread.currentThread().interrupt();
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Returns the index of the first replica from the specified index that isn't still executing an abandoned read,
+     * or -1 if there is none.
+     */
+    private int selectReplica(int start, int excludedIndex) {
+        for (int i = 0; i < this.replicas.size(); i++) {
+            int index = Math.floorMod(start + i, this.replicas.size());
+
+            if (index != excludedIndex && this.abandonedReads.get(index) == 0) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    private static List<Document> getResult(Future<List<Document>> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException exception) {
+            throw unwrap(exception);
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException exception) {
+        if (exception.getCause() instanceof RuntimeException) {
+            return (RuntimeException) exception.getCause();
+        } else {
+            return new DocumentStoreException(exception.getCause().getMessage(), exception.getCause());
+        }
+    }
+
+    /**
+     * Tracks the timing of a read that may be hedged. The latency saved by hedging is known once the read sent to the
+     * first replica has completed.
+     */
+    private static class HedgedRead {
+
+        private final HedgingPolicy policy;
+        private final long start = System.nanoTime();
+        private long firstLatency = -1;
+        private long latency = -1;
+        private boolean hedgeWon = false;
+
+        public HedgedRead(HedgingPolicy policy) {
+            this.policy = policy;
+        }
+
+        public synchronized void firstCompleted() {
+            this.firstLatency = System.nanoTime() - this.start;
+            this.recordLatencySaved();
+        }
+
+        public synchronized void completed(boolean hedged, boolean hedgeWon) {
+            this.latency = System.nanoTime() - this.start;
+            this.hedgeWon = hedgeWon;
+            this.policy.getMetrics().recordRead(hedged, hedgeWon);
+            this.recordLatencySaved();
+        }
+
+        private void recordLatencySaved() {
+            if (this.hedgeWon && this.firstLatency >= 0 && this.latency >= 0) {
+                this.policy.getMetrics().recordLatencySaved(this.firstLatency - this.latency);
+            }
+        }
+    }
+
+    /**
+     * A read sent to a replica as part of a hedged read. A read that has started can't be stopped, since interrupting
+     * the thread doesn't stop the statement being executed on the connection of the replica. When such a read is
+     * abandoned, the replica receives no other hedged read until it has completed. Only the latency of the reads that
+     * complete is recorded.
+     */
+    private class ReplicaRead implements Callable<List<Document>> {
+
+        private final int index;
+        private final List<UUID> ids;
+        private final HedgingPolicy policy;
+        private final Runnable onCompleted;
+        private Future<List<Document>> future;
+        private boolean started = false;
+        private boolean finished = false;
+        private boolean abandoned = false;
+
+        public ReplicaRead(int index, List<UUID> ids, HedgingPolicy policy, Runnable onCompleted) {
+            this.index = index;
+            this.ids = ids;
+            this.policy = policy;
+            this.onCompleted = onCompleted;
+        }
+
+        public void submit(CompletionService<List<Document>> completion) {
+            this.future = completion.submit(this);
+        }
+
+        public boolean isFuture(Future<List<Document>> future) {
+            return this.future == future;
+        }
+
+        @Override
+        public List<Document> call() {
+            synchronized (this) {
+                if (this.abandoned) {
+                    return null;
+                }
+
+                this.started = true;
+            }
+
+            try {
+                long start = System.nanoTime();
+                List<Document> result = replicas.get(this.index).getDocuments(this.ids);
+
+                this.policy.recordLatency(Duration.ofNanos(System.nanoTime() - start));
+                this.onCompleted.run();
+                return result;
+
+            } finally {
+                synchronized (this) {
+                    this.finished = true;
+                    if (this.abandoned) {
+                        abandonedReads.decrementAndGet(this.index);
+                    }
+                }
+            }
+        }
+
+        public synchronized void abandon() {
+            this.future.cancel(false);
+
+            if (!this.finished) {
+                this.abandoned = true;
+
+                // A read that hasn't started yet is not executed
+                if (this.started) {
+                    abandonedReads.incrementAndGet(this.index);
+                }
+            }
+        }
+    }
+}
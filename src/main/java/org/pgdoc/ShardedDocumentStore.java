@@ -0,0 +1,359 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Cleanup;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+/**
+ * The <code>ShardedDocumentStore</code> class is an implementation of the <code>DocumentStore</code> interface that
+ * distributes documents across several PostgreSQL databases.
+ * <p>
+ * Updates that only involve documents from one shard are executed directly on that shard. Updates spanning several
+ * shards are executed using two-phase commit, which requires <code>max_prepared_transactions</code> to be set on
+ * every database. The connections of the shards must be in auto-commit mode. Creations and overwrites are applied to
+ * each shard in turn, without two-phase commit, since they don't check the versions of the documents.
+ * <p>
+ * Reads spanning several shards are executed in parallel by the executor, with one task per shard, so each connection
+ * is only used by one thread at a time within a call. Instances of this class are not thread safe: concurrent calls
+ * would use the connections of the shards from several threads at once.
+ */
+public class ShardedDocumentStore implements DocumentStore {
+
+    /**
+     * Gets the stores holding each shard.
+     */
+    @Getter
+    private final List<SqlDocumentStore> shards;
+
+    /**
+     * Gets the policy deciding which shard each document is stored in.
+     */
+    @Getter
+    private final ShardingPolicy shardingPolicy;
+
+    /**
+     * Gets the executor used to read from several shards in parallel.
+     */
+    @Getter
+    private final ExecutorService executor;
+
+    public ShardedDocumentStore(
+        @NonNull List<SqlDocumentStore> shards,
+        @NonNull ShardingPolicy shardingPolicy,
+        @NonNull ExecutorService executor) {
+
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required.");
+        }
+
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.shardingPolicy = shardingPolicy;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the index of the shard a document is stored in.
+     */
+    public int getShard(@NonNull UUID id) {
+        int shard = this.shardingPolicy.getShard(id, this.shards.size());
+
+        if (shard < 0 || shard >= this.shards.size()) {
+            throw new IllegalStateException(String.format("Invalid shard %d for document %s.", shard, id));
+        }
+
+        return shard;
+    }
+
+    @Override
+    public void updateDocuments(Iterable<Document> updatedDocuments, Iterable<Document> checkedDocuments)
+        throws UpdateConflictException {
+
+        this.updateDocumentsWithVersions(updatedDocuments, checkedDocuments);
+    }
+
+    @Override
+    public Map<UUID, Long> updateDocumentsWithVersions(
+        Iterable<Document> updatedDocuments,
+        Iterable<Document> checkedDocuments)
+        throws UpdateConflictException {
+
+        Map<Integer, List<Document>> updatedByShard = this.groupByShard(updatedDocuments);
+        Map<Integer, List<Document>> checkedByShard = this.groupByShard(checkedDocuments);
+
+        TreeSet<Integer> shardIndexes = new TreeSet<>(updatedByShard.keySet());
+        shardIndexes.addAll(checkedByShard.keySet());
+
+        if (shardIndexes.size() == 1) {
+            int index = shardIndexes.first();
+            return this.shards.get(index).updateDocumentsWithVersions(
+                updatedByShard.getOrDefault(index, List.of()),
+                checkedByShard.getOrDefault(index, List.of()));
+
+        } else if (shardIndexes.size() > 1) {
+            return this.updateWithTwoPhaseCommit(shardIndexes, updatedByShard, checkedByShard);
+
+        } else {
+            return new HashMap<>();
+        }
+    }
+
+    private Map<UUID, Long> updateWithTwoPhaseCommit(
+        TreeSet<Integer> shardIndexes,
+        Map<Integer, List<Document>> updatedByShard,
+        Map<Integer, List<Document>> checkedByShard) {
+
+        String transactionId = "pgdoc_" + UUID.randomUUID();
+        List<Integer> prepared = new ArrayList<>();
+        Map<UUID, Long> versions = new HashMap<>();
+
+        try {
+            // Phase one: apply the updates on every shard, and prepare the transactions
+            for (int index : shardIndexes) {
+                SqlDocumentStore shard = this.shards.get(index);
+                Connection connection = shard.getConnection();
+
+                if (!connection.getAutoCommit()) {
+                    throw new IllegalStateException("The connections of the shards must be in auto-commit mode.");
+                }
+
+                connection.setAutoCommit(false);
+                try {
+                    versions.putAll(shard.updateDocumentsWithVersions(
+                        updatedByShard.getOrDefault(index, List.of()),
+                        checkedByShard.getOrDefault(index, List.of())));
+
+                    execute(connection, String.format("PREPARE TRANSACTION '%s_%d'", transactionId, index));
+                    prepared.add(index);
+
+                } catch (RuntimeException | SQLException exception) {
+                    connection.rollback();
+                    throw exception;
+
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+
+        } catch (RuntimeException | SQLException exception) {
+            for (int index : prepared) {
+                try {
+                    execute(
+                        this.shards.get(index).getConnection(),
+                        String.format("ROLLBACK PREPARED '%s_%d'", transactionId, index));
+                } catch (SQLException rollbackException) {
+                    exception.addSuppressed(rollbackException);
+                }
+            }
+
+            if (exception instanceof RuntimeException) {
+                throw (RuntimeException) exception;
+            } else {
+                throw new DocumentStoreException(exception.getMessage(), exception);
+            }
+        }
+
+        // Phase two: commit the prepared transactions
+        // Every commit is attempted, so that a failure on one shard doesn't leave the other transactions in doubt
+        List<String> inDoubt = new ArrayList<>();
+        SQLException failure = null;
+
+        for (int index : prepared) {
+            String preparedId = String.format("%s_%d", transactionId, index);
+
+            try {
+                execute(this.shards.get(index).getConnection(), String.format("COMMIT PREPARED '%s'", preparedId));
+            } catch (SQLException exception) {
+                inDoubt.add(preparedId);
+
+                if (failure == null) {
+                    failure = exception;
+                } else {
+                    failure.addSuppressed(exception);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw new DocumentStoreException(
+                String.format(
+                    "The prepared transactions %s could not be committed, and must be resolved manually.",
+                    String.join(", ", inDoubt)),
+                failure);
+        }
+
+        return versions;
+    }
+
+    @Override
+    public List<Document> getDocuments(Iterable<UUID> ids) {
+        List<UUID> idList = new ArrayList<>();
+        ids.forEach(idList::add);
+
+        Map<UUID, Document> documents = new HashMap<>();
+        for (List<Document> shardDocuments : this.readFromShards(idList, SqlDocumentStore::getDocuments)) {
+            for (Document document : shardDocuments) {
+                documents.put(document.getId(), document);
+            }
+        }
+
+        List<Document> result = new ArrayList<>(idList.size());
+        for (UUID id : idList) {
+            result.add(documents.get(id));
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<UUID, Long> getDocumentVersions(Iterable<UUID> ids) {
+        List<UUID> idList = new ArrayList<>();
+        ids.forEach(idList::add);
+
+        Map<UUID, Long> result = new HashMap<>();
+        for (Map<UUID, Long> versions : this.readFromShards(idList, SqlDocumentStore::getDocumentVersions)) {
+            result.putAll(versions);
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates multiple documents if they don't exist, without requiring their current version. The documents of each
+     * shard are created atomically, but the writes to different shards are independent of each other.
+     *
+     * @param documents the documents to create, which must have a non-null body
+     * @return the IDs of the documents that were created
+     */
+    @Override
+    public Set<UUID> createDocuments(Iterable<Document> documents) {
+        Set<UUID> result = new HashSet<>();
+
+        for (Map.Entry<Integer, List<Document>> entry : this.groupByShard(documents).entrySet()) {
+            result.addAll(this.shards.get(entry.getKey()).createDocuments(entry.getValue()));
+        }
+
+        return result;
+    }
+
+    /**
+     * Replaces the body of multiple documents regardless of their current version. The documents of each shard are
+     * overwritten atomically, but the writes to different shards are independent of each other.
+     *
+     * @param documents the documents to overwrite
+     */
+    @Override
+    public void overwriteDocuments(Iterable<Document> documents) {
+        for (Map.Entry<Integer, List<Document>> entry : this.groupByShard(documents).entrySet()) {
+            this.shards.get(entry.getKey()).overwriteDocuments(entry.getValue());
+        }
+    }
+
+    /**
+     * Reads the given IDs from the shards they are stored in, and returns the result of each shard. Reads spanning
+     * several shards are executed in parallel by the executor.
+     */
+    private <T> List<T> readFromShards(List<UUID> ids, BiFunction<SqlDocumentStore, List<UUID>, T> read) {
+        Map<Integer, List<UUID>> idsByShard = new TreeMap<>();
+        for (UUID id : ids) {
+            idsByShard.computeIfAbsent(this.getShard(id), key -> new ArrayList<>()).add(id);
+        }
+
+        if (idsByShard.size() <= 1) {
+            int index = idsByShard.isEmpty() ? 0 : idsByShard.keySet().iterator().next();
+            return List.of(read.apply(this.shards.get(index), ids));
+        }
+
+        Map<Integer, Future<T>> futures = new TreeMap<>();
+        for (Map.Entry<Integer, List<UUID>> entry : idsByShard.entrySet()) {
+            SqlDocumentStore shard = this.shards.get(entry.getKey());
+            futures.put(entry.getKey(), this.executor.submit(() -> read.apply(shard, entry.getValue())));
+        }
+
+        List<T> result = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures.values()) {
+                result.add(future.get());
+            }
+
+        } catch (InterruptedException exception) {
+            futures.values().forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new DocumentStoreException(exception.getMessage(), exception);
+
+        } catch (ExecutionException exception) {
+            // Wait for the other reads, so that no connection is still in use once this method has returned
+            awaitAll(futures.values());
+
+            if (exception.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) exception.getCause();
+            } else {
+                throw new DocumentStoreException(exception.getCause().getMessage(), exception.getCause());
+            }
+        }
+
+        return result;
+    }
+
+    private static void awaitAll(Collection<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException exception) {
+                // The first failure is reported by the caller
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Map<Integer, List<Document>> groupByShard(Iterable<Document> documents) {
+        Map<Integer, List<Document>> result = new TreeMap<>();
+
+        for (Document document : documents) {
+            result.computeIfAbsent(this.getShard(document.getId()), key -> new ArrayList<>()).add(document);
+        }
+
+        return result;
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        @Cleanup Statement statement = connection.createStatement();
+        statement.execute(sql);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import java.util.UUID;
+
+/**
+ * The <code>ShardingPolicy</code> interface decides which shard a document is stored in.
+ */
+public interface ShardingPolicy {
+
+    /**
+     * Returns the index of the shard a document is stored in.
+     *
+     * @param id         the ID of the document
+     * @param shardCount the total number of shards
+     * @return a shard index between zero (inclusive) and <code>shardCount</code> (exclusive)
+     */
+    int getShard(UUID id, int shardCount);
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>SnapshotDocumentStore</code> class is an implementation of the <code>DocumentStore</code> interface that
+ * serves documents from a local <code>DocumentSnapshot</code> file while their versions are being revalidated against
+ * another <code>DocumentStore</code> in the background.
+ * <p>
+ * Until a document has been revalidated, reads may return a version older than the current one. Updates based on such
+ * a version fail with an <code>UpdateConflictException</code>, in the same way as updates based on any other stale
+ * read. Documents that are found to be stale, or that are updated through this store, are then always read from the
+ * underlying store.
+ * <p>
+ * Once the revalidation has completed, the versions of the documents served from the snapshot are checked against the
+ * underlying store on every read, so that updates made through other stores are seen.
+ */
+public class SnapshotDocumentStore implements DocumentStore {
+
+    private static final int revalidationBatchSize = 1000;
+
+    /**
+     * Gets the underlying store.
+     */
+    @Getter
+    private final DocumentStore documentStore;
+
+    /**
+     * Gets the store used to revalidate the snapshot in the background.
+     */
+    @Getter
+    private final DocumentStore revalidationStore;
+
+    /**
+     * Gets the path of the snapshot file.
+     */
+    @Getter
+    private final Path snapshotFile;
+
+    /**
+     * Gets the task revalidating the documents of the snapshot against the underlying store.
+     */
+    @Getter
+    private final CompletableFuture<Void> revalidation;
+
+    private final DocumentSnapshot snapshot;
+    private final Set<UUID> servedIds;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong staleCount = new AtomicLong();
+
+    /**
+     * Creates a store serving documents from the specified snapshot file, if it exists. The revalidation of the
+     * snapshot starts immediately on the executor provided. It runs concurrently with the reads made through this
+     * store, so it uses a separate store, such as a <code>SqlDocumentStore</code> with its own connection.
+     *
+     * @param documentStore     the underlying store
+     * @param revalidationStore the store used to revalidate the snapshot, backed by the same data
+     * @param snapshotFile      the path of the snapshot file
+     * @param executor          the executor used to revalidate the snapshot
+     */
+    public SnapshotDocumentStore(
+        @NonNull DocumentStore documentStore,
+        @NonNull DocumentStore revalidationStore,
+        @NonNull Path snapshotFile,
+        @NonNull Executor executor) {
+
+        this.documentStore = documentStore;
+        this.revalidationStore = revalidationStore;
+        this.snapshotFile = snapshotFile;
+        this.servedIds = ConcurrentHashMap.newKeySet();
+
+        if (Files.exists(snapshotFile)) {
+            this.snapshot = DocumentSnapshot.open(snapshotFile);
+            this.servedIds.addAll(this.snapshot.getIds());
+            this.revalidation = CompletableFuture.runAsync(this::revalidate, executor);
+        } else {
+            this.snapshot = null;
+            this.revalidation = CompletableFuture.completedFuture(null);
+        }
+    }
+
+    @Override
+    public void updateDocuments(Iterable<Document> updatedDocuments, Iterable<Document> checkedDocuments)
+        throws UpdateConflictException {
+
+        this.updateDocumentsWithVersions(updatedDocuments, checkedDocuments);
+    }
+
+    @Override
+    public Map<UUID, Long> updateDocumentsWithVersions(
+        Iterable<Document> updatedDocuments,
+        Iterable<Document> checkedDocuments)
+        throws UpdateConflictException {
+
+        List<Document> updatedList = new ArrayList<>();
+        updatedDocuments.forEach(updatedList::add);
+
+        try {
+            return this.documentStore.updateDocumentsWithVersions(updatedList, checkedDocuments);
+        } finally {
+            for (Document document : updatedList) {
+                this.servedIds.remove(document.getId());
+            }
+        }
+    }
+
+    @Override
+    public Set<UUID> createDocuments(Iterable<Document> documents) {
+        List<Document> documentList = new ArrayList<>();
+        documents.forEach(documentList::add);
+
+        try {
+            return this.documentStore.createDocuments(documentList);
+        } finally {
+            for (Document document : documentList) {
+                this.servedIds.remove(document.getId());
+            }
+        }
+    }
+
+    @Override
+    public void overwriteDocuments(Iterable<Document> documents) {
+        List<Document> documentList = new ArrayList<>();
+        documents.forEach(documentList::add);
+
+        try {
+            this.documentStore.overwriteDocuments(documentList);
+        } finally {
+            for (Document document : documentList) {
+                this.servedIds.remove(document.getId());
+            }
+        }
+    }
+
+    @Override
+    public List<Document> getDocuments(Iterable<UUID> ids) {
+        List<UUID> idList = new ArrayList<>();
+        ids.forEach(idList::add);
+
+        Map<UUID, Long> currentVersions = this.getCurrentVersions(idList);
+        Map<UUID, Document> documents = new HashMap<>();
+        List<UUID> missing = new ArrayList<>();
+
+        for (UUID id : idList) {
+            if (!documents.containsKey(id)) {
+                Document document = this.servedIds.contains(id) ? this.snapshot.get(id) : null;
+
+                if (document != null && currentVersions != null
+                    && currentVersions.getOrDefault(id, 0L) != document.getVersion()) {
+
+                    // The document has been modified since it was revalidated
+                    this.servedIds.remove(id);
+                    document = null;
+                }
+
+                if (document == null) {
+                    missing.add(id);
+                } else {
+                    this.hitCount.incrementAndGet();
+                }
+
+                documents.put(id, document);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            for (Document document : this.documentStore.getDocuments(missing)) {
+                documents.put(document.getId(), document);
+            }
+        }
+
+        List<Document> result = new ArrayList<>(idList.size());
+        for (UUID id : idList) {
+            result.add(documents.get(id));
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the current versions of the documents that may be served from the snapshot, or null if they don't need
+     * to be checked because the revalidation is still in progress.
+     */
+    private Map<UUID, Long> getCurrentVersions(List<UUID> ids) {
+        if (!this.revalidation.isDone()) {
+            return null;
+        }
+
+        Set<UUID> servedIds = new LinkedHashSet<>();
+        for (UUID id : ids) {
+            if (this.servedIds.contains(id)) {
+                servedIds.add(id);
+            }
+        }
+
+        return servedIds.isEmpty() ? Map.of() : this.documentStore.getDocumentVersions(servedIds);
+    }
+
+    @Override
+    public Map<UUID, Long> getDocumentVersions(Iterable<UUID> ids) {
+        return this.documentStore.getDocumentVersions(ids);
+    }
+
+    /**
+     * Writes the current state of a working set of documents to the snapshot file, so that it can be served by the
+     * next instance of the store. Documents that don't exist are omitted.
+     *
+     * @param workingSet the IDs of the documents to include in the snapshot
+     */
+    public void saveSnapshot(@NonNull Iterable<UUID> workingSet) {
+        List<Document> documents = new ArrayList<>();
+
+        for (Document document : this.documentStore.getDocuments(workingSet)) {
+            if (document.getVersion() != 0) {
+                documents.add(document);
+            }
+        }
+
+        DocumentSnapshot.write(this.snapshotFile, documents);
+    }
+
+    /**
+     * Gets the number of documents served from the snapshot.
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Gets the number of documents of the snapshot that were found to be stale during revalidation.
+     */
+    public long getStaleCount() {
+        return this.staleCount.get();
+    }
+
+    private void revalidate() {
+        List<UUID> ids = new ArrayList<>(this.snapshot.getIds());
+        int start = 0;
+
+        try {
+            for (; start < ids.size(); start += revalidationBatchSize) {
+                List<UUID> batch = ids.subList(start, Math.min(ids.size(), start + revalidationBatchSize));
+                Map<UUID, Long> versions = this.revalidationStore.getDocumentVersions(batch);
+
+                for (UUID id : batch) {
+                    if (versions.getOrDefault(id, 0L) != this.snapshot.getVersion(id) && this.servedIds.remove(id)) {
+                        this.staleCount.incrementAndGet();
+                    }
+                }
+            }
+        } catch (RuntimeException exception) {
+            // Stop serving the documents that could not be revalidated
+            this.servedIds.removeAll(ids.subList(start, ids.size()));
+            throw exception;
+        }
+    }
+}
@@ -16,21 +16,37 @@
 
 package org.pgdoc;
 
+import com.impossibl.postgres.api.jdbc.PGSQLExceptionInfo;
 import com.impossibl.postgres.jdbc.PGSQLSimpleException;
 import lombok.Cleanup;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The <code>SqlDocumentStore</code> class is an implementation of the <code>DocumentStore</code> interface that
@@ -40,6 +56,8 @@ public class SqlDocumentStore implements DocumentStore {
 
     private static final String serializationFailureSqlState = "40001";
     private static final String deadlockDetectedSqlState = "40P01";
+    private static final String uniqueViolationSqlState = "23505";
+    private static final Pattern duplicateKeyPattern = Pattern.compile("\\(id\\)=\\(([0-9a-fA-F-]{36})\\)");
 
     /**
      * Gets the underlying database connection.
@@ -47,14 +65,275 @@ public class SqlDocumentStore implements DocumentStore {
     @Getter
     private final Connection connection;
 
+    /**
+     * Gets or sets whether updates that leave the body of a document unchanged are treated as version checks. When
+     * enabled, such documents are not rewritten and their version is not incremented, as reported by
+     * <code>updateDocumentsWithVersions</code>. This requires the
+     * <code>update_documents(document_update[], boolean)</code> function.
+     */
+    @Getter
+    @Setter
+    private boolean skipUnchangedDocuments = false;
+
+    /**
+     * Gets or sets whether updates are sent as parallel arrays of primitive values rather than as an array of
+     * <code>document_update</code> composite values. The columnar encoding is cheaper to encode and decode, and
+     * requires the <code>update_documents(uuid[], jsonb[], bigint[], boolean[], boolean)</code> function.
+     */
+    @Getter
+    @Setter
+    private boolean columnarEncoding = false;
+
+    /**
+     * Gets or sets whether updates are performed by a single SQL statement through the
+     * <code>try_update_documents</code> function, rather than by the <code>update_documents</code> function. This
+     * takes fewer row locks and always uses the columnar encoding.
+     */
+    @Getter
+    @Setter
+    private boolean singleStatementUpdates = false;
+
+    /**
+     * Gets or sets the maximum number of times a transaction started by <code>inTransaction</code> is attempted when
+     * it fails with a serialization failure or a deadlock.
+     */
+    @Getter
+    @Setter
+    private int maxTransactionAttempts = 3;
+
+    /**
+     * Gets or sets the delay before a transaction started by <code>inTransaction</code> is attempted again. The delay
+     * doubles with every attempt, and a random fraction of it is used, so that conflicting transactions don't retry in
+     * lockstep.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private Duration transactionRetryDelay = Duration.ofMillis(10);
+
+    private int transactionDepth = 0;
+
     public SqlDocumentStore(@NonNull Connection connection) {
         this.connection = connection;
     }
 
+    /**
+     * Executes a unit of work in a single transaction, and commits it once the unit of work has completed. If the
+     * unit of work throws an exception, the transaction is rolled back and the exception is rethrown. If it fails
+     * because of a serialization failure or a deadlock, the whole unit of work is executed again, up to
+     * <code>maxTransactionAttempts</code> times.
+     * <p>
+     * When called from within another unit of work, the nested unit of work is executed within a savepoint of the
+     * enclosing transaction instead. If it throws an exception, only the changes made by the nested unit of work are
+     * rolled back.
+     * <p>
+     * The connection must be in auto-commit mode when the outermost unit of work starts, since its transaction is
+     * committed and may be executed again.
+     *
+     * @param isolationLevel the JDBC isolation level of the transaction, such as
+     *                       <code>Connection.TRANSACTION_REPEATABLE_READ</code>; ignored for nested units of work
+     * @param unitOfWork     the function to execute within the transaction
+     * @return the value returned by the unit of work
+     */
+    public <T> T inTransaction(int isolationLevel, @NonNull Function<SqlDocumentStore, T> unitOfWork) {
+        if (this.transactionDepth > 0) {
+            return this.inSavepoint(unitOfWork);
+        }
+
+        try {
+            if (!this.connection.getAutoCommit()) {
+                throw new IllegalStateException("The connection is already in a transaction.");
+            }
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return this.executeTransaction(isolationLevel, unitOfWork);
+            } catch (RuntimeException exception) {
+                if (attempt >= this.maxTransactionAttempts || !isTransientFailure(exception)) {
+                    throw exception;
+                }
+
+                this.waitBeforeRetry(attempt, exception);
+            }
+        }
+    }
+
+    private void waitBeforeRetry(int attempt, RuntimeException exception) {
+        long maxDelay = this.transactionRetryDelay.toNanos() << Math.min(attempt - 1, 16);
+
+        try {
+            TimeUnit.NANOSECONDS.sleep((long) (ThreadLocalRandom.current().nextDouble() * maxDelay));
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw exception;
+        }
+    }
+
+    private <T> T executeTransaction(int isolationLevel, Function<SqlDocumentStore, T> unitOfWork) {
+        try {
+            int previousIsolationLevel = this.connection.getTransactionIsolation();
+
+            // The isolation level must be set before the transaction is started
+            this.connection.setTransactionIsolation(isolationLevel);
+            this.connection.setAutoCommit(false);
+            this.transactionDepth++;
+            Exception failure = null;
+
+            try {
+                T result = unitOfWork.apply(this);
+                this.connection.commit();
+                return result;
+
+            } catch (RuntimeException | SQLException exception) {
+                failure = exception;
+
+                try {
+                    this.connection.rollback();
+                } catch (SQLException rollbackException) {
+                    exception.addSuppressed(rollbackException);
+                }
+
+                throw exception;
+
+            } finally {
+                this.transactionDepth--;
+
+                try {
+                    this.connection.setAutoCommit(true);
+                    this.connection.setTransactionIsolation(previousIsolationLevel);
+                } catch (SQLException restoreException) {
+                    // Don't hide the exception that caused the transaction to fail
+                    if (failure == null) {
+                        throw restoreException;
+                    }
+
+                    failure.addSuppressed(restoreException);
+                }
+            }
+
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    private <T> T inSavepoint(Function<SqlDocumentStore, T> unitOfWork) {
+        try {
+            Savepoint savepoint = this.connection.setSavepoint();
+
+            try {
+                T result = unitOfWork.apply(this);
+                this.connection.releaseSavepoint(savepoint);
+                return result;
+
+            } catch (RuntimeException exception) {
+                this.connection.rollback(savepoint);
+                throw exception;
+            }
+
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    private static boolean isTransientFailure(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (serializationFailureSqlState.equals(sqlState) || deadlockDetectedSqlState.equals(sqlState)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
     @Override
     public void updateDocuments(Iterable<Document> updatedDocuments, Iterable<Document> checkedDocuments)
         throws UpdateConflictException {
 
+        this.updateDocumentsWithVersions(updatedDocuments, checkedDocuments);
+    }
+
+    /**
+     * Updates atomically the body of multiple documents, and returns the version of each updated document after the
+     * update. Documents skipped because their body is unchanged keep their version, and documents created in a range
+     * of IDs that has been compacted start from the version floor of that range.
+     *
+     * @param updatedDocuments the documents being updated
+     * @param checkedDocuments the documents whose versions are checked, but which are not updated
+     * @return a map from the ID of each updated document to its new version
+     */
+    @Override
+    public Map<UUID, Long> updateDocumentsWithVersions(
+        Iterable<Document> updatedDocuments,
+        Iterable<Document> checkedDocuments)
+        throws UpdateConflictException {
+
+        List<DocumentUpdate> documentUpdates = createDocumentUpdates(updatedDocuments, checkedDocuments);
+        Map<UUID, Long> writtenVersions = new HashMap<>();
+
+        try {
+            if (this.singleStatementUpdates) {
+                this.executeSingleStatementUpdate(documentUpdates, writtenVersions);
+            } else if (this.columnarEncoding) {
+                this.executeColumnarUpdate(documentUpdates, writtenVersions);
+            } else {
+                this.executeCompositeUpdate(documentUpdates, writtenVersions);
+            }
+
+        } catch (SQLException exception) {
+            throw convertException(exception, documentUpdates);
+        }
+
+        // Documents that were not written keep the version they were updated from
+        Map<UUID, Long> result = new HashMap<>();
+        for (DocumentUpdate documentUpdate : documentUpdates) {
+            if (!documentUpdate.getCheckOnly()) {
+                result.put(
+                    documentUpdate.getId(),
+                    writtenVersions.getOrDefault(documentUpdate.getId(), documentUpdate.getVersion()));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Attempts to update multiple documents, and reports every document whose version does not match instead of
+     * throwing an exception. This requires the <code>try_update_documents</code> function.
+     * <p>
+     * Conflicts detected by PostgreSQL itself still throw an <code>UpdateConflictException</code>: a serialization
+     * failure or a deadlock, which aborts the enclosing transaction and can be retried by <code>inTransaction</code>,
+     * and a unique violation caused by a document being created concurrently by another transaction.
+     *
+     * @param updatedDocuments the documents being updated
+     * @param checkedDocuments the documents whose versions are checked, but which are not updated
+     * @param bestEffort       when false, no document is updated if there is at least one conflict; when true, the
+     *                         documents that don't conflict are updated regardless
+     * @return the conflicting documents, in the order in which they were provided
+     */
+    public List<DocumentConflict> tryUpdateDocuments(
+        Iterable<Document> updatedDocuments,
+        Iterable<Document> checkedDocuments,
+        boolean bestEffort) {
+
+        List<DocumentUpdate> documentUpdates = createDocumentUpdates(updatedDocuments, checkedDocuments);
+
+        try {
+            return this.executeTryUpdate(documentUpdates, bestEffort, new HashMap<>());
+        } catch (SQLException exception) {
+            throw convertException(exception, documentUpdates);
+        }
+    }
+
+    private static List<DocumentUpdate> createDocumentUpdates(
+        Iterable<Document> updatedDocuments,
+        Iterable<Document> checkedDocuments) {
+
         List<DocumentUpdate> documentUpdates = new ArrayList();
 
         for (Document document : updatedDocuments) {
@@ -67,36 +346,389 @@ public class SqlDocumentStore implements DocumentStore {
                 new DocumentUpdate(document.getId(), null, document.getVersion(), true));
         }
 
+        return documentUpdates;
+    }
+
+    private static RuntimeException convertException(SQLException exception, List<DocumentUpdate> documentUpdates) {
+        if (serializationFailureSqlState.equals(exception.getSQLState()) ||
+            deadlockDetectedSqlState.equals(exception.getSQLState())) {
+
+            return new UpdateConflictException(
+                documentUpdates.get(0).getId(),
+                documentUpdates.get(0).getVersion(),
+                exception);
+
+        } else if (uniqueViolationSqlState.equals(exception.getSQLState())) {
+            // A unique violation occurs when a document being created has been created concurrently by another
+            // transaction
+            DocumentUpdate conflict = getCreatedDocument(exception, documentUpdates);
+            return new UpdateConflictException(conflict.getId(), conflict.getVersion(), exception);
+
+        } else if (exception instanceof PGSQLSimpleException && "check_violation".equals(exception.getMessage())) {
+            UUID id = UUID.fromString(((PGSQLSimpleException) exception).getDetail());
+            DocumentUpdate conflict = documentUpdates.stream()
+                .filter(update -> update.getId().equals(id))
+                .findFirst()
+                .get();
+
+            return new UpdateConflictException(conflict.getId(), conflict.getVersion());
+
+        } else {
+            return new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    private static DocumentUpdate getCreatedDocument(SQLException exception, List<DocumentUpdate> documentUpdates) {
+        // The detail of the error identifies the duplicate key, as in "Key (id)=(...) already exists."
+        if (exception instanceof PGSQLExceptionInfo && ((PGSQLExceptionInfo) exception).getDetail() != null) {
+            Matcher matcher = duplicateKeyPattern.matcher(((PGSQLExceptionInfo) exception).getDetail());
+
+            if (matcher.find()) {
+                UUID id = UUID.fromString(matcher.group(1));
+
+                for (DocumentUpdate documentUpdate : documentUpdates) {
+                    if (documentUpdate.getId().equals(id)) {
+                        return documentUpdate;
+                    }
+                }
+            }
+        }
+
+        return documentUpdates.stream()
+            .filter(update -> update.getVersion() == 0 && !update.getCheckOnly())
+            .findFirst()
+            .orElse(documentUpdates.get(0));
+    }
+
+    private void executeCompositeUpdate(List<DocumentUpdate> documentUpdates, Map<UUID, Long> writtenVersions)
+        throws SQLException {
+
+        @Cleanup PreparedStatement statement = this.connection.prepareStatement(
+            this.skipUnchangedDocuments ?
+                "SELECT id, version FROM update_documents(?, ?)" :
+                "SELECT id, version FROM update_documents(?)");
+
+        @Cleanup("free") Array updateArray =
+            connection.createArrayOf("document_update", documentUpdates.toArray(new DocumentUpdate[0]));
+
+        statement.setObject(1, updateArray);
+
+        if (this.skipUnchangedDocuments) {
+            statement.setBoolean(2, true);
+        }
+
+        readVersions(statement, writtenVersions);
+    }
+
+    private void executeColumnarUpdate(List<DocumentUpdate> documentUpdates, Map<UUID, Long> writtenVersions)
+        throws SQLException {
+
+        List<Array> arrays = new ArrayList<>();
+
+        try {
+            @Cleanup PreparedStatement statement =
+                this.connection.prepareStatement("SELECT id, version FROM update_documents(?, ?, ?, ?, ?)");
+
+            this.bindColumnarArrays(statement, documentUpdates, arrays);
+            statement.setBoolean(5, this.skipUnchangedDocuments);
+
+            readVersions(statement, writtenVersions);
+
+        } finally {
+            freeArrays(arrays);
+        }
+    }
+
+    private static void readVersions(PreparedStatement statement, Map<UUID, Long> versions) throws SQLException {
+        @Cleanup ResultSet resultSet = statement.executeQuery();
+
+        while (resultSet.next()) {
+            versions.put(resultSet.getObject("id", UUID.class), resultSet.getLong("version"));
+        }
+    }
+
+    private void executeSingleStatementUpdate(List<DocumentUpdate> documentUpdates, Map<UUID, Long> writtenVersions)
+        throws SQLException {
+
+        List<DocumentConflict> conflicts = this.executeTryUpdate(documentUpdates, false, writtenVersions);
+
+        if (!conflicts.isEmpty()) {
+            throw new UpdateConflictException(conflicts.get(0).getId(), conflicts.get(0).getExpectedVersion());
+        }
+    }
+
+    private List<DocumentConflict> executeTryUpdate(
+        List<DocumentUpdate> documentUpdates,
+        boolean bestEffort,
+        Map<UUID, Long> writtenVersions)
+        throws SQLException {
+
+        List<Array> arrays = new ArrayList<>();
+        Map<UUID, Long> currentVersions = new HashMap<>();
+
+        try {
+            @Cleanup PreparedStatement statement =
+                this.connection.prepareStatement(
+                    "SELECT id, version, conflict FROM try_update_documents(?, ?, ?, ?, ?, ?)");
+
+            this.bindColumnarArrays(statement, documentUpdates, arrays);
+            statement.setBoolean(5, this.skipUnchangedDocuments);
+            statement.setBoolean(6, bestEffort);
+
+            @Cleanup ResultSet resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+                UUID id = resultSet.getObject("id", UUID.class);
+                long version = resultSet.getLong("version");
+
+                if (resultSet.getBoolean("conflict")) {
+                    currentVersions.put(id, version);
+                } else {
+                    writtenVersions.put(id, version);
+                }
+            }
+
+        } finally {
+            freeArrays(arrays);
+        }
+
+        List<DocumentConflict> conflicts = new ArrayList<>();
+        for (DocumentUpdate documentUpdate : documentUpdates) {
+            Long currentVersion = currentVersions.remove(documentUpdate.getId());
+            if (currentVersion != null) {
+                conflicts.add(new DocumentConflict(documentUpdate.getId(), documentUpdate.getVersion(), currentVersion));
+            }
+        }
+
+        return conflicts;
+    }
+
+    /**
+     * Binds the columns of the updates as the first four parameters of a statement. Each array is added to the list
+     * as soon as it is created, so that the caller can free all the arrays created even if a later one fails.
+     */
+    private void bindColumnarArrays(
+        PreparedStatement statement,
+        List<DocumentUpdate> documentUpdates,
+        List<Array> arrays)
+        throws SQLException {
+
+        UUID[] ids = new UUID[documentUpdates.size()];
+        String[] bodies = new String[documentUpdates.size()];
+        Long[] versions = new Long[documentUpdates.size()];
+        Boolean[] checkOnly = new Boolean[documentUpdates.size()];
+
+        for (int i = 0; i < documentUpdates.size(); i++) {
+            DocumentUpdate documentUpdate = documentUpdates.get(i);
+            ids[i] = documentUpdate.getId();
+            bodies[i] = documentUpdate.getBody();
+            versions[i] = documentUpdate.getVersion();
+            checkOnly[i] = documentUpdate.getCheckOnly();
+        }
+
+        arrays.add(connection.createArrayOf("uuid", ids));
+        arrays.add(connection.createArrayOf("jsonb", bodies));
+        arrays.add(connection.createArrayOf("int8", versions));
+        arrays.add(connection.createArrayOf("bool", checkOnly));
+
+        for (int i = 0; i < arrays.size(); i++) {
+            statement.setObject(i + 1, arrays.get(i));
+        }
+    }
+
+    private static void freeArrays(List<Array> arrays) throws SQLException {
+        for (Array array : arrays) {
+            array.free();
+        }
+    }
+
+    /**
+     * Creates multiple documents if they don't exist, in a single statement that doesn't check versions. This
+     * requires the <code>create_documents</code> function.
+     *
+     * @param documents the documents to create, which must have a non-null body
+     * @return the IDs of the documents that were created
+     */
+    @Override
+    public Set<UUID> createDocuments(@NonNull Iterable<Document> documents) {
+        List<Document> documentList = new ArrayList<>();
+
+        for (Document document : documents) {
+            if (document.getBody() == null) {
+                throw new IllegalArgumentException(
+                    String.format("The document %s can't be created with a null body.", document.getId()));
+            }
+
+            documentList.add(document);
+        }
+
+        Set<UUID> result = this.executeBlindWrite("SELECT id FROM create_documents(?, ?)", documentList);
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Replaces the body of multiple documents regardless of their current version, in a single statement that
+     * doesn't check versions. This requires the <code>overwrite_documents</code> function.
+     *
+     * @param documents the documents to overwrite
+     */
+    @Override
+    public void overwriteDocuments(@NonNull Iterable<Document> documents) {
+        List<Document> documentList = new ArrayList<>();
+        documents.forEach(documentList::add);
+
+        this.executeBlindWrite("SELECT id FROM overwrite_documents(?, ?)", documentList);
+    }
+
+    private Set<UUID> executeBlindWrite(String sql, List<Document> documents) {
+        Set<UUID> result = new HashSet<>();
+
+        if (documents.isEmpty()) {
+            return result;
+        }
+
+        UUID[] ids = new UUID[documents.size()];
+        String[] bodies = new String[documents.size()];
+
+        for (int i = 0; i < documents.size(); i++) {
+            ids[i] = documents.get(i).getId();
+            bodies[i] = documents.get(i).getBody();
+        }
+
         try {
-            @Cleanup PreparedStatement statement = this.connection.prepareCall("{call update_documents(?)}");
+            @Cleanup PreparedStatement statement = this.connection.prepareStatement(sql);
 
-            statement.setObject(
-                1,
-                connection.createArrayOf("document_update", documentUpdates.toArray(new DocumentUpdate[0])));
+            @Cleanup("free") Array idArray = connection.createArrayOf("uuid", ids);
+            @Cleanup("free") Array bodyArray = connection.createArrayOf("jsonb", bodies);
 
-            statement.executeUpdate();
+            statement.setObject(1, idArray);
+            statement.setObject(2, bodyArray);
 
-        } catch (PGSQLSimpleException exception) {
-            if (exception.getSQLState().equals(serializationFailureSqlState) ||
-                exception.getSQLState().equals(deadlockDetectedSqlState)) {
+            @Cleanup ResultSet resultSet = statement.executeQuery();
 
-                throw new UpdateConflictException(documentUpdates.get(0).getId(), documentUpdates.get(0).getVersion());
+            while (resultSet.next()) {
+                result.add(resultSet.getObject("id", UUID.class));
+            }
 
-            } else if (exception.getMessage().equals("check_violation")) {
-                DocumentUpdate conflict = documentUpdates.stream()
-                    .filter(update -> update.getId().equals(UUID.fromString(exception.getDetail())))
-                    .findFirst()
-                    .get();
+        } catch (SQLException sqlException) {
+            throw new DocumentStoreException(sqlException.getMessage(), sqlException);
+        }
+
+        return result;
+    }
+
+    /**
+     * Sets the time at which multiple documents expire. Expired documents are retrieved as if they had been deleted,
+     * with an incremented version, until they are deleted by a <code>DocumentSweeper</code>. An explicit expiry time
+     * only lasts until the document is written again: every write replaces it with the expiry derived from the time
+     * to live of the document, or clears it if no time to live applies. This requires the
+     * <code>set_document_expiry</code> function.
+     *
+     * @param ids       the IDs of the documents
+     * @param expiresAt the time at which the documents expire, or null for documents that never expire
+     * @return the IDs of the documents whose expiry time was set, which excludes deleted and expired documents
+     */
+    public Set<UUID> setDocumentExpiry(@NonNull Iterable<UUID> ids, Instant expiresAt) {
+        List<UUID> idList = new ArrayList<>();
+        ids.forEach(idList::add);
 
-                throw new UpdateConflictException(conflict.getId(), conflict.getVersion());
+        Set<UUID> result = new HashSet<>();
 
+        if (idList.isEmpty()) {
+            return result;
+        }
+
+        try {
+            @Cleanup PreparedStatement statement =
+                this.connection.prepareStatement("SELECT id FROM set_document_expiry(?, ?)");
+
+            @Cleanup("free") Array idArray = connection.createArrayOf("uuid", idList.toArray(new UUID[0]));
+
+            statement.setObject(1, idArray);
+            if (expiresAt == null) {
+                statement.setNull(2, Types.TIMESTAMP_WITH_TIMEZONE);
             } else {
-                throw new DocumentStoreException(exception.getMessage(), exception);
+                statement.setObject(2, OffsetDateTime.ofInstant(expiresAt, ZoneOffset.UTC));
+            }
+
+            @Cleanup ResultSet resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+                result.add(resultSet.getObject("id", UUID.class));
             }
 
         } catch (SQLException sqlException) {
             throw new DocumentStoreException(sqlException.getMessage(), sqlException);
         }
+
+        return result;
+    }
+
+    /**
+     * Applies atomic operations to the body of multiple documents. The operations are applied by the database to the
+     * current body of each document, in the order they are provided, and the version of each modified document is
+     * incremented once. Since they don't depend on the version of the documents, they never cause conflicts.
+     * Documents that don't exist are created from an empty object.
+     *
+     * @param operations the operations to apply
+     * @return the resulting documents, in the order of their first operation
+     */
+    public List<Document> applyOperations(@NonNull Iterable<DocumentOperation> operations) {
+        List<DocumentOperation> operationList = new ArrayList<>();
+        operations.forEach(operationList::add);
+
+        if (operationList.isEmpty()) {
+            return List.of();
+        }
+
+        UUID[] ids = new UUID[operationList.size()];
+        String[] kinds = new String[operationList.size()];
+        String[] paths = new String[operationList.size()];
+        String[] operands = new String[operationList.size()];
+
+        for (int i = 0; i < operationList.size(); i++) {
+            DocumentOperation operation = operationList.get(i);
+            ids[i] = operation.getId();
+            kinds[i] = operation.getSqlKind();
+            paths[i] = operation.getSqlPath();
+            operands[i] = operation.getOperand();
+        }
+
+        Map<UUID, Document> documents = new HashMap<>();
+        try {
+            @Cleanup PreparedStatement statement = this.connection.prepareStatement(
+                "SELECT id, body, version FROM apply_document_operations(?, ?, ?, ?)");
+
+            @Cleanup("free") Array idArray = connection.createArrayOf("uuid", ids);
+            @Cleanup("free") Array kindArray = connection.createArrayOf("text", kinds);
+            @Cleanup("free") Array pathArray = connection.createArrayOf("text", paths);
+            @Cleanup("free") Array operandArray = connection.createArrayOf("jsonb", operands);
+
+            statement.setObject(1, idArray);
+            statement.setObject(2, kindArray);
+            statement.setObject(3, pathArray);
+            statement.setObject(4, operandArray);
+
+            @Cleanup ResultSet resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+                UUID id = resultSet.getObject("id", UUID.class);
+                documents.put(id, new Document(id, resultSet.getString("body"), resultSet.getLong("version")));
+            }
+
+        } catch (SQLException sqlException) {
+            throw new DocumentStoreException(sqlException.getMessage(), sqlException);
+        }
+
+        List<Document> result = new ArrayList<>(documents.size());
+        for (DocumentOperation operation : operationList) {
+            Document document = documents.remove(operation.getId());
+            if (document != null) {
+                result.add(document);
+            }
+        }
+
+        return Collections.unmodifiableList(result);
     }
 
     @Override
@@ -113,7 +745,9 @@ public class SqlDocumentStore implements DocumentStore {
             @Cleanup PreparedStatement statement = this.connection.prepareStatement(
                 "SELECT id, body, version FROM get_documents(?)");
 
-            statement.setObject(1, connection.createArrayOf("uuid", idList.toArray(new UUID[0])));
+            @Cleanup("free") Array idArray = connection.createArrayOf("uuid", idList.toArray(new UUID[0]));
+
+            statement.setObject(1, idArray);
 
             @Cleanup ResultSet resultSet = statement.executeQuery();
 
@@ -139,4 +773,39 @@ public class SqlDocumentStore implements DocumentStore {
 
         return Collections.unmodifiableList(result);
     }
+
+    @Override
+    public Map<UUID, Long> getDocumentVersions(Iterable<UUID> ids) {
+        ArrayList<UUID> idList = new ArrayList<>();
+        ids.forEach(idList::add);
+
+        Map<UUID, Long> result = new HashMap<>();
+        for (UUID id : idList) {
+            result.put(id, 0L);
+        }
+
+        if (idList.size() == 0) {
+            return result;
+        }
+
+        try {
+            @Cleanup PreparedStatement statement = this.connection.prepareStatement(
+                "SELECT id, version FROM get_document_versions(?)");
+
+            @Cleanup("free") Array idArray = connection.createArrayOf("uuid", idList.toArray(new UUID[0]));
+
+            statement.setObject(1, idArray);
+
+            @Cleanup ResultSet resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+                result.put(resultSet.getObject("id", UUID.class), resultSet.getLong("version"));
+            }
+
+        } catch (SQLException sqlException) {
+            throw new DocumentStoreException(sqlException.getMessage(), sqlException);
+        }
+
+        return result;
+    }
 }
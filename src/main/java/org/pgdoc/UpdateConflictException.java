@@ -38,7 +38,11 @@ public class UpdateConflictException extends RuntimeException {
     private final long version;
 
     public UpdateConflictException(UUID id, long version) {
-        super(String.format("The object '%s' has been modified.", id));
+        this(id, version, null);
+    }
+
+    public UpdateConflictException(UUID id, long version, Throwable cause) {
+        super(String.format("The object '%s' has been modified.", id), cause);
         this.id = id;
         this.version = version;
     }
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The <code>VersionToken</code> class holds the minimum version of a set of documents that a read must observe. It
+ * is used to read the effects of previous writes from a replica that may lag behind the primary.
+ */
+public class VersionToken {
+
+    /**
+     * A token that doesn't require any minimum version.
+     */
+    public static final VersionToken EMPTY = new VersionToken(Map.of());
+
+    /**
+     * Gets the minimum version of each document tracked by this token.
+     */
+    @Getter
+    private final Map<UUID, Long> versions;
+
+    public VersionToken(@NonNull Map<UUID, Long> versions) {
+        this.versions = Collections.unmodifiableMap(new HashMap<>(versions));
+    }
+
+    /**
+     * Returns the minimum version a read must observe for a given document, or zero if the document is not tracked
+     * by this token.
+     */
+    public long getMinimumVersion(@NonNull UUID id) {
+        return this.versions.getOrDefault(id, 0L);
+    }
+
+    /**
+     * Returns a new token that combines the versions of this token with those of another token, keeping the highest
+     * version of each document.
+     */
+    public VersionToken merge(@NonNull VersionToken other) {
+        Map<UUID, Long> result = new HashMap<>(this.versions);
+        other.versions.forEach((id, version) -> result.merge(id, version, Math::max));
+        return new VersionToken(result);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import com.google.gson.JsonElement;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>AggregationRow</code> class represents the result of an <code>EntityAggregation</code> for one group.
+ */
+public class AggregationRow {
+
+    /**
+     * Gets the values of the fields identifying the group, in the order they were grouped by. A value is null if the
+     * field is missing from the documents of the group.
+     */
+    @Getter
+    private final List<JsonElement> groupValues;
+
+    /**
+     * Gets the value of each aggregate indexed by its label, or null if there was no value to aggregate.
+     */
+    @Getter
+    private final Map<String, BigDecimal> values;
+
+    public AggregationRow(@NonNull List<JsonElement> groupValues, @NonNull Map<String, BigDecimal> values) {
+        this.groupValues = Collections.unmodifiableList(groupValues);
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Returns the value of an aggregate given its label, such as <code>count</code> or <code>sum(price)</code>.
+     */
+    public BigDecimal getValue(@NonNull String label) {
+        if (!this.values.containsKey(label)) {
+            throw new IllegalArgumentException(String.format("The aggregate %s was not computed.", label));
+        }
+
+        return this.values.get(label);
+    }
+}
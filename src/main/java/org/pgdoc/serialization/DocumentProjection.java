@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import com.google.gson.JsonObject;
+import com.google.gson.annotations.SerializedName;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>DocumentProjection</code> class represents a subset of the fields of a document, retrieved by the
+ * database instead of the whole body. The selected values are returned as a JSON object, which is then deserialized
+ * into the projection type.
+ *
+ * @param <T> the type used to deserialize the projected fields
+ */
+public class DocumentProjection<T> {
+
+    // jsonb_build_object accepts at most 100 arguments
+    private static final int maxFieldsPerObject = 50;
+
+    /**
+     * Gets the type used to deserialize the projected fields.
+     */
+    @Getter
+    private final Class<T> type;
+
+    /**
+     * Gets the path of each projected field in the body of the document, indexed by the name of the field in the
+     * projection.
+     */
+    @Getter
+    private final Map<String, List<String>> fields;
+
+    public DocumentProjection(@NonNull Class<T> type, @NonNull Map<String, List<String>> fields) {
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("A projection must contain at least one field.");
+        }
+
+        this.type = type;
+        this.fields = Collections.unmodifiableMap(new LinkedHashMap<>(fields));
+    }
+
+    /**
+     * Creates a projection from the fields of a class. Each field is populated from the path specified by its
+     * {@link JsonPath} annotation, or from the top-level value with the same name if the field is not annotated.
+     */
+    public static <T> DocumentProjection<T> fromClass(@NonNull Class<T> type) {
+        Map<String, List<String>> fields = new LinkedHashMap<>();
+
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+
+                SerializedName serializedName = field.getAnnotation(SerializedName.class);
+                String name = serializedName != null ? serializedName.value() : field.getName();
+
+                JsonPath path = field.getAnnotation(JsonPath.class);
+                fields.put(name, parsePath(path != null ? path.value() : name));
+            }
+        }
+
+        return new DocumentProjection<>(type, fields);
+    }
+
+    /**
+     * Creates a projection returning the values at the specified paths as a JSON object, in which each value is
+     * indexed by its path.
+     */
+    public static DocumentProjection<JsonObject> fromPaths(@NonNull String... paths) {
+        Map<String, List<String>> fields = new LinkedHashMap<>();
+        for (String path : paths) {
+            fields.put(path, parsePath(path));
+        }
+
+        return new DocumentProjection<>(JsonObject.class, fields);
+    }
+
+    /**
+     * Returns the SQL expression computing the projected fields from the <code>body</code> column. The expression is
+     * null for documents whose body is null.
+     */
+    public String getBodyExpression() {
+        List<String> objects = new ArrayList<>();
+        List<String> arguments = new ArrayList<>();
+
+        for (Map.Entry<String, List<String>> field : this.fields.entrySet()) {
+            List<String> elements = new ArrayList<>();
+            field.getValue().forEach(element -> elements.add(quote(element)));
+
+            arguments.add(String.format(
+                "%s, body #> ARRAY[%s]::text[]",
+                quote(field.getKey()),
+                String.join(", ", elements)));
+
+            if (arguments.size() == maxFieldsPerObject) {
+                objects.add(String.format("jsonb_build_object(%s)", String.join(", ", arguments)));
+                arguments.clear();
+            }
+        }
+
+        if (!arguments.isEmpty()) {
+            objects.add(String.format("jsonb_build_object(%s)", String.join(", ", arguments)));
+        }
+
+        return String.format("CASE WHEN body IS NULL THEN NULL ELSE %s END", String.join(" || ", objects));
+    }
+
+    /**
+     * Returns the SQL select list returning the <code>id</code>, <code>body</code> and <code>version</code> columns
+     * expected by <code>DocumentQuery</code>, where <code>body</code> only contains the projected fields.
+     */
+    public String getColumns() {
+        return String.format("id, %s AS body, version", this.getBodyExpression());
+    }
+
+    private static List<String> parsePath(String path) {
+        List<String> elements = Arrays.asList(path.split("\\.", -1));
+
+        if (path.isEmpty() || elements.contains("")) {
+            throw new IllegalArgumentException(String.format("The path '%s' is invalid.", path));
+        }
+
+        return Collections.unmodifiableList(elements);
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import lombok.NonNull;
+import org.pgdoc.DocumentStoreException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>DocumentPublisher</code> class publishes the result of a query as <code>JsonEntity</code> objects. Rows
+ * are only read from the result set when the subscriber has requested them, and the driver retrieves them from the
+ * server in chunks of the fetch size, so that no more than one chunk is ever buffered.
+ */
+class DocumentPublisher<T> implements Flow.Publisher<JsonEntity<T>> {
+
+    private final Class<T> type;
+    private final DocumentQuery.DocumentQueryBuilder queryBuilder;
+    private final Executor executor;
+    private final int fetchSize;
+
+    public DocumentPublisher(
+        @NonNull Class<T> type,
+        @NonNull DocumentQuery.DocumentQueryBuilder queryBuilder,
+        @NonNull Executor executor,
+        int fetchSize) {
+
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("The fetch size must be strictly positive.");
+        }
+
+        this.type = type;
+        this.queryBuilder = queryBuilder;
+        this.executor = executor;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public void subscribe(@NonNull Flow.Subscriber<? super JsonEntity<T>> subscriber) {
+        QuerySubscription subscription = new QuerySubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private class QuerySubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super JsonEntity<T>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pendingSignals = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private volatile IllegalArgumentException invalidRequest;
+
+        // Only accessed from the drain loop, which never runs concurrently with itself
+        private ResultSet resultSet;
+        private boolean done = false;
+
+        public QuerySubscription(Flow.Subscriber<? super JsonEntity<T>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                this.invalidRequest = new IllegalArgumentException("The number of requested items must be positive.");
+            } else {
+                this.demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+            signal();
+        }
+
+        private void signal() {
+            if (this.pendingSignals.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+
+            while (true) {
+                if (!this.done) {
+                    try {
+                        emit();
+                    } catch (SQLException | RuntimeException exception) {
+                        fail(exception);
+                    }
+                }
+
+                missed = this.pendingSignals.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        private void emit() throws SQLException {
+            if (this.invalidRequest != null) {
+                fail(this.invalidRequest);
+                return;
+            }
+
+            while (!this.cancelled && this.demand.get() > 0) {
+                if (this.resultSet == null) {
+                    PreparedStatement statement = queryBuilder.createQuery();
+                    statement.setFetchSize(fetchSize);
+                    this.resultSet = statement.executeQuery();
+                }
+
+                if (!this.resultSet.next()) {
+                    close();
+                    this.subscriber.onComplete();
+                    return;
+                }
+
+                JsonEntity<T> entity = JsonEntity.fromDocument(type, DocumentRows.readDocument(this.resultSet));
+                if (this.demand.get() != Long.MAX_VALUE) {
+                    this.demand.decrementAndGet();
+                }
+
+                this.subscriber.onNext(entity);
+            }
+
+            if (this.cancelled) {
+                close();
+            }
+        }
+
+        private void fail(Exception exception) {
+            close();
+
+            if (!this.cancelled) {
+                this.subscriber.onError(exception instanceof SQLException
+                    ? new DocumentStoreException(exception.getMessage(), exception)
+                    : exception);
+            }
+        }
+
+        private void close() {
+            this.done = true;
+
+            if (this.resultSet != null) {
+                try {
+                    this.resultSet.close();
+                } catch (SQLException exception) {
+                    // The cursor is released along with the transaction if it can't be closed
+                }
+
+                this.resultSet = null;
+            }
+        }
+    }
+}
@@ -26,6 +26,10 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public interface DocumentQuery {
 
@@ -40,13 +44,7 @@ public interface DocumentQuery {
             ArrayList<JsonEntity<T>> result = new ArrayList<>();
 
             while (resultSet.next()) {
-                Document document = new Document(
-                    resultSet.getObject("id", java.util.UUID.class),
-                    resultSet.getString("body"),
-                    resultSet.getLong("version")
-                );
-
-                result.add(JsonEntity.fromDocument(type, document));
+                result.add(JsonEntity.fromDocument(type, DocumentRows.readDocument(resultSet)));
             }
 
             return Collections.unmodifiableList(result);
@@ -56,6 +54,105 @@ public interface DocumentQuery {
         }
     }
 
+    /**
+     * Executes a SQL query and converts the result into a list of <code>JsonEntity</code> objects, deserializing
+     * the documents in parallel in chunks of 1,000 rows. The query must return the <code>id</code>,
+     * <code>body</code> and <code>version</code> columns.
+     *
+     * @see #execute(Class, DocumentQueryBuilder, ForkJoinPool, int)
+     */
+    static <T> List<JsonEntity<T>> execute(Class<T> type, DocumentQueryBuilder queryBuilder, ForkJoinPool pool) {
+        return execute(type, queryBuilder, pool, 1000);
+    }
+
+    /**
+     * Executes a SQL query and converts the result into a list of <code>JsonEntity</code> objects, deserializing
+     * the documents in parallel. The calling thread reads the rows from the result set and hands them over to the
+     * pool in chunks, while previous chunks are being deserialized. The order of the rows is preserved. The query
+     * must return the <code>id</code>, <code>body</code> and <code>version</code> columns.
+     *
+     * @param type         the type used to deserialize the JSON body of the documents
+     * @param queryBuilder the function creating the query to execute
+     * @param pool         the pool used to deserialize the documents
+     * @param chunkSize    the number of rows deserialized by each task
+     */
+    static <T> List<JsonEntity<T>> execute(
+        Class<T> type,
+        DocumentQueryBuilder queryBuilder,
+        ForkJoinPool pool,
+        int chunkSize) {
+
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be strictly positive.");
+        }
+
+        List<ForkJoinTask<List<JsonEntity<T>>>> tasks = new ArrayList<>();
+
+        try {
+            @Cleanup ResultSet resultSet = queryBuilder.createQuery().executeQuery();
+
+            List<Document> chunk = new ArrayList<>(chunkSize);
+
+            while (resultSet.next()) {
+                chunk.add(DocumentRows.readDocument(resultSet));
+
+                if (chunk.size() == chunkSize) {
+                    tasks.add(pool.submit(deserialize(type, chunk)));
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+
+            if (chunk.size() > 0) {
+                tasks.add(pool.submit(deserialize(type, chunk)));
+            }
+
+        } catch (SQLException exception) {
+            tasks.forEach(task -> task.cancel(false));
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+
+        ArrayList<JsonEntity<T>> result = new ArrayList<>();
+        for (ForkJoinTask<List<JsonEntity<T>>> task : tasks) {
+            result.addAll(task.join());
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns a publisher executing a SQL query and publishing the result as <code>JsonEntity</code> objects. Each
+     * subscription executes the query on the executor provided, and rows are read from the result set only as
+     * requested by the subscriber. The driver fetches the rows from a server-side portal in chunks of the fetch size,
+     * and the portal is closed when the subscription is cancelled. In auto-commit mode, the portal is also closed when
+     * another statement is executed on the same connection, so other statements should only be executed while the
+     * result is being consumed if the connection is in a transaction. The query must return the <code>id</code>,
+     * <code>body</code> and <code>version</code> columns.
+     *
+     * @param type         the type used to deserialize the JSON body of the documents
+     * @param queryBuilder the function creating the query to execute
+     * @param executor     the executor used to read the rows and signal the subscriber
+     * @param fetchSize    the number of rows retrieved from the server at a time
+     */
+    static <T> Flow.Publisher<JsonEntity<T>> publish(
+        Class<T> type,
+        DocumentQueryBuilder queryBuilder,
+        Executor executor,
+        int fetchSize) {
+
+        return new DocumentPublisher<>(type, queryBuilder, executor, fetchSize);
+    }
+
+    private static <T> ForkJoinTask<List<JsonEntity<T>>> deserialize(Class<T> type, List<Document> documents) {
+        return ForkJoinTask.adapt(() -> {
+            List<JsonEntity<T>> result = new ArrayList<>(documents.size());
+            for (Document document : documents) {
+                result.add(JsonEntity.fromDocument(type, document));
+            }
+
+            return result;
+        });
+    }
+
     @FunctionalInterface
     interface DocumentQueryBuilder {
         PreparedStatement createQuery() throws SQLException;
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import org.pgdoc.Document;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * Reads documents from the rows returned by queries on the <code>document</code> table.
+ */
+class DocumentRows {
+
+    private DocumentRows() {
+    }
+
+    /**
+     * Reads a document from the current row of a result set, using the <code>id</code>, <code>body</code> and
+     * <code>version</code> columns.
+     */
+    public static Document readDocument(ResultSet resultSet) throws SQLException {
+        return new Document(
+            resultSet.getObject("id", UUID.class),
+            resultSet.getString("body"),
+            resultSet.getLong("version")
+        );
+    }
+}
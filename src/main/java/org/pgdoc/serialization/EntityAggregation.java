@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The <code>EntityAggregation</code> class represents an aggregation computed by PostgreSQL over the entities
+ * matching an <code>EntityQuery</code>, optionally grouped by the values of some fields. Only the aggregated rows are
+ * returned.
+ * <p>
+ * Numeric aggregates ignore the documents for which the field is missing or is not a number. Grouping uses the
+ * <code>body #&gt; '{path}'</code> expression, which can be supported by the same expression indexes as range
+ * conditions. <code>EntityAggregation</code> objects are immutable, and each method returns a new aggregation.
+ *
+ * @param <T> the type of the entities
+ */
+public class EntityAggregation<T> {
+
+    /**
+     * Gets the query selecting the entities to aggregate.
+     */
+    @Getter
+    private final EntityQuery<T> query;
+
+    /**
+     * Gets the paths of the fields the entities are grouped by.
+     */
+    @Getter
+    private final List<String> groups;
+
+    /**
+     * Gets the labels of the aggregates computed for each group, such as <code>count</code> or
+     * <code>sum(price)</code>.
+     */
+    @Getter
+    private final List<String> aggregates;
+
+    private final List<String> groupExpressions;
+    private final List<String> aggregateExpressions;
+
+    private EntityAggregation(
+        EntityQuery<T> query,
+        List<String> groups,
+        List<String> groupExpressions,
+        List<String> aggregates,
+        List<String> aggregateExpressions) {
+
+        this.query = query;
+        this.groups = Collections.unmodifiableList(groups);
+        this.groupExpressions = groupExpressions;
+        this.aggregates = Collections.unmodifiableList(aggregates);
+        this.aggregateExpressions = aggregateExpressions;
+    }
+
+    /**
+     * Creates an aggregation over the entities matching a query.
+     */
+    public static <T> EntityAggregation<T> of(@NonNull EntityQuery<T> query) {
+        if (query.getLimit() > 0) {
+            throw new IllegalArgumentException("The query to aggregate can't have a limit.");
+        }
+
+        return new EntityAggregation<>(query, List.of(), List.of(), List.of(), List.of());
+    }
+
+    /**
+     * Returns an aggregation grouping the entities by the value of a field.
+     */
+    public EntityAggregation<T> groupBy(@NonNull String path) {
+        List<String> groups = new ArrayList<>(this.groups);
+        groups.add(path);
+
+        List<String> groupExpressions = new ArrayList<>(this.groupExpressions);
+        groupExpressions.add(String.format("(body #> %s)", EntityQuery.toPathLiteral(this.query.resolvePath(path))));
+
+        return new EntityAggregation<>(
+            this.query,
+            groups,
+            groupExpressions,
+            this.aggregates,
+            this.aggregateExpressions);
+    }
+
+    /**
+     * Returns an aggregation computing the number of entities.
+     */
+    public EntityAggregation<T> count() {
+        return this.with("count", "count(*)");
+    }
+
+    /**
+     * Returns an aggregation computing the sum of a numeric field.
+     */
+    public EntityAggregation<T> sum(@NonNull String path) {
+        return this.withNumeric("sum", path);
+    }
+
+    /**
+     * Returns an aggregation computing the minimum value of a numeric field.
+     */
+    public EntityAggregation<T> min(@NonNull String path) {
+        return this.withNumeric("min", path);
+    }
+
+    /**
+     * Returns an aggregation computing the maximum value of a numeric field.
+     */
+    public EntityAggregation<T> max(@NonNull String path) {
+        return this.withNumeric("max", path);
+    }
+
+    /**
+     * Returns an aggregation computing the average value of a numeric field.
+     */
+    public EntityAggregation<T> avg(@NonNull String path) {
+        return this.withNumeric("avg", path);
+    }
+
+    /**
+     * Gets the SQL query computing the aggregation. It returns one column for each group, containing the
+     * <code>jsonb</code> value of the field, followed by one <code>numeric</code> column for each aggregate.
+     */
+    public String getSql() {
+        if (this.aggregateExpressions.isEmpty()) {
+            throw new IllegalStateException("At least one aggregate must be computed.");
+        }
+
+        List<String> columns = new ArrayList<>(this.groupExpressions);
+        columns.addAll(this.aggregateExpressions);
+
+        String sql = String.format(
+            "SELECT %s FROM document WHERE %s",
+            String.join(", ", columns),
+            this.query.getPredicate());
+
+        if (!this.groupExpressions.isEmpty()) {
+            List<String> positions = new ArrayList<>();
+            for (int i = 1; i <= this.groupExpressions.size(); i++) {
+                positions.add(Integer.toString(i));
+            }
+
+            String groupList = String.join(", ", positions);
+            sql += String.format(" GROUP BY %s ORDER BY %s", groupList, groupList);
+        }
+
+        return sql;
+    }
+
+    /**
+     * Gets the values of the parameters of the SQL query.
+     */
+    public List<Object> getParameters() {
+        return this.query.getParameters();
+    }
+
+    private EntityAggregation<T> withNumeric(String function, String path) {
+        String pathLiteral = EntityQuery.toPathLiteral(this.query.resolvePath(path));
+
+        return this.with(
+            String.format("%s(%s)", function, path),
+            String.format(
+                "%s(CASE WHEN jsonb_typeof(body #> %s) = 'number' THEN (body #>> %s)::numeric END)",
+                function,
+                pathLiteral,
+                pathLiteral));
+    }
+
+    private EntityAggregation<T> with(String label, String expression) {
+        List<String> aggregates = new ArrayList<>(this.aggregates);
+        aggregates.add(label);
+
+        List<String> aggregateExpressions = new ArrayList<>(this.aggregateExpressions);
+        aggregateExpressions.add(expression + "::numeric");
+
+        return new EntityAggregation<>(this.query, this.groups, this.groupExpressions, aggregates, aggregateExpressions);
+    }
+}
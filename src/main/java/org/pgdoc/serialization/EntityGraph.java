@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>EntityGraph</code> class represents a set of entities loaded together with the entities they reference.
+ * Each document is loaded at most once, and is represented by a single <code>JsonEntity</code> instance.
+ */
+public class EntityGraph {
+
+    /**
+     * Gets the IDs of the entities the graph was loaded from.
+     */
+    @Getter
+    private final List<EntityId> roots;
+
+    private final Map<EntityId, JsonEntity<?>> entities;
+
+    public EntityGraph(@NonNull List<EntityId> roots, @NonNull Map<EntityId, JsonEntity<?>> entities) {
+        this.roots = Collections.unmodifiableList(roots);
+        this.entities = Collections.unmodifiableMap(entities);
+    }
+
+    /**
+     * Returns whether the entity with the specified ID has been loaded as part of this graph.
+     */
+    public boolean contains(@NonNull EntityId entityId) {
+        return this.entities.containsKey(entityId);
+    }
+
+    /**
+     * Returns an entity loaded as part of this graph, or null if the entity was not reached while loading the graph.
+     *
+     * @param type     the type of the entity
+     * @param entityId the ID of the entity
+     * @return the entity whose ID was provided
+     */
+    @SuppressWarnings("unchecked")
+    public <T> JsonEntity<T> getEntity(@NonNull Class<T> type, @NonNull EntityId entityId) {
+        JsonEntity<?> entity = this.entities.get(entityId);
+
+        if (entity != null && entity.getEntity() != null && !type.isInstance(entity.getEntity())) {
+            throw new IllegalArgumentException(
+                String.format("The entity %s is not of type %s.", entityId, type.getName()));
+        }
+
+        return (JsonEntity<T>) entity;
+    }
+
+    /**
+     * Gets all the entities loaded as part of this graph.
+     */
+    public Collection<JsonEntity<?>> getEntities() {
+        return this.entities.values();
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.annotations.SerializedName;
+import lombok.Getter;
+import lombok.NonNull;
+import org.pgdoc.DocumentTypes;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>EntityQuery</code> class represents a query over the entities of a type annotated with
+ * {@link JsonEntityType}. Conditions are expressed on field paths, which are validated against the fields of the
+ * entity class, and compiled to predicates that PostgreSQL can evaluate through indexes:
+ * <ul>
+ *     <li>equality, containment and <code>IN</code> conditions use the <code>@&gt;</code> operator, which is
+ *     supported by a GIN index on <code>body</code> using either the <code>jsonb_ops</code> or the
+ *     <code>jsonb_path_ops</code> operator class;</li>
+ *     <li>range conditions compare the <code>body #&gt; '{path}'</code> expression, which is supported by an
+ *     expression index such as <code>CREATE INDEX ON document ((body #&gt; '{price}'))</code>;</li>
+ *     <li>the query only scans the range of IDs of the entity type, which is supported by the primary key, and
+ *     allows partial indexes restricted to that range to be used, such as those created by
+ *     <code>IndexManager</code>.</li>
+ * </ul>
+ * <code>EntityQuery</code> objects are immutable, and each condition returns a new query.
+ *
+ * @param <T> the type of the entities
+ */
+public class EntityQuery<T> {
+
+    /**
+     * Gets the type of the entities.
+     */
+    @Getter
+    private final Class<T> type;
+
+    /**
+     * Gets the maximum number of entities returned, or zero if the number of entities is not limited.
+     */
+    @Getter
+    private final int limit;
+
+    private final List<String> conditions;
+    private final List<Object> parameters;
+
+    private EntityQuery(Class<T> type, List<String> conditions, List<Object> parameters, int limit) {
+        this.type = type;
+        this.conditions = conditions;
+        this.parameters = parameters;
+        this.limit = limit;
+    }
+
+    /**
+     * Creates a query returning all the entities of a type.
+     */
+    public static <T> EntityQuery<T> from(@NonNull Class<T> type) {
+        return new EntityQuery<>(
+            type,
+            List.of(getTypePredicate(EntityId.getEntityType(type))),
+            List.of(),
+            0);
+    }
+
+    /**
+     * Returns a query only matching the entities whose field is equal to a value. If the value is serialized as a JSON
+     * object, the field only needs to contain the properties of that object.
+     */
+    public EntityQuery<T> equalTo(@NonNull String path, Object value) {
+        return this.containing(path, JsonEntity.getGson().toJsonTree(value));
+    }
+
+    /**
+     * Returns a query only matching the entities whose array field contains all the values provided.
+     */
+    public EntityQuery<T> contains(@NonNull String path, @NonNull Collection<?> values) {
+        return this.containing(path, JsonEntity.getGson().toJsonTree(values));
+    }
+
+    /**
+     * Returns a query only matching the entities whose field is equal to one of the values provided.
+     */
+    public EntityQuery<T> in(@NonNull String path, @NonNull Collection<?> values) {
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("At least one value must be provided.");
+        }
+
+        List<String> elements = this.resolvePath(path);
+        List<Object> parameters = new ArrayList<>();
+        for (Object value : values) {
+            parameters.add(toContainment(elements, JsonEntity.getGson().toJsonTree(value)));
+        }
+
+        return this.with(
+            "(" + String.join(" OR ", Collections.nCopies(values.size(), "body @> ?::jsonb")) + ")",
+            parameters);
+    }
+
+    /**
+     * Returns a query only matching the entities whose field is strictly greater than a value of the same JSON type.
+     */
+    public EntityQuery<T> greaterThan(@NonNull String path, @NonNull Object value) {
+        return this.compare(path, ">", value);
+    }
+
+    /**
+     * Returns a query only matching the entities whose field is greater than or equal to a value of the same JSON
+     * type.
+     */
+    public EntityQuery<T> atLeast(@NonNull String path, @NonNull Object value) {
+        return this.compare(path, ">=", value);
+    }
+
+    /**
+     * Returns a query only matching the entities whose field is strictly less than a value of the same JSON type.
+     */
+    public EntityQuery<T> lessThan(@NonNull String path, @NonNull Object value) {
+        return this.compare(path, "<", value);
+    }
+
+    /**
+     * Returns a query only matching the entities whose field is less than or equal to a value of the same JSON type.
+     */
+    public EntityQuery<T> atMost(@NonNull String path, @NonNull Object value) {
+        return this.compare(path, "<=", value);
+    }
+
+    /**
+     * Returns a query returning at most the specified number of entities.
+     */
+    public EntityQuery<T> limit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("The limit must be strictly positive.");
+        }
+
+        return new EntityQuery<>(this.type, this.conditions, this.parameters, limit);
+    }
+
+    /**
+     * Gets the SQL query returning the <code>id</code>, <code>body</code> and <code>version</code> columns of the
+     * matching entities. The SQL query only depends on the shape of the query, and not on the values it is compared
+     * to.
+     */
+    public String getSql() {
+        String sql = "SELECT id, body, version FROM document WHERE " + this.getPredicate();
+        return this.limit > 0 ? sql + " LIMIT " + this.limit : sql;
+    }
+
+    String getPredicate() {
+        return String.join(" AND ", this.conditions);
+    }
+
+    /**
+     * Gets the values of the parameters of the SQL query.
+     */
+    public List<Object> getParameters() {
+        return Collections.unmodifiableList(this.parameters);
+    }
+
+    /**
+     * Returns the predicate matching the documents of an entity type. The bounds of the ID range are included as
+     * literals, so that the predicate can be matched against partial indexes.
+     */
+    static String getTypePredicate(int entityType) {
+        return String.format(
+            "id BETWEEN '%s'::uuid AND '%s'::uuid AND body IS NOT NULL",
+            DocumentTypes.getRangeStart(entityType),
+            DocumentTypes.getRangeEnd(entityType));
+    }
+
+    private EntityQuery<T> containing(String path, JsonElement value) {
+        return this.with("body @> ?::jsonb", List.of(toContainment(this.resolvePath(path), value)));
+    }
+
+    private EntityQuery<T> compare(String path, String operator, Object value) {
+        List<String> elements = this.resolvePath(path);
+        JsonElement json = JsonEntity.getGson().toJsonTree(value);
+
+        String jsonType;
+        if (json.isJsonPrimitive() && json.getAsJsonPrimitive().isNumber()) {
+            jsonType = "number";
+        } else if (json.isJsonPrimitive() && json.getAsJsonPrimitive().isString()) {
+            jsonType = "string";
+        } else {
+            throw new IllegalArgumentException("Range conditions only support numbers and strings.");
+        }
+
+        // jsonb values of different types compare by type first, so the type is checked in addition to the range
+        String expression = String.format("(body #> %s)", toPathLiteral(elements));
+        return this.with(
+            String.format("%s %s ?::jsonb AND jsonb_typeof%s = '%s'", expression, operator, expression, jsonType),
+            List.of(json.toString()));
+    }
+
+    private EntityQuery<T> with(String condition, List<Object> parameters) {
+        List<String> newConditions = new ArrayList<>(this.conditions);
+        newConditions.add(condition);
+
+        List<Object> newParameters = new ArrayList<>(this.parameters);
+        newParameters.addAll(parameters);
+
+        return new EntityQuery<>(this.type, newConditions, newParameters, this.limit);
+    }
+
+    List<String> resolvePath(String path) {
+        List<String> elements = new ArrayList<>();
+        Class<?> current = this.type;
+
+        for (String element : path.split("\\.", -1)) {
+            if (current == null) {
+                // The value is not a plain object, its content can't be validated
+                elements.add(element);
+                continue;
+            }
+
+            Field field = findField(current, element);
+            if (field == null) {
+                throw new IllegalArgumentException(
+                    String.format("The path '%s' does not match a field of %s.", path, this.type.getName()));
+            }
+
+            elements.add(element);
+            current = isPlainObject(field.getType()) ? field.getType() : null;
+        }
+
+        return elements;
+    }
+
+    private static Field findField(Class<?> type, String name) {
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+
+                SerializedName serializedName = field.getAnnotation(SerializedName.class);
+                if (name.equals(serializedName != null ? serializedName.value() : field.getName())) {
+                    return field;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    static boolean isPlainObject(Class<?> type) {
+        String name = type.getName();
+        return !type.isPrimitive()
+            && !type.isArray()
+            && !type.isEnum()
+            && !Collection.class.isAssignableFrom(type)
+            && !Map.class.isAssignableFrom(type)
+            && type != Object.class
+            && type != EntityId.class
+            && !name.startsWith("java.")
+            && !name.startsWith("com.google.gson.");
+    }
+
+    private static String toContainment(List<String> path, JsonElement value) {
+        JsonElement result = value;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            JsonObject parent = new JsonObject();
+            parent.add(path.get(i), result);
+            result = parent;
+        }
+
+        return result.toString();
+    }
+
+    static String toPathLiteral(List<String> path) {
+        List<String> elements = new ArrayList<>();
+        for (String element : path) {
+            elements.add("\"" + element.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+        }
+
+        return "'{" + String.join(",", elements).replace("'", "''") + "}'";
+    }
+}
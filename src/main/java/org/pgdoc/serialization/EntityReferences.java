@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Finds the <code>EntityId</code> values referenced by the fields of a deserialized entity.
+ */
+class EntityReferences {
+
+    private static final Map<Class<?>, List<Field>> fieldCache = new ConcurrentHashMap<>();
+
+    private EntityReferences() {
+    }
+
+    /**
+     * Walks an object graph and reports every <code>EntityId</code> object reachable through fields, arrays,
+     * collections and maps. Fields ignored by Gson (static and transient fields) are not followed.
+     */
+    public static void find(Object value, Consumer<EntityId> consumer) {
+        visit(value, consumer, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static void visit(Object value, Consumer<EntityId> consumer, Set<Object> visited) {
+        if (value == null) {
+            return;
+        } else if (value instanceof EntityId) {
+            consumer.accept((EntityId) value);
+            return;
+        }
+
+        Class<?> type = value.getClass();
+        if (isLeaf(type) || !visited.add(value)) {
+            return;
+        }
+
+        if (type.isArray()) {
+            if (!type.getComponentType().isPrimitive()) {
+                for (int i = 0; i < Array.getLength(value); i++) {
+                    visit(Array.get(value, i), consumer, visited);
+                }
+            }
+        } else if (value instanceof Iterable) {
+            for (Object item : (Iterable<?>) value) {
+                visit(item, consumer, visited);
+            }
+        } else if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                visit(entry.getKey(), consumer, visited);
+                visit(entry.getValue(), consumer, visited);
+            }
+        } else if (!isPlatformType(type)) {
+            for (Field field : fieldCache.computeIfAbsent(type, EntityReferences::getFields)) {
+                try {
+                    visit(field.get(value), consumer, visited);
+                } catch (IllegalAccessException exception) {
+                    throw new IllegalStateException(exception);
+                }
+            }
+        }
+    }
+
+    private static boolean isLeaf(Class<?> type) {
+        return type.isPrimitive()
+            || type.isEnum()
+            || type == String.class
+            || Number.class.isAssignableFrom(type)
+            || type == Boolean.class
+            || type == Character.class;
+    }
+
+    private static boolean isPlatformType(Class<?> type) {
+        String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("com.google.gson.");
+    }
+
+    private static List<Field> getFields(Class<?> type) {
+        List<Field> result = new ArrayList<>();
+
+        for (Class<?> current = type; current != null && !isPlatformType(current); current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()
+                    && !field.getType().isPrimitive()) {
+
+                    field.setAccessible(true);
+                    result.add(field);
+                }
+            }
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.pgdoc.Document;
+import org.pgdoc.UpdateConflictException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * The <code>EntitySession</code> class implements a unit of work on top of an <code>EntityStore</code>. Entities
+ * loaded through a session are kept in an identity map, and all the changes made to them are written atomically by
+ * a single call to {@link #flush()}.
+ *
+ * <p>An entity is considered modified when its serialized JSON body differs from the body it had when it was loaded.
+ * Entities that were loaded but not modified are sent as checked documents, so that the flush only succeeds if none
+ * of the entities read through the session have changed in the meantime.
+ *
+ * <p>Instances of this class are not thread safe.
+ */
+public class EntitySession {
+
+    /**
+     * Gets the underlying <code>EntityStore</code> object used to retrieve and modify documents.
+     */
+    @Getter
+    private final EntityStore entityStore;
+
+    private final Map<EntityId, TrackedEntity> identityMap = new LinkedHashMap<>();
+
+    public EntitySession(@NonNull EntityStore entityStore) {
+        this.entityStore = entityStore;
+    }
+
+    /**
+     * Retrieves a document given its ID, represented as a <code>JsonEntity</code> object. If the entity has already
+     * been loaded by this session, the tracked instance is returned and no call is made to the database.
+     *
+     * @param type     the type used to deserialize the JSON body of the document
+     * @param entityId the ID of the document to retrieve
+     * @return the document whose ID was provided
+     */
+    public <T> JsonEntity<T> getEntity(Class<T> type, @NonNull EntityId entityId) {
+        return this.getEntities(type, List.of(entityId)).get(0);
+    }
+
+    /**
+     * Retrieves multiple documents given their IDs, represented as <code>JsonEntity</code> objects. The entities that
+     * are not tracked yet by this session are retrieved in a single call to the database.
+     *
+     * @param type      the type used to deserialize the JSON body of the documents
+     * @param entityIds the IDs of the documents to retrieve
+     * @return a list of documents whose IDs were provided
+     */
+    public <T> List<JsonEntity<T>> getEntities(@NonNull Class<T> type, Iterable<EntityId> entityIds) {
+        List<EntityId> idList = new ArrayList<>();
+        List<EntityId> missingIds = new ArrayList<>();
+
+        for (EntityId entityId : entityIds) {
+            idList.add(entityId);
+            if (!this.identityMap.containsKey(entityId)) {
+                missingIds.add(entityId);
+            }
+        }
+
+        if (missingIds.size() > 0) {
+            for (JsonEntity<T> entity : this.entityStore.getEntities(type, missingIds)) {
+                this.identityMap.putIfAbsent(
+                    entity.getId(),
+                    new TrackedEntity(entity, entity.toDocument().getBody(), true));
+            }
+        }
+
+        List<JsonEntity<T>> result = new ArrayList<>(idList.size());
+        for (EntityId entityId : idList) {
+            result.add(this.identityMap.get(entityId).getEntity(type));
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Replaces the tracked instance of an entity, or starts tracking a new entity. The version of the entity
+     * provided is used as the expected version when the session is flushed.
+     *
+     * @param entity the new instance of the entity
+     */
+    public void update(@NonNull JsonEntity<?> entity) {
+        TrackedEntity tracked = this.identityMap.get(entity.getId());
+
+        if (tracked == null) {
+            this.identityMap.put(entity.getId(), new TrackedEntity(entity, null, false));
+        } else {
+            tracked.entity = entity;
+        }
+    }
+
+    /**
+     * Returns whether an entity tracked by this session has been modified since it was loaded.
+     *
+     * @param entityId the ID of the entity
+     * @return true if the entity is tracked and its serialized body has changed
+     */
+    public boolean isModified(@NonNull EntityId entityId) {
+        TrackedEntity tracked = this.identityMap.get(entityId);
+        return tracked != null && tracked.isModified(tracked.entity.toDocument());
+    }
+
+    /**
+     * Writes atomically all the modified entities tracked by this session. The entities that were loaded but not
+     * modified are checked for conflicts, but not updated. After a successful flush, the tracked entities reflect the
+     * new versions stored in the database.
+     */
+    public void flush()
+        throws UpdateConflictException {
+
+        if (this.identityMap.isEmpty()) {
+            return;
+        }
+
+        List<TrackedEntity> modified = new ArrayList<>();
+        List<Document> updatedDocuments = new ArrayList<>();
+        List<Document> checkedDocuments = new ArrayList<>();
+
+        for (TrackedEntity tracked : this.identityMap.values()) {
+            Document document = tracked.entity.toDocument();
+
+            if (tracked.isModified(document)) {
+                modified.add(tracked);
+                updatedDocuments.add(document);
+            } else {
+                checkedDocuments.add(new Document(document.getId(), null, document.getVersion()));
+            }
+        }
+
+        Map<UUID, Long> versions = this.entityStore.getDocumentStore()
+            .updateDocumentsWithVersions(updatedDocuments, checkedDocuments);
+
+        for (int i = 0; i < modified.size(); i++) {
+            TrackedEntity tracked = modified.get(i);
+            tracked.entity = new JsonEntity<>(
+                tracked.entity.getId(),
+                tracked.entity.getEntity(),
+                versions.get(tracked.entity.getId().getValue()));
+            tracked.snapshot = updatedDocuments.get(i).getBody();
+            tracked.loaded = true;
+        }
+    }
+
+    /**
+     * Stops tracking all the entities loaded by this session.
+     */
+    public void clear() {
+        this.identityMap.clear();
+    }
+
+    private static class TrackedEntity {
+        private JsonEntity<?> entity;
+        private String snapshot;
+        private boolean loaded;
+
+        public TrackedEntity(JsonEntity<?> entity, String snapshot, boolean loaded) {
+            this.entity = entity;
+            this.snapshot = snapshot;
+            this.loaded = loaded;
+        }
+
+        public boolean isModified(Document document) {
+            return !this.loaded || !Objects.equals(this.snapshot, document.getBody());
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> JsonEntity<T> getEntity(Class<T> type) {
+            if (this.entity.getEntity() != null && !type.isInstance(this.entity.getEntity())) {
+                throw new IllegalArgumentException(
+                    String.format("The entity %s is not of type %s.", this.entity.getId(), type.getName()));
+            }
+
+            return (JsonEntity<T>) this.entity;
+        }
+    }
+}
@@ -16,20 +16,50 @@
 
 package org.pgdoc.serialization;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import lombok.Cleanup;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
+import org.pgdoc.Document;
 import org.pgdoc.DocumentStore;
+import org.pgdoc.DocumentStoreException;
+import org.pgdoc.SqlDocumentStore;
 import org.pgdoc.UpdateConflictException;
 
+import java.math.BigDecimal;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
 /**
  * The <code>EntityStore</code> class is used to retrieve and modify documents represented as <code>JsonEntity</code>
- * objects.
+ * objects. The statements prepared by queries and aggregations are cached, and released when the store is closed.
+ * <p>
+ * Instances of this class are not thread safe, and must be confined to one thread at a time: the statement cache is
+ * not synchronized, and a cached statement can't be executed by two threads at once. This matches the connection of
+ * the underlying <code>SqlDocumentStore</code>, which can't be shared between threads either.
  */
-public class EntityStore {
+public class EntityStore implements AutoCloseable {
+
+    private static final int maxCachedStatements = 64;
 
     /**
      * Gets the underlying <code>DocumentStore</code> object used to retrieve and modify documents.
@@ -37,6 +67,42 @@ public class EntityStore {
     @Getter
     private final DocumentStore documentStore;
 
+    /**
+     * Gets or sets the minimum number of updated entities for a batch to be serialized in parallel. Parallel
+     * serialization is disabled by default.
+     */
+    @Getter
+    @Setter
+    private int parallelSerializationThreshold = Integer.MAX_VALUE;
+
+    /**
+     * Gets or sets the pool used to serialize large batches of entities in parallel.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private ForkJoinPool serializationPool = ForkJoinPool.commonPool();
+
+    /**
+     * Gets or sets the listener notified of the time spent serializing entities, or null.
+     */
+    @Getter
+    @Setter
+    private SerializationListener serializationListener;
+
+    private final Map<String, PreparedStatement> cachedStatements =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maxCachedStatements) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+        };
+
     public EntityStore(@NonNull DocumentStore documentStore) {
         this.documentStore = documentStore;
     }
@@ -50,13 +116,16 @@ public class EntityStore {
     public void updateEntities(Iterable<JsonEntity<?>> updatedDocuments, Iterable<JsonEntity<?>> checkedDocuments)
         throws UpdateConflictException {
 
-        this.documentStore.updateDocuments(
-            StreamSupport.stream(updatedDocuments.spliterator(), false)
-                .map(JsonEntity::toDocument)
-                ::iterator,
-            StreamSupport.stream(checkedDocuments.spliterator(), false)
-                .map(JsonEntity::toDocument)
-                ::iterator);
+        List<JsonEntity<?>> updatedList = new ArrayList<>();
+        updatedDocuments.forEach(updatedList::add);
+
+        // Only the version of checked documents is used, their body doesn't need to be serialized
+        List<Document> checkedList = new ArrayList<>();
+        for (JsonEntity<?> entity : checkedDocuments) {
+            checkedList.add(new Document(entity.getId().getValue(), null, entity.getVersion()));
+        }
+
+        this.documentStore.updateDocuments(this.serialize(updatedList), checkedList);
     }
 
     /**
@@ -80,4 +149,349 @@ public class EntityStore {
     public <T> JsonEntity<T> getEntity(Class<T> type, EntityId entityId) {
         return JsonEntity.fromDocument(type, this.documentStore.getDocument(entityId.getValue()));
     }
+
+    /**
+     * Retrieves multiple documents given their IDs, represented as <code>JsonEntity</code> objects.
+     *
+     * @param type      the type used to deserialize the JSON body of the documents
+     * @param entityIds the IDs of the documents to retrieve
+     * @return a list of documents whose IDs were provided
+     */
+    public <T> List<JsonEntity<T>> getEntities(Class<T> type, Iterable<EntityId> entityIds) {
+        return Collections.unmodifiableList(
+            this.documentStore.getDocuments(
+                    StreamSupport.stream(entityIds.spliterator(), false)
+                        .map(EntityId::getValue)
+                        ::iterator)
+                .stream()
+                .map(document -> JsonEntity.fromDocument(type, document))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Retrieves a set of documents along with the documents they reference through <code>EntityId</code> fields.
+     * References are followed breadth-first, and each level of the graph is retrieved with a single call to the
+     * underlying <code>DocumentStore</code>.
+     *
+     * @param roots       the IDs of the documents to start from
+     * @param maxDepth    the number of levels of references to follow, zero meaning that only the roots are loaded
+     * @param entityTypes the classes used to deserialize documents, each annotated with {@link JsonEntityType};
+     *                    references to entity types not listed here are not followed
+     * @return the graph of entities reachable from the roots
+     */
+    public EntityGraph loadGraph(Iterable<EntityId> roots, int maxDepth, Class<?>... entityTypes) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("The maximum depth must be positive or zero.");
+        }
+
+        Map<Integer, Class<?>> typeMap = new HashMap<>();
+        for (Class<?> entityType : entityTypes) {
+            typeMap.put(EntityId.getEntityType(entityType), entityType);
+        }
+
+        List<EntityId> rootList = new ArrayList<>();
+        for (EntityId root : roots) {
+            if (!typeMap.containsKey(root.getType())) {
+                throw new IllegalArgumentException(
+                    String.format("No class was provided for the entity type %d.", root.getType()));
+            }
+
+            rootList.add(root);
+        }
+
+        Map<EntityId, JsonEntity<?>> entities = new LinkedHashMap<>();
+        Set<EntityId> level = new LinkedHashSet<>(rootList);
+
+        for (int depth = 0; !level.isEmpty(); depth++) {
+            List<UUID> ids = new ArrayList<>(level.size());
+            level.forEach(entityId -> ids.add(entityId.getValue()));
+
+            List<JsonEntity<?>> loaded = new ArrayList<>(ids.size());
+            for (Document document : this.documentStore.getDocuments(ids)) {
+                EntityId entityId = new EntityId(document.getId());
+                JsonEntity<?> entity = JsonEntity.fromDocument(typeMap.get(entityId.getType()), document);
+
+                entities.put(entityId, entity);
+                loaded.add(entity);
+            }
+
+            if (depth == maxDepth) {
+                break;
+            }
+
+            Set<EntityId> nextLevel = new LinkedHashSet<>();
+            for (JsonEntity<?> entity : loaded) {
+                EntityReferences.find(entity.getEntity(), reference -> {
+                    if (typeMap.containsKey(reference.getType()) && !entities.containsKey(reference)) {
+                        nextLevel.add(reference);
+                    }
+                });
+            }
+
+            level = nextLevel;
+        }
+
+        return new EntityGraph(rootList, entities);
+    }
+
+    /**
+     * Retrieves a page of documents represented as <code>JsonEntity</code> objects, using keyset pagination. The
+     * prepared statement used for each shape of query is cached and reused for subsequent pages. This requires the
+     * underlying <code>DocumentStore</code> object to be a <code>SqlDocumentStore</code> object.
+     *
+     * @param type              the type used to deserialize the JSON body of the documents
+     * @param query             the query to paginate
+     * @param continuationToken the token returned with the previous page, or null to retrieve the first page
+     * @param pageSize          the maximum number of documents in the page
+     * @param parameters        the values of the parameters of the source query
+     * @return the page of documents
+     */
+    public <T> Page<JsonEntity<T>> getPage(
+        @NonNull Class<T> type,
+        @NonNull PageQuery query,
+        String continuationToken,
+        int pageSize,
+        Object... parameters) {
+
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("The page size must be strictly positive.");
+        }
+
+        Connection connection = this.getConnection("Pagination");
+
+        boolean hasKey = query.getOrderKey() != null;
+        String[] token = continuationToken == null ? null : PageQuery.decodeToken(continuationToken, hasKey);
+
+        try {
+            PreparedStatement statement = this.getCachedStatement(connection, query.getSql(token == null));
+
+            int index = 1;
+            for (Object parameter : parameters) {
+                statement.setObject(index++, parameter);
+            }
+
+            if (token != null) {
+                if (hasKey) {
+                    statement.setString(index++, token[1]);
+                }
+
+                statement.setObject(index++, UUID.fromString(token[0]));
+            }
+
+            statement.setInt(index, pageSize + 1);
+
+            List<JsonEntity<T>> items = new ArrayList<>(pageSize);
+            String nextToken = null;
+            String lastKey = null;
+
+            @Cleanup ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                if (items.size() == pageSize) {
+                    UUID lastId = items.get(items.size() - 1).getId().getValue();
+                    nextToken = PageQuery.encodeToken(lastId, lastKey);
+                    break;
+                }
+
+                items.add(JsonEntity.fromDocument(type, DocumentRows.readDocument(resultSet)));
+                lastKey = resultSet.getString("page_key");
+            }
+
+            return new Page<>(items, nextToken);
+
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Retrieves the entities matching a query. The prepared statement used for each shape of query is cached and
+     * reused for subsequent queries with the same shape. This requires the underlying <code>DocumentStore</code>
+     * object to be a <code>SqlDocumentStore</code> object.
+     *
+     * @param query the query to execute
+     * @return the entities matching the query
+     */
+    public <T> List<JsonEntity<T>> find(@NonNull EntityQuery<T> query) {
+        Connection connection = this.getConnection("Querying");
+
+        try {
+            PreparedStatement statement = this.getCachedStatement(connection, query.getSql());
+
+            int index = 1;
+            for (Object parameter : query.getParameters()) {
+                statement.setObject(index++, parameter);
+            }
+
+            List<JsonEntity<T>> result = new ArrayList<>();
+            @Cleanup ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                result.add(JsonEntity.fromDocument(query.getType(), DocumentRows.readDocument(resultSet)));
+            }
+
+            return Collections.unmodifiableList(result);
+
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Computes an aggregation over entities in the database, and returns one row for each group. The prepared
+     * statement used for each shape of aggregation is cached and reused. This requires the underlying
+     * <code>DocumentStore</code> object to be a <code>SqlDocumentStore</code> object.
+     *
+     * @param aggregation the aggregation to compute
+     * @return the aggregated rows, ordered by group
+     */
+    public List<AggregationRow> aggregate(@NonNull EntityAggregation<?> aggregation) {
+        Connection connection = this.getConnection("Aggregation");
+
+        try {
+            PreparedStatement statement = this.getCachedStatement(connection, aggregation.getSql());
+
+            int index = 1;
+            for (Object parameter : aggregation.getParameters()) {
+                statement.setObject(index++, parameter);
+            }
+
+            int groupCount = aggregation.getGroups().size();
+            List<AggregationRow> result = new ArrayList<>();
+
+            @Cleanup ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                List<JsonElement> groupValues = new ArrayList<>(groupCount);
+                for (int i = 1; i <= groupCount; i++) {
+                    String value = resultSet.getString(i);
+                    groupValues.add(value == null ? null : JsonParser.parseString(value));
+                }
+
+                Map<String, BigDecimal> values = new LinkedHashMap<>();
+                for (int i = 0; i < aggregation.getAggregates().size(); i++) {
+                    values.put(aggregation.getAggregates().get(i), resultSet.getBigDecimal(groupCount + i + 1));
+                }
+
+                result.add(new AggregationRow(groupValues, values));
+            }
+
+            return Collections.unmodifiableList(result);
+
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Retrieves multiple documents given their IDs, but only retrieves the fields selected by a projection rather
+     * than their whole body. This requires the underlying <code>DocumentStore</code> object to be a
+     * <code>SqlDocumentStore</code> object.
+     *
+     * @param projection the fields to retrieve and the type used to deserialize them
+     * @param entityIds  the IDs of the documents to retrieve
+     * @return a list of projected documents whose IDs were provided
+     */
+    public <T> List<JsonEntity<T>> getProjections(
+        @NonNull DocumentProjection<T> projection,
+        @NonNull Iterable<EntityId> entityIds) {
+
+        Connection connection = this.getConnection("Projection");
+
+        List<UUID> ids = new ArrayList<>();
+        entityIds.forEach(entityId -> ids.add(entityId.getValue()));
+
+        try {
+            @Cleanup PreparedStatement statement = connection.prepareStatement(
+                String.format("SELECT %s FROM get_documents(?)", projection.getColumns()));
+
+            @Cleanup("free") Array idArray = connection.createArrayOf("uuid", ids.toArray(new UUID[0]));
+
+            statement.setObject(1, idArray);
+
+            Map<UUID, Document> documents = new HashMap<>();
+            @Cleanup ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                Document document = DocumentRows.readDocument(resultSet);
+                documents.put(document.getId(), document);
+            }
+
+            List<JsonEntity<T>> result = new ArrayList<>(ids.size());
+            for (UUID id : ids) {
+                Document document = documents.getOrDefault(id, new Document(id, null, 0));
+                result.add(JsonEntity.fromDocument(projection.getType(), document));
+            }
+
+            return Collections.unmodifiableList(result);
+
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    private Connection getConnection(String feature) {
+        if (!(this.documentStore instanceof SqlDocumentStore)) {
+            throw new UnsupportedOperationException(String.format("%s requires a SqlDocumentStore.", feature));
+        }
+
+        return ((SqlDocumentStore) this.documentStore).getConnection();
+    }
+
+    /**
+     * Closes the prepared statements cached by this store. The underlying <code>DocumentStore</code> object and its
+     * connection are not closed.
+     */
+    @Override
+    public void close() {
+        for (PreparedStatement statement : this.cachedStatements.values()) {
+            closeQuietly(statement);
+        }
+
+        this.cachedStatements.clear();
+    }
+
+    private PreparedStatement getCachedStatement(Connection connection, String sql) throws SQLException {
+        PreparedStatement statement = this.cachedStatements.get(sql);
+
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            this.cachedStatements.put(sql, statement);
+        }
+
+        return statement;
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException exception) {
+            // The statement is released along with the connection if it can't be closed
+        }
+    }
+
+    private List<Document> serialize(List<JsonEntity<?>> entities) {
+        boolean parallel = entities.size() >= this.parallelSerializationThreshold;
+        long start = System.nanoTime();
+
+        List<Document> result;
+        if (parallel) {
+            // Streams started from within a fork-join pool run their parallel tasks in that pool
+            result = this.serializationPool.submit(
+                () -> entities.parallelStream()
+                    .map(JsonEntity::toDocument)
+                    .collect(Collectors.toList()))
+                .join();
+        } else {
+            result = new ArrayList<>(entities.size());
+            for (JsonEntity<?> entity : entities) {
+                result.add(entity.toDocument());
+            }
+        }
+
+        if (this.serializationListener != null) {
+            this.serializationListener.onSerialized(
+                entities.size(),
+                Duration.ofNanos(System.nanoTime() - start),
+                parallel);
+        }
+
+        return result;
+    }
 }
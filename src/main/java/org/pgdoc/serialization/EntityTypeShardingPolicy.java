@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import lombok.NonNull;
+import org.pgdoc.ShardingPolicy;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The <code>EntityTypeShardingPolicy</code> class stores all the entities of a given type in the same shard, based on
+ * the type encoded in their <code>EntityId</code>. Types can be assigned to a specific shard, and the other types are
+ * distributed across shards based on their value.
+ */
+public class EntityTypeShardingPolicy implements ShardingPolicy {
+
+    private final Map<Integer, Integer> assignments;
+
+    public EntityTypeShardingPolicy() {
+        this(Map.of());
+    }
+
+    /**
+     * Creates a policy that stores the entities whose types are mapped to a shard index in that shard.
+     *
+     * @param assignments a map from entity type to shard index
+     */
+    public EntityTypeShardingPolicy(@NonNull Map<Integer, Integer> assignments) {
+        this.assignments = Collections.unmodifiableMap(new HashMap<>(assignments));
+    }
+
+    @Override
+    public int getShard(@NonNull UUID id, int shardCount) {
+        int type = new EntityId(id).getType();
+        Integer shard = this.assignments.get(type);
+
+        if (shard != null) {
+            if (shard < 0 || shard >= shardCount) {
+                throw new IllegalArgumentException(
+                    String.format("The entity type %d is assigned to shard %d, which doesn't exist.", type, shard));
+            }
+
+            return shard;
+        } else {
+            return Math.floorMod(type, shardCount);
+        }
+    }
+}
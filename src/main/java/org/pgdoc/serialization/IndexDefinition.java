@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * The <code>IndexDefinition</code> class represents an index on the <code>document</code> table, restricted to the
+ * documents of an entity type.
+ */
+public class IndexDefinition {
+
+    /**
+     * Gets the name of the index, which is derived from its definition.
+     */
+    @Getter
+    private final String name;
+
+    /**
+     * Gets the entity type whose documents are indexed.
+     */
+    @Getter
+    private final int entityType;
+
+    /**
+     * Gets the SQL statement creating the index concurrently.
+     */
+    @Getter
+    private final String createStatement;
+
+    public IndexDefinition(@NonNull String name, int entityType, @NonNull String createStatement) {
+        this.name = name;
+        this.entityType = entityType;
+        this.createStatement = createStatement;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import com.google.gson.annotations.SerializedName;
+import lombok.Cleanup;
+import lombok.Getter;
+import lombok.NonNull;
+import org.pgdoc.DocumentStoreException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * The <code>IndexManager</code> class maintains the indexes declared on entity fields through the {@link Indexed}
+ * annotation. Each index is a partial index restricted to the range of IDs of the entity type, so that it only
+ * contains the documents of that type and can be used by the queries built with <code>EntityQuery</code>.
+ * <p>
+ * Managed indexes are named after the entity type and a hash of their definition, which allows the indexes in the
+ * database to be compared with the desired ones without parsing their definition.
+ */
+public class IndexManager {
+
+    private static final String indexPrefix = "pgdoc_";
+
+    /**
+     * Gets the underlying database connection.
+     */
+    @Getter
+    private final Connection connection;
+
+    public IndexManager(@NonNull Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Returns the indexes declared by a set of entity classes.
+     *
+     * @param entityTypes the entity classes, each annotated with {@link JsonEntityType}
+     * @return the indexes declared on the fields of the entity classes
+     */
+    public static List<IndexDefinition> getIndexDefinitions(@NonNull Class<?>... entityTypes) {
+        List<IndexDefinition> result = new ArrayList<>();
+
+        for (Class<?> entityType : entityTypes) {
+            int type = EntityId.getEntityType(entityType);
+            String predicate = EntityQuery.getTypePredicate(type);
+
+            Map<List<String>, Indexed.Kind> fields = new LinkedHashMap<>();
+            findIndexedFields(entityType, new ArrayList<>(), new HashSet<>(), fields);
+
+            if (fields.containsValue(Indexed.Kind.CONTAINMENT)) {
+                result.add(createDefinition(type, "USING gin (body jsonb_path_ops)", predicate));
+            }
+
+            for (Map.Entry<List<String>, Indexed.Kind> field : fields.entrySet()) {
+                if (field.getValue() == Indexed.Kind.RANGE) {
+                    String expression = String.format(
+                        "((body #> %s))",
+                        EntityQuery.toPathLiteral(field.getKey()));
+
+                    result.add(createDefinition(type, expression, predicate));
+                }
+            }
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the indexes declared by a set of entity classes that don't exist, or whose creation did not complete.
+     */
+    public List<IndexDefinition> getMissingIndexes(@NonNull Class<?>... entityTypes) {
+        Map<String, Boolean> existing = this.getExistingIndexes();
+
+        List<IndexDefinition> result = new ArrayList<>();
+        for (IndexDefinition definition : getIndexDefinitions(entityTypes)) {
+            if (!existing.getOrDefault(definition.getName(), false)) {
+                result.add(definition);
+            }
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the names of the managed indexes on the documents of a set of entity types that are no longer declared
+     * by the entity classes.
+     */
+    public List<String> getObsoleteIndexes(@NonNull Class<?>... entityTypes) {
+        Set<String> desired = new HashSet<>();
+        getIndexDefinitions(entityTypes).forEach(definition -> desired.add(definition.getName()));
+
+        Set<String> existing = this.getExistingIndexes().keySet();
+
+        List<String> result = new ArrayList<>();
+        for (Class<?> entityType : entityTypes) {
+            String prefix = getIndexPrefix(EntityId.getEntityType(entityType));
+
+            for (String name : existing) {
+                if (name.startsWith(prefix) && !desired.contains(name)) {
+                    result.add(name);
+                }
+            }
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Creates the missing indexes declared by a set of entity classes. Indexes are created concurrently, without
+     * blocking writes to the <code>document</code> table, which requires the connection to be in auto-commit mode.
+     * Indexes left invalid by a previous attempt are dropped and created again.
+     *
+     * @param entityTypes the entity classes, each annotated with {@link JsonEntityType}
+     * @return the indexes that were created
+     */
+    public List<IndexDefinition> createMissingIndexes(@NonNull Class<?>... entityTypes) {
+        this.checkAutoCommit();
+        Map<String, Boolean> existing = this.getExistingIndexes();
+
+        List<IndexDefinition> missing = this.getMissingIndexes(entityTypes);
+        for (IndexDefinition definition : missing) {
+            if (existing.containsKey(definition.getName())) {
+                this.execute(String.format("DROP INDEX CONCURRENTLY IF EXISTS %s", definition.getName()));
+            }
+
+            this.execute(definition.getCreateStatement());
+        }
+
+        return missing;
+    }
+
+    /**
+     * Drops the managed indexes on the documents of a set of entity types that are no longer declared by the entity
+     * classes. Indexes are dropped concurrently, which requires the connection to be in auto-commit mode.
+     *
+     * @param entityTypes the entity classes, each annotated with {@link JsonEntityType}
+     * @return the names of the indexes that were dropped
+     */
+    public List<String> dropObsoleteIndexes(@NonNull Class<?>... entityTypes) {
+        this.checkAutoCommit();
+
+        List<String> obsolete = this.getObsoleteIndexes(entityTypes);
+        for (String name : obsolete) {
+            this.execute(String.format("DROP INDEX CONCURRENTLY IF EXISTS %s", name));
+        }
+
+        return obsolete;
+    }
+
+    private Map<String, Boolean> getExistingIndexes() {
+        try {
+            @Cleanup PreparedStatement statement = this.connection.prepareStatement(
+                "SELECT class.relname, index.indisvalid " +
+                "FROM pg_index AS index JOIN pg_class AS class ON class.oid = index.indexrelid " +
+                "WHERE index.indrelid = 'document'::regclass AND starts_with(class.relname, ?)");
+
+            statement.setString(1, indexPrefix);
+
+            Map<String, Boolean> result = new HashMap<>();
+            @Cleanup ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                result.put(resultSet.getString(1), resultSet.getBoolean(2));
+            }
+
+            return result;
+
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    private void execute(String sql) {
+        try {
+            @Cleanup Statement statement = this.connection.createStatement();
+            statement.execute(sql);
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    private void checkAutoCommit() {
+        try {
+            if (!this.connection.getAutoCommit()) {
+                throw new IllegalStateException(
+                    "Indexes can only be managed when the connection is in auto-commit mode.");
+            }
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    private static IndexDefinition createDefinition(int type, String method, String predicate) {
+        String definition = String.format("ON document %s WHERE %s", method, predicate);
+
+        CRC32 hash = new CRC32();
+        hash.update(definition.getBytes(StandardCharsets.UTF_8));
+        String name = String.format("%s%08x", getIndexPrefix(type), hash.getValue());
+
+        return new IndexDefinition(
+            name,
+            type,
+            String.format("CREATE INDEX CONCURRENTLY IF NOT EXISTS %s %s", name, definition));
+    }
+
+    private static String getIndexPrefix(int type) {
+        return String.format("%s%08x_", indexPrefix, type);
+    }
+
+    private static void findIndexedFields(
+        Class<?> type,
+        List<String> path,
+        Set<Class<?>> visited,
+        Map<List<String>, Indexed.Kind> result) {
+
+        if (!visited.add(type)) {
+            return;
+        }
+
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+
+                SerializedName serializedName = field.getAnnotation(SerializedName.class);
+                List<String> fieldPath = new ArrayList<>(path);
+                fieldPath.add(serializedName != null ? serializedName.value() : field.getName());
+
+                Indexed indexed = field.getAnnotation(Indexed.class);
+                if (indexed != null) {
+                    result.put(Collections.unmodifiableList(fieldPath), indexed.value());
+                }
+
+                if (EntityQuery.isPlainObject(field.getType())) {
+                    findIndexedFields(field.getType(), fieldPath, visited, result);
+                }
+            }
+        }
+
+        visited.remove(type);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The <code>Indexed</code> annotation indicates that a field of an entity is frequently queried, and that an index
+ * restricted to the documents of the entity type should be maintained for it by <code>IndexManager</code>.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Indexed {
+    public Kind value() default Kind.RANGE;
+
+    /**
+     * The kind of index to maintain for a field.
+     */
+    enum Kind {
+        /**
+         * A B-tree index on the value of the field, supporting range conditions.
+         */
+        RANGE,
+
+        /**
+         * A GIN index on the body of the documents, supporting equality, containment and <code>IN</code> conditions.
+         * A single such index is maintained for each entity type.
+         */
+        CONTAINMENT
+    }
+}
@@ -75,6 +75,10 @@ public class JsonEntity<T> {
         this.version = version;
     }
 
+    static Gson getGson() {
+        return gson;
+    }
+
     /**
      * Converts a <code>Document</code> object to a <code>JsonEntity</code> by deserializing its JSON body.
      */
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The <code>Page</code> class represents a page of results returned by a paginated query.
+ */
+public class Page<T> {
+
+    /**
+     * Gets the items of the page.
+     */
+    @Getter
+    private final List<T> items;
+
+    /**
+     * Gets the token used to retrieve the next page, or null if this is the last page.
+     */
+    @Getter
+    private final String continuationToken;
+
+    public Page(@NonNull List<T> items, String continuationToken) {
+        this.items = Collections.unmodifiableList(items);
+        this.continuationToken = continuationToken;
+    }
+
+    /**
+     * Returns whether more items are available after this page.
+     */
+    public boolean hasMore() {
+        return this.continuationToken != null;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * The <code>PageQuery</code> class represents a query whose results are retrieved one page at a time, using keyset
+ * pagination. Each page is retrieved by seeking past the last row of the previous page rather than by skipping rows,
+ * so that retrieving a page costs the same regardless of its position.
+ * <p>
+ * Rows are ordered by an optional <code>jsonb</code> expression, then by ID. Documents for which the expression is
+ * null are ordered as if it evaluated to the JSON <code>null</code> value. For the pages to be retrieved through an
+ * index, the index must be defined on the same expressions as the order, such as
+ * <code>CREATE INDEX ON document ((COALESCE(body-&gt;'name', 'null'::jsonb)), id)</code>.
+ */
+public class PageQuery {
+
+    /**
+     * Gets the SQL query returning the <code>id</code>, <code>body</code> and <code>version</code> columns of the
+     * documents to paginate.
+     */
+    @Getter
+    private final String source;
+
+    /**
+     * Gets the <code>jsonb</code> expression, evaluated against the columns of the source query, used to order the
+     * documents, or null if the documents are only ordered by ID.
+     */
+    @Getter
+    private final String orderKey;
+
+    /**
+     * Gets whether the documents are returned in descending order.
+     */
+    @Getter
+    private final boolean descending;
+
+    private final String firstPageSql;
+    private final String nextPageSql;
+
+    public PageQuery(@NonNull String source, String orderKey, boolean descending) {
+        this.source = source;
+        this.orderKey = orderKey;
+        this.descending = descending;
+
+        String direction = descending ? " DESC" : "";
+        String comparison = descending ? "<" : ">";
+
+        if (orderKey == null) {
+            String select = String.format("SELECT id, body, version, NULL AS page_key FROM (%s) AS page_source ", source);
+            String order = String.format("ORDER BY id%s LIMIT ?", direction);
+
+            this.firstPageSql = select + order;
+            this.nextPageSql = select + String.format("WHERE id %s ? ", comparison) + order;
+        } else {
+            String key = String.format("COALESCE((%s), 'null'::jsonb)", orderKey);
+            String select = String.format(
+                "SELECT id, body, version, %s::text AS page_key FROM (%s) AS page_source ", key, source);
+            String order = String.format("ORDER BY %s%s, id%s LIMIT ?", key, direction, direction);
+
+            this.firstPageSql = select + order;
+            this.nextPageSql = select + String.format("WHERE (%s, id) %s (?::jsonb, ?) ", key, comparison) + order;
+        }
+    }
+
+    /**
+     * Creates a query returning documents ordered by ID.
+     *
+     * @param source the SQL query returning the <code>id</code>, <code>body</code> and <code>version</code> columns
+     */
+    public PageQuery(@NonNull String source) {
+        this(source, null, false);
+    }
+
+    String getSql(boolean firstPage) {
+        return firstPage ? this.firstPageSql : this.nextPageSql;
+    }
+
+    static String encodeToken(UUID id, String key) {
+        String token = key == null ? id.toString() : id + "\n" + key;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String[] decodeToken(String token, boolean hasKey) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = hasKey ? value.split("\n", 2) : new String[] { value };
+
+            if (parts.length != (hasKey ? 2 : 1)) {
+                throw new IllegalArgumentException("The continuation token is invalid.");
+            }
+
+            UUID.fromString(parts[0]);
+            return parts;
+
+        } catch (IllegalArgumentException exception) {
+            throw new IllegalArgumentException("The continuation token is invalid.", exception);
+        }
+    }
+}
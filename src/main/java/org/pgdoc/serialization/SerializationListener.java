@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import java.time.Duration;
+
+/**
+ * The <code>SerializationListener</code> interface is notified of the time spent converting entities to JSON.
+ */
+public interface SerializationListener {
+
+    /**
+     * Called after a batch of entities has been serialized.
+     *
+     * @param count    the number of entities serialized
+     * @param duration the time spent serializing the entities
+     * @param parallel whether the entities were serialized in parallel
+     */
+    void onSerialized(int count, Duration duration, boolean parallel);
+}
@@ -0,0 +1,28 @@
+-- Copyright 2016 Flavien Charlon
+--
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- ======================================================================
+-- Optional indexes for stores compacting deleted documents.
+-- ======================================================================
+
+-- Partial index on the deleted documents only, so that compact_documents finds them without walking the live
+-- documents of the range. It stays small as long as deleted documents are compacted regularly.
+
+CREATE INDEX IF NOT EXISTS document_deleted_idx ON document (id) WHERE body IS NULL;
+
+-- Partial index on the type of the live documents, excluding deleted documents, for stores that scan documents by
+-- type with the get_document_type function from pgdoc_extensions.sql. The indexes maintained by IndexManager already
+-- exclude deleted documents.
+
+CREATE INDEX IF NOT EXISTS document_live_type_idx ON document (get_document_type(id)) WHERE body IS NOT NULL;
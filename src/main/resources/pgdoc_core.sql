@@ -18,15 +18,84 @@
 
 CREATE TABLE document
 (
-    id      uuid PRIMARY KEY,
-    body    jsonb,
-    version bigint NOT NULL
+    id         uuid PRIMARY KEY,
+    body       jsonb,
+    version    bigint NOT NULL,
+    expires_at timestamptz
 );
 
+CREATE INDEX document_expires_at_idx ON document (expires_at) WHERE expires_at IS NOT NULL;
+
+-- ======================================================================
+-- document_version_floor: Versions of the deleted documents removed by compaction.
+-- ======================================================================
+
+-- Once deleted documents have been removed from a range of IDs, documents created in that range start from a version
+-- greater than any removed version, so that a document recreated after compaction never reuses an old version.
+
+CREATE TABLE document_version_floor
+(
+    range_start uuid,
+    range_end   uuid,
+    version     bigint NOT NULL,
+    PRIMARY KEY (range_start, range_end)
+);
+
+CREATE OR REPLACE FUNCTION get_document_version_floor(id uuid)
+RETURNS bigint AS $$
+
+    SELECT COALESCE(max(document_version_floor.version), 0)
+    FROM document_version_floor
+    WHERE id BETWEEN document_version_floor.range_start AND document_version_floor.range_end;
+
+$$ LANGUAGE sql
+STABLE;
+
+-- ======================================================================
+-- document_expiry_policy: Time to live of the documents in a range of IDs.
+-- ======================================================================
+
+-- Documents written in a range with a policy expire after its time to live, unless they are written again. Writing a
+-- document always replaces its expiry time, which is null outside of these ranges and for deleted documents.
+
+CREATE TABLE document_expiry_policy
+(
+    range_start  uuid,
+    range_end    uuid,
+    time_to_live interval NOT NULL,
+    PRIMARY KEY (range_start, range_end)
+);
+
+CREATE OR REPLACE FUNCTION get_document_expiry(id uuid, body jsonb)
+RETURNS timestamptz AS $$
+
+    SELECT now() + min(document_expiry_policy.time_to_live)
+    FROM document_expiry_policy
+    WHERE id BETWEEN document_expiry_policy.range_start AND document_expiry_policy.range_end
+      AND body IS NOT NULL;
+
+$$ LANGUAGE sql
+STABLE;
+
+-- Expired documents are read and checked as if they had already been deleted by sweep_expired_documents, which
+-- increments their version. Their version therefore changes as soon as they expire, so that readers comparing versions,
+-- such as caches, see the deletion before the documents are swept.
+
+CREATE OR REPLACE FUNCTION get_document_version(version bigint, expires_at timestamptz)
+RETURNS bigint AS $$
+
+    SELECT CASE WHEN expires_at <= now() THEN version + 1 ELSE version END;
+
+$$ LANGUAGE sql
+STABLE;
+
 -- ======================================================================
 -- update_documents: Updates a series of documents.
 -- ======================================================================
 
+-- The function returns the ID and new version of every document that was written. Documents that are only checked,
+-- and unchanged documents skipped when "skip_unchanged" is set, are not returned and keep their version.
+
 CREATE TYPE document_update AS
 (
     id uuid,
@@ -35,8 +104,13 @@ CREATE TYPE document_update AS
     check_only boolean
 );
 
-CREATE OR REPLACE FUNCTION update_documents(document_updates document_update[])
-RETURNS VOID AS $$ #variable_conflict use_variable
+CREATE OR REPLACE FUNCTION update_documents(
+    ids uuid[],
+    bodies jsonb[],
+    versions bigint[],
+    check_only boolean[],
+    skip_unchanged boolean)
+RETURNS TABLE (id uuid, version bigint) AS $$ #variable_conflict use_variable
 DECLARE
     conflict_id uuid;
 BEGIN
@@ -44,34 +118,325 @@ BEGIN
     -- Insert the new documents
 
     INSERT INTO document (id, body, version)
-    SELECT document_update.id, NULL, 0
-    FROM UNNEST(document_updates) AS document_update
-    ON CONFLICT (id) DO NOTHING;
+    SELECT UNNEST(ids), NULL, 0
+    ON CONFLICT ON CONSTRAINT document_pkey DO NOTHING;
 
     -- This query returns conflicting rows, the result must be empty
     -- "FOR SHARE" ensures existing documents don't get modified before the UPDATE statement
 
     WITH document_update AS (
-      SELECT document.id, document.version AS old_version, document_update.version AS new_version
-      FROM document, UNNEST(document_updates) AS document_update
+      SELECT
+        document.id,
+        get_document_version(document.version, document.expires_at) AS old_version,
+        document_update.version AS new_version
+      FROM document, UNNEST(ids, versions) AS document_update (id, version)
       WHERE document.id = document_update.id
       FOR SHARE OF document
     )
-    SELECT id INTO conflict_id
+    SELECT document_update.id INTO conflict_id
     FROM document_update
-    WHERE old_version <> new_version;
+    WHERE document_update.old_version <> document_update.new_version;
 
     IF conflict_id IS NOT NULL THEN
       RAISE EXCEPTION 'check_violation' USING HINT = 'update_documents_conflict', DETAIL = conflict_id::text;
     END IF;
 
     -- Update existing documents
+    -- When "skip_unchanged" is set, documents whose body is identical are only checked, and keep their version,
+    -- unless they have an expiry time that must be renewed
+    -- Documents being created start from the version floor of their range, which is read after the insertion
 
+    RETURN QUERY
     UPDATE document
     SET body = document_update.body,
-        version = document_update.version + 1
-    FROM UNNEST(document_updates) AS document_update
-    WHERE document.id = document_update.id AND NOT document_update.check_only;
+        version = CASE
+          WHEN document_update.version = 0 THEN get_document_version_floor(document.id)
+          ELSE document_update.version
+        END + 1,
+        expires_at = get_document_expiry(document.id, document_update.body)
+    FROM UNNEST(ids, bodies, versions, check_only) AS document_update (id, body, version, check_only)
+    WHERE document.id = document_update.id
+      AND NOT document_update.check_only
+      AND NOT (skip_unchanged
+        AND document.body IS NOT DISTINCT FROM document_update.body
+        AND document.expires_at IS NULL)
+    RETURNING document.id, document.version;
+
+END $$ LANGUAGE plpgsql
+SECURITY DEFINER;
+
+CREATE OR REPLACE FUNCTION update_documents(document_updates document_update[], skip_unchanged boolean)
+RETURNS TABLE (id uuid, version bigint) AS $$
+
+    SELECT updated_document.id, updated_document.version
+    FROM (
+      SELECT
+        array_agg(document_update.id) AS ids,
+        array_agg(document_update.body) AS bodies,
+        array_agg(document_update.version) AS versions,
+        array_agg(document_update.check_only) AS check_only
+      FROM UNNEST(document_updates) AS document_update
+    ) AS columns,
+    LATERAL update_documents(columns.ids, columns.bodies, columns.versions, columns.check_only, skip_unchanged)
+      AS updated_document;
+
+$$ LANGUAGE sql
+SECURITY DEFINER;
+
+CREATE OR REPLACE FUNCTION update_documents(document_updates document_update[])
+RETURNS TABLE (id uuid, version bigint) AS $$
+
+    SELECT updated_document.id, updated_document.version
+    FROM update_documents(document_updates, false) AS updated_document;
+
+$$ LANGUAGE sql
+SECURITY DEFINER;
+
+-- ======================================================================
+-- raise_created_document_versions: Moves newly created documents above the version floor of their range.
+-- ======================================================================
+
+-- Functions that create documents and compute their version in a single statement call this function afterwards, so
+-- that the version floor is read by a separate statement, after any concurrent compaction of the same documents has
+-- been committed. Under REPEATABLE READ or SERIALIZABLE, the snapshot of the transaction may predate that compaction,
+-- so the documents it removed and the version floor it raised are locked first, which raises a serialization failure
+-- (40001) in that case instead of reading a stale version floor. The function returns the ID and new version of every
+-- document that was moved.
+
+CREATE OR REPLACE FUNCTION raise_created_document_versions(ids uuid[])
+RETURNS TABLE (id uuid, version bigint) AS $$
+BEGIN
+
+    IF current_setting('transaction_isolation') <> 'read committed' THEN
+      PERFORM 1
+      FROM document
+      WHERE document.id = ANY(ids)
+      FOR SHARE;
+
+      PERFORM 1
+      FROM document_version_floor, UNNEST(ids) AS created (id)
+      WHERE created.id BETWEEN document_version_floor.range_start AND document_version_floor.range_end
+      FOR SHARE OF document_version_floor;
+    END IF;
+
+    RETURN QUERY
+    UPDATE document
+    SET version = version_floor.version + 1
+    FROM (
+      SELECT created.id, get_document_version_floor(created.id) AS version
+      FROM UNNEST(ids) AS created (id)
+    ) AS version_floor
+    WHERE document.id = version_floor.id
+      AND document.version = 1
+      AND version_floor.version > 0
+    RETURNING document.id, document.version;
+
+END $$ LANGUAGE plpgsql
+SECURITY DEFINER;
+
+-- ======================================================================
+-- try_update_documents: Updates a series of documents in a single statement.
+-- ======================================================================
+
+-- Instead of raising an exception, this function returns the ID and current version of every conflicting document.
+-- By default, all the documents are left untouched if there is at least one conflict. In best effort mode, the
+-- documents that don't conflict are updated regardless. The ID and new version of every document that was written
+-- are returned as well, with "conflict" set to false.
+
+CREATE OR REPLACE FUNCTION try_update_documents(
+    ids uuid[],
+    bodies jsonb[],
+    versions bigint[],
+    check_only boolean[],
+    skip_unchanged boolean,
+    best_effort boolean DEFAULT false)
+RETURNS TABLE (id uuid, version bigint, conflict boolean) AS $$ #variable_conflict use_column
+DECLARE
+    conflict_ids uuid[];
+    conflict_versions bigint[];
+    written_ids uuid[];
+    written_versions bigint[];
+    created_ids uuid[];
+BEGIN
+
+    WITH document_update AS (
+      SELECT *
+      FROM UNNEST(ids, bodies, versions, check_only) AS document_update (id, body, version, check_only)
+    ),
+
+    -- Lock the existing documents in a consistent order, so that they can't be modified before the UPDATE statement.
+    -- Documents being updated are locked in the mode used by UPDATE directly, which avoids lock upgrades.
+
+    locked_update AS (
+      SELECT document.id, get_document_version(document.version, document.expires_at) AS version
+      FROM document, document_update
+      WHERE document.id = document_update.id AND NOT document_update.check_only
+      ORDER BY document.id
+      FOR NO KEY UPDATE OF document
+    ),
+    locked_check AS (
+      SELECT document.id, get_document_version(document.version, document.expires_at) AS version
+      FROM document, document_update
+      WHERE document.id = document_update.id AND document_update.check_only
+      ORDER BY document.id
+      FOR SHARE OF document
+    ),
+    current_document AS (
+      SELECT id, version FROM locked_update
+      UNION ALL
+      SELECT id, version FROM locked_check
+    ),
+
+    -- Documents that don't exist have an implicit version of zero
+
+    conflict AS (
+      SELECT document_update.id, COALESCE(current_document.version, 0) AS version
+      FROM document_update
+      LEFT JOIN current_document ON current_document.id = document_update.id
+      WHERE COALESCE(current_document.version, 0) <> document_update.version
+    ),
+
+    -- Update existing documents and insert new ones, only if there is no conflict, or if the document itself doesn't
+    -- conflict in best effort mode
+
+    updated_document AS (
+      UPDATE document
+      SET body = document_update.body,
+          version = document_update.version + 1,
+          expires_at = get_document_expiry(document.id, document_update.body)
+      FROM document_update
+      WHERE document.id = document_update.id
+        AND get_document_version(document.version, document.expires_at) = document_update.version
+        AND NOT document_update.check_only
+        AND NOT (skip_unchanged
+          AND document.body IS NOT DISTINCT FROM document_update.body
+          AND document.expires_at IS NULL)
+        AND NOT EXISTS (SELECT FROM conflict WHERE NOT best_effort OR conflict.id = document_update.id)
+      RETURNING document.id, document.version
+    ),
+    inserted_document AS (
+      INSERT INTO document (id, body, version, expires_at)
+      SELECT
+        document_update.id,
+        document_update.body,
+        1,
+        get_document_expiry(document_update.id, document_update.body)
+      FROM document_update
+      WHERE NOT document_update.check_only
+        AND NOT EXISTS (SELECT FROM current_document WHERE current_document.id = document_update.id)
+        AND NOT EXISTS (SELECT FROM conflict WHERE NOT best_effort OR conflict.id = document_update.id)
+      RETURNING document.id, document.version
+    ),
+    written_document AS (
+      SELECT inserted_document.id, inserted_document.version FROM inserted_document
+      UNION ALL
+      SELECT updated_document.id, updated_document.version FROM updated_document
+    )
+
+    SELECT
+      ARRAY(SELECT conflict.id FROM conflict),
+      ARRAY(SELECT conflict.version FROM conflict),
+      ARRAY(SELECT written_document.id FROM written_document),
+      ARRAY(SELECT written_document.version FROM written_document),
+      ARRAY(SELECT written_document.id FROM written_document WHERE written_document.version = 1)
+    INTO conflict_ids, conflict_versions, written_ids, written_versions, created_ids;
+
+    -- Documents created in a compacted range are moved above its version floor by a separate statement
+
+    RETURN QUERY
+    WITH raised_document AS (
+      SELECT raised.id, raised.version FROM raise_created_document_versions(created_ids) AS raised
+    )
+    SELECT conflict.id, conflict.version, true
+    FROM UNNEST(conflict_ids, conflict_versions) AS conflict (id, version)
+    UNION ALL
+    SELECT written_document.id, COALESCE(raised_document.version, written_document.version), false
+    FROM UNNEST(written_ids, written_versions) AS written_document (id, version)
+    LEFT JOIN raised_document ON raised_document.id = written_document.id;
+
+END $$ LANGUAGE plpgsql
+SECURITY DEFINER;
+
+-- ======================================================================
+-- create_documents: Creates a series of documents if they don't exist.
+-- ======================================================================
+
+-- Versions are not checked, so no conflict scan is needed. A document is created if it has never been created, or if
+-- it has been deleted or has expired, and its version is incremented. The function returns the ID of every document
+-- that was created. When an ID is provided more than once, the first body is used.
+
+CREATE OR REPLACE FUNCTION create_documents(ids uuid[], bodies jsonb[])
+RETURNS TABLE (id uuid) AS $$ #variable_conflict use_column
+DECLARE
+    written_ids uuid[];
+    created_ids uuid[];
+BEGIN
+
+    WITH written_document AS (
+      INSERT INTO document AS current_document (id, body, version, expires_at)
+      SELECT DISTINCT ON (document_update.id)
+        document_update.id,
+        document_update.body,
+        1,
+        get_document_expiry(document_update.id, document_update.body)
+      FROM UNNEST(ids, bodies) WITH ORDINALITY AS document_update (id, body, position)
+      ORDER BY document_update.id, document_update.position
+      ON CONFLICT (id) DO UPDATE
+      SET body = EXCLUDED.body,
+          version = get_document_version(current_document.version, current_document.expires_at) + 1,
+          expires_at = EXCLUDED.expires_at
+      WHERE current_document.body IS NULL OR current_document.expires_at <= now()
+      RETURNING current_document.id, current_document.version
+    )
+    SELECT
+      ARRAY(SELECT written_document.id FROM written_document),
+      ARRAY(SELECT written_document.id FROM written_document WHERE written_document.version = 1)
+    INTO written_ids, created_ids;
+
+    PERFORM raise_created_document_versions(created_ids);
+
+    RETURN QUERY SELECT * FROM UNNEST(written_ids);
+
+END $$ LANGUAGE plpgsql
+SECURITY DEFINER;
+
+-- ======================================================================
+-- overwrite_documents: Replaces the body of a series of documents regardless of their version.
+-- ======================================================================
+
+-- Versions are not checked, so no conflict scan is needed. The version of every document is incremented. When an ID
+-- is provided more than once, the last body is used.
+
+CREATE OR REPLACE FUNCTION overwrite_documents(ids uuid[], bodies jsonb[])
+RETURNS TABLE (id uuid) AS $$ #variable_conflict use_column
+DECLARE
+    written_ids uuid[];
+    created_ids uuid[];
+BEGIN
+
+    WITH written_document AS (
+      INSERT INTO document AS current_document (id, body, version, expires_at)
+      SELECT DISTINCT ON (document_update.id)
+        document_update.id,
+        document_update.body,
+        1,
+        get_document_expiry(document_update.id, document_update.body)
+      FROM UNNEST(ids, bodies) WITH ORDINALITY AS document_update (id, body, position)
+      ORDER BY document_update.id, document_update.position DESC
+      ON CONFLICT (id) DO UPDATE
+      SET body = EXCLUDED.body,
+          version = get_document_version(current_document.version, current_document.expires_at) + 1,
+          expires_at = EXCLUDED.expires_at
+      RETURNING current_document.id, current_document.version
+    )
+    SELECT
+      ARRAY(SELECT written_document.id FROM written_document),
+      ARRAY(SELECT written_document.id FROM written_document WHERE written_document.version = 1)
+    INTO written_ids, created_ids;
+
+    PERFORM raise_created_document_versions(created_ids);
+
+    RETURN QUERY SELECT * FROM UNNEST(written_ids);
 
 END $$ LANGUAGE plpgsql
 SECURITY DEFINER;
@@ -82,11 +447,265 @@ SECURITY DEFINER;
 
 CREATE OR REPLACE FUNCTION get_documents(ids uuid[])
 RETURNS TABLE (id uuid, body jsonb, version bigint) AS $$
-BEGIN
 
-    RETURN QUERY
-    SELECT document.id, document.body, document.version
+    -- Expired documents are returned as deleted, even before they are swept
+
+    SELECT
+      document.id,
+      CASE WHEN document.expires_at <= now() THEN NULL ELSE document.body END,
+      get_document_version(document.version, document.expires_at)
     FROM document
     WHERE document.id = ANY(ids);
 
-END $$ LANGUAGE plpgsql;
+$$ LANGUAGE sql
+STABLE;
+
+-- ======================================================================
+-- get_document_versions: Gets the current version of a list of documents from their IDs.
+-- ======================================================================
+
+CREATE OR REPLACE FUNCTION get_document_versions(ids uuid[])
+RETURNS TABLE (id uuid, version bigint) AS $$
+
+    SELECT document.id, get_document_version(document.version, document.expires_at)
+    FROM document
+    WHERE document.id = ANY(ids);
+
+$$ LANGUAGE sql
+STABLE;
+
+-- ======================================================================
+-- apply_document_operations: Applies atomic operations to a series of documents.
+-- ======================================================================
+
+CREATE OR REPLACE FUNCTION apply_document_operation(body jsonb, operation text, path text[], operand jsonb)
+RETURNS jsonb AS $$
+DECLARE
+    result jsonb := COALESCE(body, '{}'::jsonb);
+    current_value jsonb;
+    new_value jsonb;
+BEGIN
+
+    IF jsonb_typeof(result) <> 'object' THEN
+      RAISE EXCEPTION 'The body of the document is not an object.' USING ERRCODE = 'invalid_parameter_value';
+    END IF;
+
+    -- Create the missing intermediate objects, as jsonb_set only creates the last element of the path
+
+    FOR i IN 1 .. array_length(path, 1) - 1 LOOP
+      IF result #> path[1:i] IS NULL THEN
+        result := jsonb_set(result, path[1:i], '{}'::jsonb);
+      ELSIF jsonb_typeof(result #> path[1:i]) NOT IN ('object', 'array') THEN
+        RAISE EXCEPTION 'The path % does not designate a container.', path[1:i] USING ERRCODE = 'invalid_parameter_value';
+      END IF;
+    END LOOP;
+
+    current_value := result #> path;
+
+    IF operation = 'increment' THEN
+      IF jsonb_typeof(operand) <> 'number' OR jsonb_typeof(current_value) <> 'number' THEN
+        RAISE EXCEPTION 'Only numbers can be incremented.' USING ERRCODE = 'invalid_parameter_value';
+      END IF;
+
+      new_value := CASE
+        WHEN current_value IS NULL THEN operand
+        ELSE to_jsonb((current_value #>> '{}')::numeric + (operand #>> '{}')::numeric)
+      END;
+
+    ELSIF operation = 'append' THEN
+      IF jsonb_typeof(current_value) <> 'array' THEN
+        RAISE EXCEPTION 'Values can only be appended to arrays.' USING ERRCODE = 'invalid_parameter_value';
+      END IF;
+
+      new_value := COALESCE(current_value, '[]'::jsonb) || jsonb_build_array(operand);
+
+    ELSIF operation = 'set_if_greater' THEN
+      IF jsonb_typeof(operand) <> jsonb_typeof(current_value) THEN
+        RAISE EXCEPTION 'Only values of the same type can be compared.' USING ERRCODE = 'invalid_parameter_value';
+      END IF;
+
+      new_value := CASE
+        WHEN current_value IS NULL OR operand > current_value THEN operand
+        ELSE current_value
+      END;
+
+    ELSE
+      RAISE EXCEPTION 'Unknown operation %.', operation USING ERRCODE = 'invalid_parameter_value';
+    END IF;
+
+    RETURN jsonb_set(result, path, new_value, true);
+
+END $$ LANGUAGE plpgsql
+IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION apply_document_operations(
+    ids uuid[],
+    operations text[],
+    paths text[],
+    operands jsonb[])
+RETURNS TABLE (id uuid, body jsonb, version bigint) AS $$ #variable_conflict use_column
+DECLARE
+    target record;
+    operation record;
+    current_body jsonb;
+    current_version bigint;
+    new_body jsonb;
+    new_version bigint;
+BEGIN
+
+    -- Insert the new documents
+
+    INSERT INTO document (id, body, version)
+    SELECT DISTINCT UNNEST(ids), NULL::jsonb, 0
+    ON CONFLICT (id) DO NOTHING;
+
+    -- Documents are locked in a consistent order to prevent deadlocks between concurrent calls
+
+    FOR target IN
+      SELECT document.id, document.body, document.version, document.expires_at
+      FROM document
+      WHERE document.id = ANY(ids)
+      ORDER BY document.id
+      FOR NO KEY UPDATE
+    LOOP
+      -- Expired documents are treated as deleted
+
+      current_body := CASE WHEN target.expires_at <= now() THEN NULL ELSE target.body END;
+      current_version := get_document_version(target.version, target.expires_at);
+      new_body := current_body;
+
+      FOR operation IN
+        SELECT document_operation.operation, document_operation.path, document_operation.operand
+        FROM UNNEST(ids, operations, paths, operands) WITH ORDINALITY
+          AS document_operation (id, operation, path, operand, position)
+        WHERE document_operation.id = target.id
+        ORDER BY document_operation.position
+      LOOP
+        new_body := apply_document_operation(new_body, operation.operation, operation.path::text[], operation.operand);
+      END LOOP;
+
+      id := target.id;
+      body := new_body;
+      version := current_version;
+
+      -- Documents left unchanged keep their version
+
+      IF new_body IS DISTINCT FROM current_body THEN
+        new_version := CASE
+          WHEN current_version = 0 THEN get_document_version_floor(target.id)
+          ELSE current_version
+        END + 1;
+
+        UPDATE document
+        SET body = new_body,
+            version = new_version,
+            expires_at = get_document_expiry(target.id, new_body)
+        WHERE document.id = target.id;
+
+        version := new_version;
+      END IF;
+
+      RETURN NEXT;
+    END LOOP;
+
+END $$ LANGUAGE plpgsql
+SECURITY DEFINER;
+
+-- ======================================================================
+-- compact_documents: Removes a batch of deleted documents from a range of IDs.
+-- ======================================================================
+
+-- Deleted documents are removed in ID order, skipping those locked by concurrent updates, and the version floor of
+-- the range is raised in the same transaction. Documents only get created again once the removal has been committed,
+-- and the functions creating them read the version floor in a later statement, so they always see the new floor.
+-- Transactions whose snapshot predates the compaction fail with a serialization failure instead.
+-- The function returns the number of documents removed.
+
+CREATE OR REPLACE FUNCTION compact_documents(range_start uuid, range_end uuid, batch_size int)
+RETURNS int AS $$
+DECLARE
+    removed_count int;
+    removed_version bigint;
+BEGIN
+
+    WITH removed_document AS (
+      DELETE FROM document
+      WHERE document.id IN (
+        SELECT tombstone.id
+        FROM document AS tombstone
+        WHERE tombstone.id BETWEEN range_start AND range_end
+          AND tombstone.body IS NULL
+        ORDER BY tombstone.id
+        LIMIT batch_size
+        FOR UPDATE SKIP LOCKED
+      )
+      RETURNING document.version
+    )
+    SELECT count(*), max(removed_document.version)
+    INTO removed_count, removed_version
+    FROM removed_document;
+
+    IF removed_count > 0 THEN
+      INSERT INTO document_version_floor (range_start, range_end, version)
+      VALUES (range_start, range_end, removed_version)
+      ON CONFLICT ON CONSTRAINT document_version_floor_pkey DO UPDATE
+      SET version = GREATEST(document_version_floor.version, EXCLUDED.version);
+    END IF;
+
+    RETURN removed_count;
+
+END $$ LANGUAGE plpgsql
+SECURITY DEFINER;
+
+-- ======================================================================
+-- set_document_expiry: Sets the expiry time of a series of documents.
+-- ======================================================================
+
+-- The expiry time is replaced the next time a document is written. Deleted and expired documents are left untouched.
+-- The version of the documents is not modified. The function returns the IDs of the documents that were modified.
+
+CREATE OR REPLACE FUNCTION set_document_expiry(ids uuid[], expires_at timestamptz)
+RETURNS TABLE (id uuid) AS $$
+
+    UPDATE document
+    SET expires_at = set_document_expiry.expires_at
+    WHERE document.id = ANY(ids)
+      AND document.body IS NOT NULL
+      AND (document.expires_at IS NULL OR document.expires_at > now())
+    RETURNING document.id;
+
+$$ LANGUAGE sql
+SECURITY DEFINER;
+
+-- ======================================================================
+-- sweep_expired_documents: Deletes a batch of expired documents.
+-- ======================================================================
+
+-- Expired documents are deleted in order of expiry, skipping those locked by concurrent updates, and their version is
+-- incremented like for any other deletion. The function returns the number of documents deleted.
+
+CREATE OR REPLACE FUNCTION sweep_expired_documents(batch_size int)
+RETURNS int AS $$
+
+    WITH expired_document AS (
+      SELECT document.id
+      FROM document
+      WHERE document.expires_at <= now()
+        AND document.body IS NOT NULL
+      ORDER BY document.expires_at
+      LIMIT batch_size
+      FOR UPDATE SKIP LOCKED
+    ),
+    deleted_document AS (
+      UPDATE document
+      SET body = NULL,
+          version = document.version + 1,
+          expires_at = NULL
+      FROM expired_document
+      WHERE document.id = expired_document.id
+      RETURNING document.id
+    )
+    SELECT count(*)::int FROM deleted_document;
+
+$$ LANGUAGE sql
+SECURITY DEFINER;
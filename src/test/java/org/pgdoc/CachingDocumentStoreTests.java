@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CachingDocumentStoreTests extends DocumentStoreTests<CachingDocumentStore> {
+
+    private CountingDocumentStore backingStore;
+
+    @Override
+    protected CachingDocumentStore createStore() {
+        this.backingStore = new CountingDocumentStore();
+        return new CachingDocumentStore(this.backingStore, new OffHeapDocumentCache(1000, 65536, 4));
+    }
+
+    //region Constructor
+
+    @Test
+    public void new_nullArgument() {
+        assertThrows(
+            NullPointerException.class,
+            () -> new CachingDocumentStore(null, new OffHeapDocumentCache(1000, 65536, 4)));
+    }
+
+    //endregion
+
+    //region Caching
+
+    @Test
+    public void getDocuments_cachedAfterRead() {
+        this.backingStore.updateDocuments(new Document(ids[0], "{\"abc\":\"def\"}", 0));
+
+        store.getDocuments(List.of(ids[0], ids[1]));
+        List<Document> result = store.getDocuments(List.of(ids[0], ids[1], ids[0]));
+
+        assertEquals(1, this.backingStore.bodyReads);
+        assertDocument(result.get(0), ids[0], "{\"abc\":\"def\"}", 1);
+        assertDocument(result.get(1), ids[1], null, 0);
+        assertDocument(result.get(2), ids[0], "{\"abc\":\"def\"}", 1);
+    }
+
+    @Test
+    public void getDocuments_cachedAfterUpdate() {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+
+        Document result = store.getDocument(ids[0]);
+
+        assertEquals(0, this.backingStore.bodyReads);
+        assertDocument(result, ids[0], "{\"abc\":\"def\"}", 1);
+    }
+
+    @Test
+    public void getDocuments_modifiedOutsideCache() {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+        this.backingStore.updateDocuments(new Document(ids[0], "{\"ghi\":\"jkl\"}", 1));
+
+        Document result = store.getDocument(ids[0]);
+
+        assertEquals(1, this.backingStore.bodyReads);
+        assertDocument(result, ids[0], "{\"ghi\":\"jkl\"}", 2);
+    }
+
+    //endregion
+
+    private static class CountingDocumentStore extends InMemoryDocumentStore {
+
+        private int bodyReads = 0;
+
+        @Override
+        public List<Document> getDocuments(Iterable<UUID> ids) {
+            this.bodyReads++;
+            return super.getDocuments(ids);
+        }
+
+        @Override
+        public Map<UUID, Long> getDocumentVersions(Iterable<UUID> ids) {
+            Map<UUID, Long> result = super.getDocumentVersions(ids);
+            this.bodyReads--;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Cleanup;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DocumentCompactorTests {
+
+    private static final int type = 16;
+    private static final int otherType = 17;
+
+    private Connection connection;
+    private SqlDocumentStore store;
+    private DocumentCompactor compactor;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        this.connection = createConnection();
+        this.store = new SqlDocumentStore(this.connection);
+        this.compactor = new DocumentCompactor(this.connection);
+        this.compactor.setBatchDelay(Duration.ZERO);
+
+        @Cleanup PreparedStatement statement =
+            this.connection.prepareStatement("TRUNCATE TABLE document, document_version_floor;");
+        statement.executeUpdate();
+    }
+
+    @Test
+    public void compactType_removesDeletedDocuments() throws SQLException {
+        createDeleted(id(type, 1), 1);
+        createDeleted(id(type, 2), 3);
+        this.store.updateDocuments(new Document(id(type, 3), "{\"abc\":\"def\"}", 0));
+        createDeleted(id(otherType, 1), 1);
+        this.compactor.setBatchSize(1);
+
+        long result = this.compactor.compactType(type);
+
+        assertEquals(2, result);
+        assertEquals(1, countRows(type));
+        assertEquals(1, countRows(otherType));
+        assertDocument(this.store.getDocument(id(type, 1)), null, 0);
+        assertDocument(this.store.getDocument(id(type, 3)), "{\"abc\":\"def\"}", 1);
+    }
+
+    @Test
+    public void compactType_nothingToRemove() {
+        this.store.updateDocuments(new Document(id(type, 1), "{\"abc\":\"def\"}", 0));
+
+        assertEquals(0, this.compactor.compactType(type));
+        assertEquals(0, this.compactor.compactType(otherType));
+    }
+
+    @Test
+    public void compactType_recreatedDocumentVersion() {
+        createDeleted(id(type, 1), 1);
+        createDeleted(id(type, 2), 3);
+        this.compactor.compactType(type);
+
+        this.store.updateDocuments(new Document(id(type, 1), "{\"abc\":\"def\"}", 0));
+        this.store.setSingleStatementUpdates(true);
+        this.store.updateDocuments(new Document(id(type, 2), "{\"abc\":\"def\"}", 0));
+        this.store.createDocuments(List.of(new Document(id(type, 3), "{\"abc\":\"def\"}", 0)));
+        this.store.overwriteDocuments(new Document(id(type, 4), "{\"abc\":\"def\"}", 0));
+        this.store.applyOperations(List.of(DocumentOperation.increment(id(type, 5), "count", 1)));
+        this.store.updateDocuments(new Document(id(otherType, 1), "{\"abc\":\"def\"}", 0));
+
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(5, this.store.getDocument(id(type, i)).getVersion());
+        }
+
+        assertEquals(1, this.store.getDocument(id(otherType, 1)).getVersion());
+    }
+
+    @Test
+    public void compactType_repeatableReadSnapshot() throws SQLException {
+        createDeleted(id(type, 1), 3);
+        createDeleted(id(type, 2), 3);
+
+        Connection otherConnection = createConnection();
+        SqlDocumentStore otherStore = new SqlDocumentStore(otherConnection);
+        otherConnection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        otherConnection.setAutoCommit(false);
+
+        try {
+            // Take the snapshot before the compaction
+            assertEquals(4, otherStore.getDocumentVersions(List.of(id(type, 1))).get(id(type, 1)));
+
+            this.compactor.compactType(type);
+
+            DocumentStoreException exception = assertThrows(
+                DocumentStoreException.class,
+                () -> otherStore.createDocuments(List.of(new Document(id(type, 1), "{\"abc\":\"def\"}", 0))));
+
+            assertEquals("40001", ((SQLException) exception.getCause()).getSQLState());
+
+        } finally {
+            otherConnection.rollback();
+            otherConnection.close();
+        }
+
+        this.store.overwriteDocuments(new Document(id(type, 2), "{\"abc\":\"def\"}", 0));
+
+        assertEquals(5, this.store.getDocument(id(type, 2)).getVersion());
+    }
+
+    @Test
+    public void compactType_repeatedCompaction() {
+        createDeleted(id(type, 1), 3);
+        this.compactor.compactType(type);
+        createDeleted(id(type, 2), 0);
+
+        assertEquals(5, this.store.getDocumentVersions(List.of(id(type, 2))).get(id(type, 2)));
+
+        this.compactor.compactType(type);
+        Set<UUID> result = this.store.createDocuments(List.of(new Document(id(type, 3), "{\"abc\":\"def\"}", 0)));
+
+        assertEquals(Set.of(id(type, 3)), result);
+        assertEquals(6, this.store.getDocument(id(type, 3)).getVersion());
+    }
+
+    @Test
+    public void compactBatch_lockedDocumentSkipped() throws SQLException {
+        createDeleted(id(type, 1), 1);
+        createDeleted(id(type, 2), 1);
+
+        Connection otherConnection = createConnection();
+        otherConnection.setAutoCommit(false);
+
+        try {
+            @Cleanup PreparedStatement statement = otherConnection.prepareStatement(
+                "SELECT id FROM document WHERE id = ? FOR UPDATE");
+            statement.setObject(1, id(type, 1));
+            statement.executeQuery().close();
+
+            assertEquals(1, this.compactor.compactBatch(id(type, 0), id(type, 9)));
+            assertEquals(1, countRows(type));
+
+        } finally {
+            otherConnection.rollback();
+            otherConnection.close();
+        }
+
+        assertEquals(1, this.compactor.compactBatch(id(type, 0), id(type, 9)));
+        assertEquals(0, countRows(type));
+    }
+
+    @Test
+    public void compactBatch_autoCommitRequired() throws SQLException {
+        this.connection.setAutoCommit(false);
+
+        try {
+            assertThrows(
+                IllegalStateException.class,
+                () -> this.compactor.compactType(type));
+        } finally {
+            this.connection.rollback();
+            this.connection.setAutoCommit(true);
+        }
+    }
+
+    @Test
+    public void compactType_invalidBatchSize() {
+        this.compactor.setBatchSize(0);
+
+        assertThrows(
+            IllegalStateException.class,
+            () -> this.compactor.compactType(type));
+    }
+
+    //region Helper Methods
+
+    private void createDeleted(UUID id, int updates) {
+        long version = 0;
+        for (int i = 0; i < updates; i++) {
+            this.store.updateDocuments(new Document(id, "{\"abc\":" + i + "}", version++));
+        }
+
+        this.store.updateDocuments(new Document(id, null, version));
+    }
+
+    private long countRows(int documentType) throws SQLException {
+        @Cleanup PreparedStatement statement = this.connection.prepareStatement(
+            "SELECT count(*) FROM document WHERE id BETWEEN ? AND ?");
+        statement.setObject(1, id(documentType, 0));
+        statement.setObject(2, new UUID((long) documentType << 32 | 0xFFFFFFFFL, -1));
+
+        @Cleanup ResultSet resultSet = statement.executeQuery();
+        resultSet.next();
+        return resultSet.getLong(1);
+    }
+
+    private static UUID id(int documentType, long value) {
+        return new UUID((long) documentType << 32, value);
+    }
+
+    private static void assertDocument(Document document, String body, long version) {
+        if (body == null) {
+            assertNull(document.getBody());
+        } else {
+            assertEquals(body.replace(":", ": "), document.getBody());
+        }
+
+        assertEquals(version, document.getVersion());
+    }
+
+    private static Connection createConnection() throws SQLException {
+        String connectionString = System.getProperty("db_connection_url");
+        Properties props = new Properties();
+        props.setProperty("password", System.getProperty("db_connection_password"));
+
+        return DriverManager.getConnection(connectionString, props);
+    }
+
+    //endregion
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Conformance tests shared by all the implementations of the <code>DocumentStore</code> interface.
+ */
+public abstract class DocumentStoreTests<T extends DocumentStore> {
+
+    protected T store;
+
+    protected static final UUID[] ids = IntStream.rangeClosed(0, 10)
+        .mapToObj(i -> new UUID(i, 255))
+        .toArray(UUID[]::new);
+
+    @BeforeEach
+    void setupStore() throws Exception {
+        this.store = createStore();
+    }
+
+    /**
+     * Creates an empty store.
+     */
+    protected abstract T createStore() throws Exception;
+
+    //region updateDocuments
+
+    @ParameterizedTest
+    @MethodSource("updateDocuments_oneArgument")
+    public void updateDocuments_emptyToValue(String to) {
+        updateDocument(to, 0);
+
+        Document document = store.getDocument(ids[0]);
+
+        assertDocument(document, ids[0], to, 1);
+    }
+
+    @ParameterizedTest
+    @MethodSource("updateDocuments_twoArguments")
+    public void updateDocuments_valueToValue(String from, String to) {
+        updateDocument(from, 0);
+        updateDocument(to, 1);
+
+        Document document = store.getDocument(ids[0]);
+
+        assertDocument(document, ids[0], to, 2);
+    }
+
+    @Test
+    public void updateDocuments_emptyToCheck() {
+        checkDocument(0);
+
+        Document document = store.getDocument(ids[0]);
+
+        assertDocument(document, ids[0], null, 0);
+    }
+
+    @ParameterizedTest
+    @MethodSource("updateDocuments_oneArgument")
+    public void updateDocuments_valueToCheck(String from) {
+        updateDocument(from, 0);
+        checkDocument(1);
+
+        Document document = store.getDocument(ids[0]);
+
+        assertDocument(document, ids[0], from, 1);
+    }
+
+    @ParameterizedTest
+    @MethodSource("updateDocuments_oneArgument")
+    public void updateDocuments_checkToValue(String to) {
+        checkDocument(0);
+        updateDocument(to, 0);
+
+        Document document = store.getDocument(ids[0]);
+
+        assertDocument(document, ids[0], to, 1);
+    }
+
+    @Test
+    public void updateDocuments_checkToCheck() {
+        checkDocument(0);
+        checkDocument(0);
+
+        Document document = store.getDocument(ids[0]);
+
+        assertDocument(document, ids[0], null, 0);
+    }
+
+    private static Stream<Arguments> updateDocuments_twoArguments() {
+        return Stream.of(
+            Arguments.of("{\"abc\":\"def\"}", "{\"ghi\":\"jkl\"}"),
+            Arguments.of(null, "{\"ghi\":\"jkl\"}"),
+            Arguments.of("{\"abc\":\"def\"}", null),
+            Arguments.of(null, null));
+    }
+
+    private static Stream<String> updateDocuments_oneArgument() {
+        return Stream.of(
+            "{\"abc\":\"def\"}",
+            null);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    public void updateDocuments_conflictDocumentDoesNotExist(boolean checkOnly) {
+        UpdateConflictException exception = assertThrows(
+            UpdateConflictException.class,
+            checkOnly
+                ? () -> checkDocument(10)
+                : () -> updateDocument("{\"abc\":\"def\"}", 10));
+
+        Document document = store.getDocument(ids[0]);
+
+        assertDocument(document, ids[0], null, 0);
+        assertEquals(ids[0], exception.getId());
+        assertEquals(10, exception.getVersion());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    public void updateDocuments_conflictWrongVersion(boolean checkOnly) {
+        updateDocument("{\"abc\":\"def\"}", 0);
+
+        UpdateConflictException exception = assertThrows(
+            UpdateConflictException.class,
+            checkOnly
+                ? () -> checkDocument(10)
+                : () -> updateDocument("{\"abc\":\"def\"}", 10));
+
+        Document document = store.getDocument(ids[0]);
+
+        assertDocument(document, ids[0], "{\"abc\":\"def\"}", 1);
+        assertEquals(ids[0], exception.getId());
+        assertEquals(10, exception.getVersion());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    public void updateDocuments_conflictDocumentAlreadyExists(boolean checkOnly) {
+        updateDocument("{\"abc\":\"def\"}", 0);
+
+        UpdateConflictException exception = assertThrows(
+            UpdateConflictException.class,
+            checkOnly
+                ? () -> checkDocument(0)
+                : () -> updateDocument("{\"abc\":\"def\"}", 0));
+
+        Document document = store.getDocument(ids[0]);
+
+        assertDocument(document, ids[0], "{\"abc\":\"def\"}", 1);
+        assertEquals(ids[0], exception.getId());
+        assertEquals(0, exception.getVersion());
+    }
+
+    @Test
+    public void updateDocuments_multipleDocumentsSuccess() {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+        updateDocument(ids[1], "{\"ghi\":\"jkl\"}", 0);
+
+        store.updateDocuments(
+            List.of(
+                new Document(ids[0], "{\"v\":\"1\"}", 1),
+                new Document(ids[2], "{\"v\":\"2\"}", 0)
+            ),
+            List.of(
+                new Document(ids[1], "{\"v\":\"3\"}", 1),
+                new Document(ids[3], "{\"v\":\"4\"}", 0)
+            )
+        );
+
+        Document document1 = store.getDocument(ids[0]);
+        Document document2 = store.getDocument(ids[1]);
+        Document document3 = store.getDocument(ids[2]);
+        Document document4 = store.getDocument(ids[3]);
+
+        assertDocument(document1, ids[0], "{\"v\":\"1\"}", 2);
+        assertDocument(document2, ids[1], "{\"ghi\":\"jkl\"}", 1);
+        assertDocument(document3, ids[2], "{\"v\":\"2\"}", 1);
+        assertDocument(document4, ids[3], null, 0);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    public void updateDocuments_multipleDocumentsConflict(boolean checkOnly) {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+
+        UpdateConflictException exception = assertThrows(
+            UpdateConflictException.class,
+            () -> {
+                if (checkOnly) {
+                    store.updateDocuments(
+                        List.of(new Document(ids[0], "{\"ghi\":\"jkl\"}", 1)),
+                        List.of(new Document(ids[1], "{\"mno\":\"pqr\"}", 10))
+                    );
+                } else {
+                    store.updateDocuments(
+                        new Document(ids[0], "{\"ghi\":\"jkl\"}", 1),
+                        new Document(ids[1], "{\"mno\":\"pqr\"}", 10));
+                }
+            }
+        );
+
+        Document document1 = store.getDocument(ids[0]);
+        Document document2 = store.getDocument(ids[1]);
+
+        assertDocument(document1, ids[0], "{\"abc\":\"def\"}", 1);
+        assertDocument(document2, ids[1], null, 0);
+        assertEquals(ids[1], exception.getId());
+        assertEquals(10, exception.getVersion());
+    }
+
+    //endregion
+
+    //region GetDocuments
+
+    @Test
+    public void getDocuments_singleDocument() {
+        updateDocument("{\"abc\":\"def\"}", 0);
+
+        List<Document> documents = store.getDocuments(List.of(ids[0]));
+
+        assertEquals(1, documents.size());
+        assertDocument(documents.get(0), ids[0], "{\"abc\":\"def\"}", 1);
+    }
+
+    @Test
+    public void getDocuments_multipleDocuments() {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+        updateDocument(ids[1], "{\"ghi\":\"jkl\"}", 0);
+
+        List<Document> documents = store.getDocuments(List.of(ids[0], ids[2], ids[0], ids[1]));
+
+        assertEquals(4, documents.size());
+        assertDocument(documents.get(0), ids[0], "{\"abc\":\"def\"}", 1);
+        assertDocument(documents.get(1), ids[2], null, 0);
+        assertDocument(documents.get(2), ids[0], "{\"abc\":\"def\"}", 1);
+        assertDocument(documents.get(3), ids[1], "{\"ghi\":\"jkl\"}", 1);
+    }
+
+    @Test
+    public void getDocuments_noDocument() {
+        List<Document> documents = store.getDocuments(List.of());
+
+        assertEquals(0, documents.size());
+    }
+
+    //endregion
+
+    //region getDocumentVersions
+
+    @Test
+    public void getDocumentVersions_multipleDocuments() {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+        updateDocument(ids[1], "{\"ghi\":\"jkl\"}", 0);
+        updateDocument(ids[1], null, 1);
+
+        Map<UUID, Long> versions = store.getDocumentVersions(List.of(ids[0], ids[1], ids[2]));
+
+        assertEquals(Map.of(ids[0], 1L, ids[1], 2L, ids[2], 0L), versions);
+    }
+
+    //endregion
+
+    //region createDocuments
+
+    @Test
+    public void createDocuments_newAndExisting() {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+
+        Set<UUID> result = store.createDocuments(List.of(
+            new Document(ids[0], "{\"ghi\":\"jkl\"}", 0),
+            new Document(ids[1], "{\"mno\":\"pqr\"}", 5)));
+
+        assertEquals(Set.of(ids[1]), result);
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"abc\":\"def\"}", 1);
+        assertDocument(store.getDocument(ids[1]), ids[1], "{\"mno\":\"pqr\"}", 1);
+    }
+
+    @Test
+    public void createDocuments_deletedDocument() {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+        updateDocument(ids[0], null, 1);
+
+        boolean result = store.createDocument(new Document(ids[0], "{\"ghi\":\"jkl\"}", 0));
+
+        assertTrue(result);
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"ghi\":\"jkl\"}", 3);
+    }
+
+    @Test
+    public void createDocuments_duplicateIds() {
+        Set<UUID> result = store.createDocuments(List.of(
+            new Document(ids[0], "{\"abc\":\"def\"}", 0),
+            new Document(ids[0], "{\"ghi\":\"jkl\"}", 0)));
+
+        assertEquals(Set.of(ids[0]), result);
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"abc\":\"def\"}", 1);
+    }
+
+    @Test
+    public void createDocuments_nullBody() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> store.createDocument(new Document(ids[0], null, 0)));
+    }
+
+    @Test
+    public void createDocuments_empty() {
+        assertEquals(Set.of(), store.createDocuments(List.of()));
+    }
+
+    //endregion
+
+    //region overwriteDocuments
+
+    @Test
+    public void overwriteDocuments_newAndExisting() {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+        updateDocument(ids[0], "{\"ghi\":\"jkl\"}", 1);
+
+        store.overwriteDocuments(
+            new Document(ids[0], "{\"mno\":\"pqr\"}", 0),
+            new Document(ids[1], "{\"stu\":\"vwx\"}", 7));
+
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"mno\":\"pqr\"}", 3);
+        assertDocument(store.getDocument(ids[1]), ids[1], "{\"stu\":\"vwx\"}", 1);
+    }
+
+    @Test
+    public void overwriteDocuments_delete() {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+
+        store.overwriteDocuments(new Document(ids[0], null, 0));
+
+        assertDocument(store.getDocument(ids[0]), ids[0], null, 2);
+    }
+
+    @Test
+    public void overwriteDocuments_duplicateIds() {
+        store.overwriteDocuments(
+            new Document(ids[0], "{\"abc\":\"def\"}", 0),
+            new Document(ids[0], "{\"ghi\":\"jkl\"}", 0));
+
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"ghi\":\"jkl\"}", 1);
+    }
+
+    //endregion
+
+    //region Helper Methods
+
+    protected void updateDocument(String body, long version) {
+        updateDocument(ids[0], body, version);
+    }
+
+    protected void updateDocument(UUID id, String body, long version) {
+        store.updateDocuments(new Document(id, body, version));
+    }
+
+    protected void checkDocument(long version) {
+        store.updateDocuments(
+            List.of(),
+            List.of(new Document(ids[0], "{\"ignored\":\"ignored\"}", version)));
+    }
+
+    protected static void assertDocument(Document document, UUID id, String body, long version) {
+        assertEquals(id, document.getId());
+
+        if (body == null) {
+            assertNull(document.getBody());
+        } else {
+            assertNotNull(document.getBody());
+
+            Gson gson = new Gson();
+
+            // Normalize and compare JSON
+            String expectedJson = gson.toJson(gson.fromJson(body, Object.class));
+            String actualJson = gson.toJson(gson.fromJson(document.getBody(), Object.class));
+            assertEquals(expectedJson, actualJson);
+        }
+
+        assertEquals(version, document.getVersion());
+    }
+
+    //endregion
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Cleanup;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DocumentSweeperTests {
+
+    private static final int type = 18;
+    private static final int otherType = 19;
+    private static final String body = "{\"abc\": \"def\"}";
+
+    private Connection connection;
+    private SqlDocumentStore store;
+    private DocumentSweeper sweeper;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        this.connection = createConnection();
+        this.store = new SqlDocumentStore(this.connection);
+        this.sweeper = new DocumentSweeper(this.connection);
+        this.sweeper.setBatchDelay(Duration.ZERO);
+
+        @Cleanup PreparedStatement statement =
+            this.connection.prepareStatement("TRUNCATE TABLE document, document_expiry_policy;");
+        statement.executeUpdate();
+    }
+
+    //region setDocumentExpiry
+
+    @Test
+    public void setDocumentExpiry_expired() {
+        this.store.updateDocuments(new Document(id(type, 1), body, 0), new Document(id(type, 2), body, 0));
+
+        Set<UUID> result = this.store.setDocumentExpiry(List.of(id(type, 1), id(type, 3)), past());
+
+        assertEquals(Set.of(id(type, 1)), result);
+        assertDocument(this.store.getDocument(id(type, 1)), null, 2);
+        assertDocument(this.store.getDocument(id(type, 2)), body, 1);
+    }
+
+    @Test
+    public void setDocumentExpiry_notExpired() {
+        this.store.updateDocuments(new Document(id(type, 1), body, 0));
+
+        this.store.setDocumentExpiry(List.of(id(type, 1)), future());
+
+        assertDocument(this.store.getDocument(id(type, 1)), body, 1);
+        assertEquals(0, this.sweeper.sweep());
+    }
+
+    @Test
+    public void setDocumentExpiry_cleared() {
+        this.store.updateDocuments(new Document(id(type, 1), body, 0));
+        this.store.setDocumentExpiry(List.of(id(type, 1)), future());
+
+        this.store.setDocumentExpiry(List.of(id(type, 1)), null);
+
+        assertNull(getExpiry(id(type, 1)));
+    }
+
+    @Test
+    public void setDocumentExpiry_alreadyExpired() {
+        this.store.updateDocuments(new Document(id(type, 1), body, 0));
+        this.store.setDocumentExpiry(List.of(id(type, 1)), past());
+
+        Set<UUID> result = this.store.setDocumentExpiry(List.of(id(type, 1)), future());
+
+        assertEquals(Set.of(), result);
+        assertDocument(this.store.getDocument(id(type, 1)), null, 2);
+    }
+
+    @Test
+    public void setDocumentExpiry_replacedOnWrite() {
+        this.sweeper.setTimeToLive(type, Duration.ofHours(1));
+        this.store.updateDocuments(new Document(id(type, 1), body, 0), new Document(id(otherType, 1), body, 0));
+        this.store.setDocumentExpiry(List.of(id(type, 1), id(otherType, 1)), Instant.now().plus(Duration.ofDays(1)));
+        Instant start = Instant.now();
+
+        this.store.updateDocuments(new Document(id(type, 1), body, 1), new Document(id(otherType, 1), body, 1));
+
+        // The time to live replaces the explicit expiry, which is cleared where no time to live applies
+        assertTrue(getExpiry(id(type, 1)).toInstant().isBefore(start.plus(Duration.ofMinutes(61))));
+        assertNull(getExpiry(id(otherType, 1)));
+    }
+
+    @Test
+    public void setDocumentExpiry_empty() {
+        assertEquals(Set.of(), this.store.setDocumentExpiry(List.of(), future()));
+    }
+
+    //endregion
+
+    //region Expired documents
+
+    @Test
+    public void updateDocuments_expiredDocument() {
+        this.store.updateDocuments(new Document(id(type, 1), body, 0));
+        this.store.setDocumentExpiry(List.of(id(type, 1)), past());
+
+        this.store.updateDocuments(new Document(id(type, 1), "{\"ghi\": \"jkl\"}", 2));
+
+        assertDocument(this.store.getDocument(id(type, 1)), "{\"ghi\": \"jkl\"}", 3);
+        assertNull(getExpiry(id(type, 1)));
+    }
+
+    @Test
+    public void updateDocuments_expiredDocumentStaleVersion() {
+        this.store.updateDocuments(new Document(id(type, 1), body, 0));
+        this.store.setDocumentExpiry(List.of(id(type, 1)), past());
+
+        assertThrows(
+            UpdateConflictException.class,
+            () -> this.store.updateDocuments(new Document(id(type, 1), body, 1)));
+    }
+
+    @Test
+    public void updateDocuments_expiredDocumentSkipUnchanged() {
+        this.store.setSkipUnchangedDocuments(true);
+        this.store.updateDocuments(new Document(id(type, 1), body, 0));
+        this.store.setDocumentExpiry(List.of(id(type, 1)), past());
+
+        this.store.updateDocuments(new Document(id(type, 1), body, 2));
+
+        assertDocument(this.store.getDocument(id(type, 1)), body, 3);
+    }
+
+    @Test
+    public void createDocuments_expiredDocument() {
+        this.store.updateDocuments(new Document(id(type, 1), body, 0));
+        this.store.setDocumentExpiry(List.of(id(type, 1)), past());
+
+        boolean result = this.store.createDocument(new Document(id(type, 1), "{\"ghi\": \"jkl\"}", 0));
+
+        assertTrue(result);
+        assertDocument(this.store.getDocument(id(type, 1)), "{\"ghi\": \"jkl\"}", 3);
+    }
+
+    @Test
+    public void getDocuments_expiredDocumentCached() {
+        CachingDocumentStore cachingStore =
+            new CachingDocumentStore(this.store, new OffHeapDocumentCache(100, 65536, 1));
+        cachingStore.updateDocuments(new Document(id(type, 1), body, 0));
+        assertDocument(cachingStore.getDocument(id(type, 1)), body, 1);
+
+        this.store.setDocumentExpiry(List.of(id(type, 1)), past());
+
+        assertDocument(cachingStore.getDocument(id(type, 1)), null, 2);
+    }
+
+    @Test
+    public void applyOperations_expiredDocument() {
+        this.store.updateDocuments(new Document(id(type, 1), "{\"count\": 5}", 0));
+        this.store.setDocumentExpiry(List.of(id(type, 1)), past());
+
+        this.store.applyOperations(List.of(DocumentOperation.increment(id(type, 1), "count", 1)));
+
+        assertDocument(this.store.getDocument(id(type, 1)), "{\"count\": 1}", 3);
+    }
+
+    //endregion
+
+    //region setTimeToLive
+
+    @Test
+    public void setTimeToLive_appliedOnWrite() {
+        this.sweeper.setTimeToLive(type, Duration.ofHours(1));
+        Instant start = Instant.now();
+
+        this.store.updateDocuments(new Document(id(type, 1), body, 0));
+        this.store.createDocuments(List.of(new Document(id(type, 2), body, 0)));
+        this.store.updateDocuments(new Document(id(otherType, 1), body, 0));
+
+        for (UUID id : List.of(id(type, 1), id(type, 2))) {
+            OffsetDateTime expiry = getExpiry(id);
+            assertNotNull(expiry);
+            assertTrue(expiry.toInstant().isAfter(start.plus(Duration.ofMinutes(59))));
+            assertTrue(expiry.toInstant().isBefore(start.plus(Duration.ofMinutes(61))));
+        }
+
+        assertNull(getExpiry(id(otherType, 1)));
+    }
+
+    @Test
+    public void setTimeToLive_deletedDocument() {
+        this.sweeper.setTimeToLive(type, Duration.ofHours(1));
+        this.store.updateDocuments(new Document(id(type, 1), body, 0));
+
+        this.store.updateDocuments(new Document(id(type, 1), null, 1));
+
+        assertNull(getExpiry(id(type, 1)));
+    }
+
+    @Test
+    public void setTimeToLive_removed() {
+        this.sweeper.setTimeToLive(type, Duration.ofHours(1));
+        this.sweeper.setTimeToLive(type, null);
+
+        this.store.updateDocuments(new Document(id(type, 1), body, 0));
+
+        assertNull(getExpiry(id(type, 1)));
+    }
+
+    @Test
+    public void setTimeToLive_invalid() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> this.sweeper.setTimeToLive(type, Duration.ZERO));
+    }
+
+    //endregion
+
+    //region sweep
+
+    @Test
+    public void sweep_deletesExpiredDocuments() {
+        this.store.updateDocuments(
+            new Document(id(type, 1), body, 0),
+            new Document(id(type, 2), body, 0),
+            new Document(id(type, 3), body, 0));
+        this.store.setDocumentExpiry(List.of(id(type, 1), id(type, 2)), past());
+        this.sweeper.setBatchSize(1);
+
+        long result = this.sweeper.sweep();
+
+        assertEquals(2, result);
+        assertDocument(this.store.getDocument(id(type, 1)), null, 2);
+        assertDocument(this.store.getDocument(id(type, 2)), null, 2);
+        assertDocument(this.store.getDocument(id(type, 3)), body, 1);
+        assertEquals(0, this.sweeper.sweep());
+    }
+
+    @Test
+    public void sweep_conflictWithStaleVersion() {
+        this.store.updateDocuments(new Document(id(type, 1), body, 0));
+        this.store.setDocumentExpiry(List.of(id(type, 1)), past());
+        this.sweeper.sweep();
+
+        assertThrows(
+            UpdateConflictException.class,
+            () -> this.store.updateDocuments(new Document(id(type, 1), body, 1)));
+    }
+
+    @Test
+    public void sweepBatch_lockedDocumentSkipped() throws SQLException {
+        this.store.updateDocuments(new Document(id(type, 1), body, 0), new Document(id(type, 2), body, 0));
+        this.store.setDocumentExpiry(List.of(id(type, 1), id(type, 2)), past());
+
+        Connection otherConnection = createConnection();
+        otherConnection.setAutoCommit(false);
+
+        try {
+            @Cleanup PreparedStatement statement = otherConnection.prepareStatement(
+                "SELECT id FROM document WHERE id = ? FOR UPDATE");
+            statement.setObject(1, id(type, 1));
+            statement.executeQuery().close();
+
+            assertEquals(1, this.sweeper.sweepBatch());
+
+        } finally {
+            otherConnection.rollback();
+            otherConnection.close();
+        }
+
+        assertEquals(1, this.sweeper.sweepBatch());
+    }
+
+    @Test
+    public void sweepBatch_autoCommitRequired() throws SQLException {
+        this.connection.setAutoCommit(false);
+
+        try {
+            assertThrows(
+                IllegalStateException.class,
+                () -> this.sweeper.sweepBatch());
+        } finally {
+            this.connection.rollback();
+            this.connection.setAutoCommit(true);
+        }
+    }
+
+    //endregion
+
+    //region Helper Methods
+
+    private OffsetDateTime getExpiry(UUID id) {
+        try {
+            @Cleanup PreparedStatement statement =
+                this.connection.prepareStatement("SELECT expires_at FROM document WHERE id = ?");
+            statement.setObject(1, id);
+
+            @Cleanup ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getObject(1, OffsetDateTime.class);
+
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    private static Instant past() {
+        return Instant.now().minus(Duration.ofMinutes(1));
+    }
+
+    private static Instant future() {
+        return Instant.now().plus(Duration.ofHours(1));
+    }
+
+    private static UUID id(int documentType, long value) {
+        return new UUID((long) documentType << 32, value);
+    }
+
+    private static void assertDocument(Document document, String body, long version) {
+        assertEquals(body, document.getBody());
+        assertEquals(version, document.getVersion());
+    }
+
+    private static Connection createConnection() throws SQLException {
+        String connectionString = System.getProperty("db_connection_url");
+        Properties props = new Properties();
+        props.setProperty("password", System.getProperty("db_connection_password"));
+
+        return DriverManager.getConnection(connectionString, props);
+    }
+
+    //endregion
+}
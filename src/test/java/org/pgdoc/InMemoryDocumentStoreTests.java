@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class InMemoryDocumentStoreTests extends DocumentStoreTests<InMemoryDocumentStore> {
+
+    @Override
+    protected InMemoryDocumentStore createStore() {
+        return new InMemoryDocumentStore(4);
+    }
+
+    //region Constructor
+
+    @Test
+    public void new_invalidStripeCount() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> new InMemoryDocumentStore(0));
+    }
+
+    //endregion
+
+    //region Concurrency
+
+    @Test
+    public void updateDocuments_concurrentIncrements() throws Exception {
+        int threads = 8;
+        int increments = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int thread = 0; thread < threads; thread++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < increments; i++) {
+                    while (true) {
+                        List<Document> documents = store.getDocuments(List.of(ids[0], ids[1]));
+                        try {
+                            store.updateDocuments(
+                                new Document(ids[0], "{}", documents.get(0).getVersion()),
+                                new Document(ids[1], "{}", documents.get(1).getVersion()));
+                            break;
+                        } catch (UpdateConflictException exception) {
+                            // Retry with the new versions
+                        }
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        executor.shutdown();
+
+        assertEquals(threads * increments, store.getDocument(ids[0]).getVersion());
+        assertEquals(threads * increments, store.getDocument(ids[1]).getVersion());
+    }
+
+    @Test
+    public void getDocuments_consistentBatches() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AtomicBoolean running = new AtomicBoolean(true);
+
+        // Documents are always updated together, so they must always be observed at the same version
+        Future<?> writer = executor.submit(() -> {
+            for (long version = 0; version < 20000; version++) {
+                store.updateDocuments(
+                    new Document(ids[0], "{}", version),
+                    new Document(ids[5], "{}", version));
+            }
+
+            running.set(false);
+        });
+
+        Future<Integer> reader = executor.submit(() -> {
+            int inconsistent = 0;
+            while (running.get()) {
+                List<Document> documents = store.getDocuments(List.of(ids[0], ids[5]));
+                if (documents.get(0).getVersion() != documents.get(1).getVersion()) {
+                    inconsistent++;
+                }
+            }
+
+            return inconsistent;
+        });
+
+        writer.get();
+        assertEquals(0, reader.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void createDocuments_persistentConflict() {
+        AtomicInteger attempts = new AtomicInteger();
+        DocumentStore conflictingStore = new InMemoryDocumentStore() {
+            @Override
+            public void updateDocuments(Iterable<Document> updatedDocuments, Iterable<Document> checkedDocuments) {
+                attempts.incrementAndGet();
+                throw new UpdateConflictException(ids[0], 0);
+            }
+        };
+
+        assertThrows(
+            UpdateConflictException.class,
+            () -> conflictingStore.createDocument(new Document(ids[0], "{\"abc\":\"def\"}", 0)));
+        assertEquals(10, attempts.get());
+
+        attempts.set(0);
+        assertThrows(
+            UpdateConflictException.class,
+            () -> conflictingStore.overwriteDocuments(new Document(ids[0], "{\"abc\":\"def\"}", 0)));
+        assertEquals(10, attempts.get());
+    }
+
+    //endregion
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class OffHeapDocumentCacheTests {
+
+    private static final String largeBody = "{\"values\":[" + "\"abcdefghij\",".repeat(500) + "\"é€😀\"]}";
+
+    @Test
+    public void new_invalidArguments() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> new OffHeapDocumentCache(0, 1024, 1));
+    }
+
+    @Test
+    public void get_roundTrip() {
+        OffHeapDocumentCache cache = new OffHeapDocumentCache(100, 65536, 2);
+        UUID id1 = UUID.randomUUID();
+        UUID id2 = UUID.randomUUID();
+        UUID id3 = UUID.randomUUID();
+
+        cache.put(new Document(id1, largeBody, 3));
+        cache.put(new Document(id2, "{\"a\":\"é\"}", 1));
+        cache.put(new Document(id3, null, 2));
+
+        assertDocument(cache.get(id1, 3), id1, largeBody, 3);
+        assertDocument(cache.get(id2, 1), id2, "{\"a\":\"é\"}", 1);
+        assertDocument(cache.get(id3, 2), id3, null, 2);
+        assertEquals(3, cache.size());
+        assertEquals(3, cache.getHitCount());
+    }
+
+    @Test
+    public void get_memoryMapped(@TempDir Path directory) {
+        OffHeapDocumentCache cache = new OffHeapDocumentCache(100, 65536, 2, directory);
+        UUID id = UUID.randomUUID();
+
+        cache.put(new Document(id, largeBody, 1));
+
+        assertDocument(cache.get(id, 1), id, largeBody, 1);
+    }
+
+    @Test
+    public void get_versionMismatch() {
+        OffHeapDocumentCache cache = new OffHeapDocumentCache(100, 65536, 2);
+        UUID id = UUID.randomUUID();
+
+        cache.put(new Document(id, "{}", 2));
+
+        assertNull(cache.get(id, 3));
+        assertNull(cache.get(UUID.randomUUID(), 2));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void put_olderVersion() {
+        OffHeapDocumentCache cache = new OffHeapDocumentCache(100, 65536, 2);
+        UUID id = UUID.randomUUID();
+
+        cache.put(new Document(id, "{\"v\":2}", 2));
+        cache.put(new Document(id, "{\"v\":1}", 1));
+        cache.put(new Document(id, "{\"v\":3}", 3));
+
+        assertNull(cache.get(id, 2));
+        assertDocument(cache.get(id, 3), id, "{\"v\":3}", 3);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void put_segmentEviction() {
+        OffHeapDocumentCache cache = new OffHeapDocumentCache(1000, 110, 3);
+        UUID[] ids = new UUID[12];
+
+        // Each segment holds two documents
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+            cache.put(new Document(ids[i], String.format("{\"value\":\"%040d\"}", i), 1));
+        }
+
+        assertEquals(6, cache.size());
+        for (int i = 0; i < ids.length; i++) {
+            if (i < 6) {
+                assertNull(cache.get(ids[i], 1));
+            } else {
+                assertNotNull(cache.get(ids[i], 1));
+            }
+        }
+
+        assertEquals(6, cache.getEvictionCount());
+    }
+
+    @Test
+    public void put_maxEntries() {
+        OffHeapDocumentCache cache = new OffHeapDocumentCache(10, 65536, 4);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new Document(UUID.randomUUID(), "{}", 1));
+            assertEquals(true, cache.size() <= 10);
+        }
+    }
+
+    @Test
+    public void put_tooLarge() {
+        OffHeapDocumentCache cache = new OffHeapDocumentCache(100, 64, 2);
+        UUID id = UUID.randomUUID();
+
+        cache.put(new Document(id, "{}", 1));
+        cache.put(new Document(id, "{\"value\":\"" + UUID.randomUUID() + UUID.randomUUID() + "\"}", 2));
+
+        assertNull(cache.get(id, 1));
+        assertNull(cache.get(id, 2));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void invalidate_collisions() {
+        OffHeapDocumentCache cache = new OffHeapDocumentCache(5000, 1 << 20, 2);
+        UUID[] ids = new UUID[5000];
+
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+            cache.put(new Document(ids[i], "{}", i + 1));
+        }
+
+        for (int i = 0; i < ids.length; i += 2) {
+            cache.invalidate(ids[i]);
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            if (i % 2 == 0) {
+                assertNull(cache.get(ids[i], i + 1));
+            } else {
+                assertDocument(cache.get(ids[i], i + 1), ids[i], "{}", i + 1);
+            }
+        }
+
+        assertEquals(2500, cache.size());
+    }
+
+    @Test
+    public void put_randomEvictions() {
+        OffHeapDocumentCache cache = new OffHeapDocumentCache(300, 200, 4);
+        Random random = new Random(42);
+        UUID[] ids = new UUID[400];
+        long[] versions = new long[ids.length];
+
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+        }
+
+        for (int operation = 0; operation < 20000; operation++) {
+            int i = random.nextInt(ids.length);
+
+            if (random.nextInt(10) == 0) {
+                cache.invalidate(ids[i]);
+            } else {
+                versions[i]++;
+                cache.put(new Document(ids[i], randomBody(i), versions[i]));
+                assertNotNull(cache.get(ids[i], versions[i]));
+            }
+        }
+
+        // Every entry left in the index must be readable at its latest version
+        int cached = 0;
+        for (int i = 0; i < ids.length; i++) {
+            Document document = cache.get(ids[i], versions[i]);
+            if (document != null) {
+                assertDocument(document, ids[i], randomBody(i), versions[i]);
+                cached++;
+            }
+        }
+
+        assertEquals(cached, cache.size());
+    }
+
+    private static String randomBody(int i) {
+        return String.format("{\"value\":\"%0" + (1 + i % 40) + "d\"}", i);
+    }
+
+    private static void assertDocument(Document document, UUID id, String body, long version) {
+        assertNotNull(document);
+        assertEquals(id, document.getId());
+        assertEquals(body, document.getBody());
+        assertEquals(version, document.getVersion());
+    }
+}
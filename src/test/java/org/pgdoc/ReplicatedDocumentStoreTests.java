@@ -0,0 +1,332 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReplicatedDocumentStoreTests {
+
+    private static final UUID id1 = new UUID(1, 255);
+    private static final UUID id2 = new UUID(2, 255);
+
+    private StubDocumentStore primary;
+    private StubDocumentStore replica1;
+    private StubDocumentStore replica2;
+    private ReplicatedDocumentStore store;
+
+    @BeforeEach
+    void setup() {
+        this.primary = new StubDocumentStore();
+        this.replica1 = new StubDocumentStore();
+        this.replica2 = new StubDocumentStore();
+        this.store = new ReplicatedDocumentStore(this.primary, List.of(this.replica1, this.replica2));
+    }
+
+    @Test
+    public void new_nullArgument() {
+        assertThrows(
+            NullPointerException.class,
+            () -> new ReplicatedDocumentStore(null, List.of()));
+        assertThrows(
+            NullPointerException.class,
+            () -> new ReplicatedDocumentStore(this.primary, null));
+    }
+
+    @Test
+    public void updateDocuments_primary() {
+        this.store.updateDocuments(new Document(id1, "{\"abc\":\"def\"}", 0));
+
+        assertEquals(1, this.primary.getDocument(id1).getVersion());
+        assertEquals(0, this.replica1.getDocument(id1).getVersion());
+    }
+
+    @Test
+    public void updateDocumentsWithToken_versions() {
+        VersionToken token = this.store.updateDocumentsWithToken(
+            List.of(new Document(id1, "{\"abc\":\"def\"}", 0)),
+            List.of(new Document(id2, null, 3)));
+
+        assertEquals(1, token.getMinimumVersion(id1));
+        assertEquals(3, token.getMinimumVersion(id2));
+        assertEquals(0, token.getMinimumVersion(new UUID(3, 255)));
+    }
+
+    @Test
+    public void updateDocumentsWithToken_singlePassIterables() {
+        Stream<Document> updated = Stream.of(new Document(id1, "{\"abc\":\"def\"}", 0));
+        Stream<Document> checked = Stream.of(new Document(id2, null, 0));
+
+        VersionToken token = this.store.updateDocumentsWithToken(updated::iterator, checked::iterator);
+
+        assertEquals(1, this.primary.getDocument(id1).getVersion());
+        assertEquals(1, token.getMinimumVersion(id1));
+        assertEquals(0, token.getMinimumVersion(id2));
+    }
+
+    @Test
+    public void getDocuments_roundRobin() {
+        this.store.getDocuments(List.of(id1));
+        this.store.getDocuments(List.of(id1));
+        this.store.getDocuments(List.of(id1));
+
+        assertEquals(0, this.primary.reads);
+        assertEquals(2, this.replica1.reads);
+        assertEquals(1, this.replica2.reads);
+    }
+
+    @Test
+    public void getDocuments_staleReplica() {
+        VersionToken token = this.store.updateDocumentsWithToken(
+            List.of(new Document(id1, "{\"abc\":\"def\"}", 0)),
+            List.of());
+        this.replica1.put(new Document(id2, "{\"ghi\":\"jkl\"}", 1));
+
+        List<Document> result = this.store.getDocuments(List.of(id1, id2), token);
+
+        assertEquals(2, result.size());
+        assertEquals(id1, result.get(0).getId());
+        assertEquals("{\"abc\":\"def\"}", result.get(0).getBody());
+        assertEquals(1, result.get(0).getVersion());
+        assertEquals(id2, result.get(1).getId());
+        assertEquals("{\"ghi\":\"jkl\"}", result.get(1).getBody());
+        assertEquals(List.of(id1), this.primary.lastRead);
+    }
+
+    @Test
+    public void getDocuments_recentReplica() {
+        VersionToken token = new VersionToken(Map.of(id1, 1L));
+        this.replica1.put(new Document(id1, "{\"abc\":\"def\"}", 2));
+
+        Document result = this.store.getDocuments(List.of(id1), token).get(0);
+
+        assertEquals(2, result.getVersion());
+        assertEquals(0, this.primary.reads);
+    }
+
+    @Test
+    public void getDocuments_replicaFailure() {
+        this.replica1.failure = new DocumentStoreException("failure", null);
+        this.primary.put(new Document(id1, "{\"abc\":\"def\"}", 1));
+
+        Document result = this.store.getDocuments(List.of(id1)).get(0);
+
+        assertEquals(1, result.getVersion());
+        assertEquals(1, this.primary.reads);
+    }
+
+    @Test
+    public void getDocuments_noReplica() {
+        ReplicatedDocumentStore store = new ReplicatedDocumentStore(this.primary, List.of());
+
+        Document result = store.getDocument(id1);
+
+        assertNull(result.getBody());
+        assertEquals(1, this.primary.reads);
+    }
+
+    @Test
+    public void getDocuments_hedgeSlowReplica() throws InterruptedException {
+        HedgingPolicy policy = createHedgingPolicy();
+        this.store.setHedgingPolicy(policy);
+        this.replica1.delayMillis = 2000;
+        this.replica2.put(new Document(id1, "{\"abc\":\"def\"}", 1));
+
+        long start = System.nanoTime();
+        Document result = this.store.getDocument(id1);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(1, result.getVersion());
+        assertTrue(elapsed < 1000);
+        assertEquals(1, policy.getMetrics().getReadCount());
+        assertEquals(1, policy.getMetrics().getHedgedReadCount());
+        assertEquals(1, policy.getMetrics().getHedgeWinCount());
+        assertEquals(1.0, policy.getMetrics().getHedgeRate());
+
+        // The slow read isn't interrupted, and completes in the background
+        policy.getExecutor().shutdown();
+        policy.getExecutor().awaitTermination(5, TimeUnit.SECONDS);
+        assertEquals(1, this.replica1.reads);
+    }
+
+    @Test
+    public void getDocuments_hedgeSkipsBusyReplica() throws InterruptedException {
+        HedgingPolicy policy = createHedgingPolicy();
+        this.store.setHedgingPolicy(policy);
+        this.replica1.delayMillis = 1000;
+        this.replica2.put(new Document(id1, "{\"abc\":\"def\"}", 1));
+
+        this.store.getDocument(id1);
+        this.store.getDocument(id1);
+        this.store.getDocument(id1);
+
+        // The replica still executing the abandoned read is not used
+        assertEquals(3, this.replica2.reads);
+        assertEquals(1, policy.getMetrics().getHedgedReadCount());
+
+        policy.getExecutor().shutdown();
+        policy.getExecutor().awaitTermination(5, TimeUnit.SECONDS);
+        assertEquals(1, this.replica1.reads);
+    }
+
+    @Test
+    public void getDocuments_noHedgeFastReplica() {
+        HedgingPolicy policy = createHedgingPolicy();
+        this.store.setHedgingPolicy(policy);
+        this.replica1.put(new Document(id1, "{\"abc\":\"def\"}", 1));
+
+        Document result = this.store.getDocument(id1);
+
+        assertEquals(1, result.getVersion());
+        assertEquals(1, policy.getMetrics().getReadCount());
+        assertEquals(0, policy.getMetrics().getHedgedReadCount());
+        assertEquals(0, this.replica2.reads);
+        assertEquals(Duration.ZERO, policy.getMetrics().getLatencySaved());
+    }
+
+    @Test
+    public void getHedgeDelay_percentile() {
+        HedgingPolicy policy = new HedgingPolicy(Executors.newCachedThreadPool(), 0.9, 20, Duration.ofMillis(5));
+
+        for (int i = 1; i <= 19; i++) {
+            policy.recordLatency(Duration.ofMillis(i));
+        }
+
+        assertNull(policy.getHedgeDelay());
+
+        policy.recordLatency(Duration.ofMillis(20));
+        assertEquals(Duration.ofMillis(18), policy.getHedgeDelay());
+
+        for (int i = 0; i < 20; i++) {
+            policy.recordLatency(Duration.ofMillis(1));
+        }
+
+        assertEquals(Duration.ofMillis(5), policy.getHedgeDelay());
+    }
+
+    @Test
+    public void getHedgeDelay_updateInterval() {
+        HedgingPolicy policy = new HedgingPolicy(Executors.newCachedThreadPool(), 0.9, 200, Duration.ofMillis(5));
+
+        for (int i = 0; i < 20; i++) {
+            policy.recordLatency(Duration.ofMillis(10));
+        }
+
+        assertEquals(Duration.ofMillis(10), policy.getHedgeDelay());
+
+        for (int i = 0; i < 19; i++) {
+            policy.recordLatency(Duration.ofMillis(100));
+        }
+
+        assertEquals(Duration.ofMillis(10), policy.getHedgeDelay());
+
+        policy.recordLatency(Duration.ofMillis(100));
+        assertEquals(Duration.ofMillis(100), policy.getHedgeDelay());
+    }
+
+    @Test
+    public void newHedgingPolicy_invalidArguments() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> new HedgingPolicy(Executors.newCachedThreadPool(), 1.5, 100, Duration.ZERO));
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> new HedgingPolicy(Executors.newCachedThreadPool(), 0.9, 10, Duration.ZERO));
+    }
+
+    @Test
+    public void merge_highestVersion() {
+        VersionToken token1 = new VersionToken(Map.of(id1, 3L, id2, 1L));
+        VersionToken token2 = new VersionToken(Map.of(id1, 2L, id2, 4L));
+
+        VersionToken result = token1.merge(token2);
+
+        assertEquals(3, result.getMinimumVersion(id1));
+        assertEquals(4, result.getMinimumVersion(id2));
+    }
+
+    private static HedgingPolicy createHedgingPolicy() {
+        HedgingPolicy policy = new HedgingPolicy(Executors.newCachedThreadPool(), 0.9, 100, Duration.ofMillis(50));
+
+        for (int i = 0; i < 100; i++) {
+            policy.recordLatency(Duration.ofMillis(1));
+        }
+
+        return policy;
+    }
+
+    private static class StubDocumentStore implements DocumentStore {
+
+        private final Map<UUID, Document> documents = new HashMap<>();
+        private int reads = 0;
+        private List<UUID> lastRead;
+        private RuntimeException failure;
+        private long delayMillis = 0;
+
+        public void put(Document document) {
+            this.documents.put(document.getId(), document);
+        }
+
+        @Override
+        public void updateDocuments(Iterable<Document> updatedDocuments, Iterable<Document> checkedDocuments) {
+            for (Document document : updatedDocuments) {
+                put(new Document(document.getId(), document.getBody(), document.getVersion() + 1));
+            }
+        }
+
+        @Override
+        public List<Document> getDocuments(Iterable<UUID> ids) {
+            if (this.failure != null) {
+                throw this.failure;
+            }
+
+            if (this.delayMillis > 0) {
+                try {
+                    Thread.sleep(this.delayMillis);
+                } catch (InterruptedException exception) {
+                    throw new DocumentStoreException(exception.getMessage(), exception);
+                }
+            }
+
+            this.reads++;
+            this.lastRead = new ArrayList<>();
+            List<Document> result = new ArrayList<>();
+
+            for (UUID id : ids) {
+                this.lastRead.add(id);
+                result.add(this.documents.getOrDefault(id, new Document(id, null, 0)));
+            }
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import lombok.Cleanup;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Each shard is simulated by a separate schema of the test database, containing its own <code>document</code> table.
+ */
+public class ShardedDocumentStoreTests {
+
+    private static final int shardCount = 3;
+
+    private Connection connection;
+    private List<SqlDocumentStore> shards;
+    private ShardedDocumentStore store;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        this.connection = createConnection();
+        this.shards = new ArrayList<>();
+
+        for (int i = 0; i < shardCount; i++) {
+            execute(this.connection, String.format("CREATE SCHEMA IF NOT EXISTS pgdoc_shard_%d", i));
+            execute(
+                this.connection,
+                String.format("CREATE TABLE IF NOT EXISTS pgdoc_shard_%d.document (LIKE document INCLUDING ALL)", i));
+            execute(this.connection, String.format("TRUNCATE TABLE pgdoc_shard_%d.document", i));
+
+            Connection shardConnection = createConnection();
+            execute(shardConnection, String.format("SET search_path = pgdoc_shard_%d, public", i));
+            this.shards.add(new SqlDocumentStore(shardConnection));
+        }
+
+        this.store = new ShardedDocumentStore(this.shards, new HashShardingPolicy(), Executors.newCachedThreadPool());
+    }
+
+    @Test
+    public void new_nullArgument() {
+        assertThrows(
+            NullPointerException.class,
+            () -> new ShardedDocumentStore(null, new HashShardingPolicy(), Executors.newCachedThreadPool()));
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> new ShardedDocumentStore(List.of(), new HashShardingPolicy(), Executors.newCachedThreadPool()));
+    }
+
+    @Test
+    public void getShard_hashDistribution() {
+        int[] counts = new int[shardCount];
+
+        for (int i = 0; i < 3000; i++) {
+            UUID id = UUID.randomUUID();
+            int shard = this.store.getShard(id);
+            assertEquals(shard, this.store.getShard(new UUID(id.getMostSignificantBits(), id.getLeastSignificantBits())));
+            counts[shard]++;
+        }
+
+        for (int count : counts) {
+            assertTrue(count > 800);
+        }
+    }
+
+    @Test
+    public void updateDocuments_singleShard() throws SQLException {
+        List<UUID> ids = idsInShards(0, 0);
+
+        this.store.updateDocuments(
+            new Document(ids.get(0), "{\"abc\":\"def\"}", 0),
+            new Document(ids.get(1), "{\"ghi\":\"jkl\"}", 0));
+
+        assertEquals(2, countDocuments(0));
+        assertEquals(0, countDocuments(1));
+        assertEquals(1, this.store.getDocument(ids.get(0)).getVersion());
+    }
+
+    @Test
+    public void updateDocuments_crossShard() throws SQLException {
+        assumeTrue(preparedTransactionsEnabled());
+        List<UUID> ids = idsInShards(0, 1, 2);
+
+        this.store.updateDocuments(
+            List.of(new Document(ids.get(0), "{\"abc\":\"def\"}", 0), new Document(ids.get(1), "{\"ghi\":\"jkl\"}", 0)),
+            List.of(new Document(ids.get(2), null, 0)));
+
+        assertEquals(1, countDocuments(0));
+        assertEquals(1, countDocuments(1));
+        assertEquals(0, countDocuments(2));
+        assertEquals(0, countPreparedTransactions());
+        assertTrue(this.shards.get(0).getConnection().getAutoCommit());
+    }
+
+    @Test
+    public void updateDocumentsWithVersions_crossShardSkipUnchanged() throws SQLException {
+        assumeTrue(preparedTransactionsEnabled());
+        List<UUID> ids = idsInShards(0, 1);
+        this.store.updateDocuments(
+            new Document(ids.get(0), "{\"abc\":\"def\"}", 0),
+            new Document(ids.get(1), "{\"abc\":\"def\"}", 0));
+        this.shards.forEach(shard -> shard.setSkipUnchangedDocuments(true));
+
+        Map<UUID, Long> result = this.store.updateDocumentsWithVersions(
+            List.of(
+                new Document(ids.get(0), "{\"abc\":\"def\"}", 1),
+                new Document(ids.get(1), "{\"abc\":\"ghi\"}", 1)),
+            List.of());
+
+        assertEquals(Map.of(ids.get(0), 1L, ids.get(1), 2L), result);
+    }
+
+    @Test
+    public void updateDocuments_crossShardConflict() throws SQLException {
+        assumeTrue(preparedTransactionsEnabled());
+        List<UUID> ids = idsInShards(0, 1, 2);
+        this.store.updateDocuments(new Document(ids.get(2), "{\"abc\":\"def\"}", 0));
+
+        UpdateConflictException exception = assertThrows(
+            UpdateConflictException.class,
+            () -> this.store.updateDocuments(
+                new Document(ids.get(0), "{\"v\":\"1\"}", 0),
+                new Document(ids.get(1), "{\"v\":\"2\"}", 0),
+                new Document(ids.get(2), "{\"v\":\"3\"}", 0)));
+
+        assertEquals(ids.get(2), exception.getId());
+        assertEquals(0, countDocuments(0));
+        assertEquals(0, countDocuments(1));
+        assertEquals("{\"abc\": \"def\"}", this.store.getDocument(ids.get(2)).getBody());
+        assertEquals(0, countPreparedTransactions());
+    }
+
+    @Test
+    public void updateDocuments_crossShardCommitFailure() throws SQLException {
+        assumeTrue(preparedTransactionsEnabled());
+        List<UUID> ids = idsInShards(0, 1, 2);
+
+        // The transactions prepared on the first two shards are rolled back by another session before phase two
+        SqlDocumentStore lastShard = new SqlDocumentStore(this.shards.get(2).getConnection()) {
+            @Override
+            public Map<UUID, Long> updateDocumentsWithVersions(
+                Iterable<Document> updatedDocuments,
+                Iterable<Document> checkedDocuments) {
+
+                Map<UUID, Long> result = super.updateDocumentsWithVersions(updatedDocuments, checkedDocuments);
+                rollbackPreparedTransactions();
+                return result;
+            }
+        };
+
+        ShardedDocumentStore store = new ShardedDocumentStore(
+            List.of(this.shards.get(0), this.shards.get(1), lastShard),
+            new HashShardingPolicy(),
+            Executors.newCachedThreadPool());
+
+        DocumentStoreException exception = assertThrows(
+            DocumentStoreException.class,
+            () -> store.updateDocuments(
+                new Document(ids.get(0), "{\"v\":\"1\"}", 0),
+                new Document(ids.get(1), "{\"v\":\"2\"}", 0),
+                new Document(ids.get(2), "{\"v\":\"3\"}", 0)));
+
+        assertTrue(exception.getMessage().matches(
+            "The prepared transactions pgdoc_[0-9a-f-]+_0, pgdoc_[0-9a-f-]+_1 could not be committed.*"));
+        assertEquals(1, exception.getCause().getSuppressed().length);
+        assertEquals(0, countDocuments(0));
+        assertEquals(0, countDocuments(1));
+        assertEquals(1, countDocuments(2));
+        assertEquals(0, countPreparedTransactions());
+    }
+
+    @Test
+    public void createDocuments_crossShard() throws SQLException {
+        List<UUID> ids = idsInShards(0, 1, 2);
+        this.store.updateDocuments(new Document(ids.get(0), "{\"abc\":\"def\"}", 0));
+
+        Set<UUID> result = this.store.createDocuments(List.of(
+            new Document(ids.get(0), "{\"ghi\":\"jkl\"}", 0),
+            new Document(ids.get(1), "{\"mno\":\"pqr\"}", 0),
+            new Document(ids.get(2), "{\"stu\":\"vwx\"}", 0)));
+
+        assertEquals(Set.of(ids.get(1), ids.get(2)), result);
+        assertEquals(1, countDocuments(0));
+        assertEquals(1, countDocuments(1));
+        assertEquals(1, countDocuments(2));
+        assertEquals("{\"abc\": \"def\"}", this.store.getDocument(ids.get(0)).getBody());
+    }
+
+    @Test
+    public void overwriteDocuments_crossShard() throws SQLException {
+        List<UUID> ids = idsInShards(0, 1, 2);
+        this.store.updateDocuments(new Document(ids.get(0), "{\"abc\":\"def\"}", 0));
+
+        this.store.overwriteDocuments(
+            new Document(ids.get(0), "{\"ghi\":\"jkl\"}", 0),
+            new Document(ids.get(1), "{\"mno\":\"pqr\"}", 0),
+            new Document(ids.get(2), null, 0));
+
+        assertEquals(1, countDocuments(0));
+        assertEquals(1, countDocuments(1));
+        assertEquals(0, countDocuments(2));
+        assertEquals(0, countPreparedTransactions());
+        assertEquals(
+            Map.of(ids.get(0), 2L, ids.get(1), 1L, ids.get(2), 1L),
+            this.store.getDocumentVersions(ids));
+    }
+
+    @Test
+    public void getDocumentVersions_crossShard() {
+        List<UUID> ids = idsInShards(0, 1, 2);
+        this.shards.get(0).updateDocuments(new Document(ids.get(0), "{\"abc\":\"def\"}", 0));
+        this.shards.get(2).updateDocuments(new Document(ids.get(2), "{\"ghi\":\"jkl\"}", 0));
+        this.shards.get(2).updateDocuments(new Document(ids.get(2), "{\"mno\":\"pqr\"}", 1));
+
+        Map<UUID, Long> result = this.store.getDocumentVersions(ids);
+
+        assertEquals(Map.of(ids.get(0), 1L, ids.get(1), 0L, ids.get(2), 2L), result);
+    }
+
+    @Test
+    public void getDocuments_inputOrder() throws SQLException {
+        List<UUID> ids = idsInShards(2, 0, 1, 0, 2);
+        for (int i = 0; i < ids.size(); i++) {
+            this.shards.get(this.store.getShard(ids.get(i)))
+                .updateDocuments(new Document(ids.get(i), String.format("{\"i\":%d}", i), 0));
+        }
+
+        UUID missing = UUID.randomUUID();
+        List<UUID> query = new ArrayList<>(ids);
+        query.add(2, missing);
+
+        List<Document> result = this.store.getDocuments(query);
+
+        assertEquals(query.size(), result.size());
+        for (int i = 0; i < query.size(); i++) {
+            assertEquals(query.get(i), result.get(i).getId());
+        }
+
+        assertEquals("{\"i\": 0}", result.get(0).getBody());
+        assertNull(result.get(2).getBody());
+        assertEquals("{\"i\": 4}", result.get(5).getBody());
+    }
+
+    //region Helper Methods
+
+    private List<UUID> idsInShards(int... shards) {
+        List<UUID> result = new ArrayList<>();
+
+        for (int shard : shards) {
+            UUID id;
+            do {
+                id = UUID.randomUUID();
+            } while (this.store.getShard(id) != shard);
+
+            result.add(id);
+        }
+
+        return result;
+    }
+
+    private void rollbackPreparedTransactions() {
+        try {
+            List<String> transactionIds = new ArrayList<>();
+
+            @Cleanup Statement statement = this.connection.createStatement();
+            @Cleanup ResultSet resultSet =
+                statement.executeQuery("SELECT gid FROM pg_prepared_xacts WHERE gid LIKE 'pgdoc_%'");
+            while (resultSet.next()) {
+                transactionIds.add(resultSet.getString(1));
+            }
+
+            for (String transactionId : transactionIds) {
+                execute(this.connection, String.format("ROLLBACK PREPARED '%s'", transactionId));
+            }
+
+        } catch (SQLException exception) {
+            throw new DocumentStoreException(exception.getMessage(), exception);
+        }
+    }
+
+    private long countDocuments(int shard) throws SQLException {
+        return queryLong(String.format("SELECT count(*) FROM pgdoc_shard_%d.document WHERE body IS NOT NULL", shard));
+    }
+
+    private long countPreparedTransactions() throws SQLException {
+        return queryLong("SELECT count(*) FROM pg_prepared_xacts WHERE gid LIKE 'pgdoc_%'");
+    }
+
+    private boolean preparedTransactionsEnabled() throws SQLException {
+        return queryLong("SELECT current_setting('max_prepared_transactions')::bigint") > 0;
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        @Cleanup Statement statement = this.connection.createStatement();
+        @Cleanup ResultSet resultSet = statement.executeQuery(sql);
+        resultSet.next();
+        return resultSet.getLong(1);
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        @Cleanup Statement statement = connection.createStatement();
+        statement.execute(sql);
+    }
+
+    private static Connection createConnection() throws SQLException {
+        String connectionString = System.getProperty("db_connection_url");
+        Properties props = new Properties();
+        props.setProperty("password", System.getProperty("db_connection_password"));
+
+        return DriverManager.getConnection(connectionString, props);
+    }
+
+    //endregion
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnapshotDocumentStoreTests extends DocumentStoreTests<SnapshotDocumentStore> {
+
+    @TempDir
+    Path directory;
+
+    private CountingDocumentStore backingStore;
+    private final List<Runnable> pendingTasks = new ArrayList<>();
+
+    @Override
+    protected SnapshotDocumentStore createStore() {
+        this.backingStore = new CountingDocumentStore();
+        return createSnapshotStore();
+    }
+
+    //region Constructor
+
+    @Test
+    public void new_nullArgument() {
+        assertThrows(
+            NullPointerException.class,
+            () -> new SnapshotDocumentStore(
+                null, this.backingStore, this.directory.resolve("snapshot"), Runnable::run));
+    }
+
+    @Test
+    public void new_invalidFile() throws IOException {
+        Files.writeString(this.directory.resolve("snapshot"), "invalid");
+
+        assertThrows(
+            DocumentStoreException.class,
+            this::createSnapshotStore);
+    }
+
+    //endregion
+
+    //region DocumentSnapshot
+
+    @Test
+    public void write_roundTrip() {
+        Path file = this.directory.resolve("snapshot");
+        DocumentSnapshot.write(file, List.of(
+            new Document(ids[0], "{\"abc\":\"déf\"}", 3),
+            new Document(ids[1], null, 2)));
+
+        DocumentSnapshot snapshot = DocumentSnapshot.open(file);
+
+        assertEquals(Set.of(ids[0], ids[1]), snapshot.getIds());
+        assertDocument(snapshot.get(ids[0]), ids[0], "{\"abc\":\"déf\"}", 3);
+        assertDocument(snapshot.get(ids[1]), ids[1], null, 2);
+        assertNull(snapshot.get(ids[2]));
+        assertEquals(3, snapshot.getVersion(ids[0]));
+        assertEquals(0, snapshot.getVersion(ids[2]));
+    }
+
+    @Test
+    public void write_replacesExistingFile() {
+        Path file = this.directory.resolve("snapshot");
+        DocumentSnapshot.write(file, List.of(new Document(ids[0], "{\"abc\":\"def\"}", 1)));
+        DocumentSnapshot.write(file, List.of(new Document(ids[1], "{\"ghi\":\"jkl\"}", 1)));
+
+        DocumentSnapshot snapshot = DocumentSnapshot.open(file);
+
+        assertEquals(Set.of(ids[1]), snapshot.getIds());
+    }
+
+    //endregion
+
+    //region Snapshot
+
+    @Test
+    public void getDocuments_servedBeforeRevalidation() {
+        saveSnapshot();
+
+        List<Document> result = store.getDocuments(List.of(ids[0], ids[1], ids[0]));
+
+        assertFalse(store.getRevalidation().isDone());
+        assertEquals(1, this.backingStore.bodyReads);
+        assertEquals(1, store.getHitCount());
+        assertDocument(result.get(0), ids[0], "{\"abc\":\"def\"}", 1);
+        assertDocument(result.get(1), ids[1], null, 0);
+        assertDocument(result.get(2), ids[0], "{\"abc\":\"def\"}", 1);
+    }
+
+    @Test
+    public void getDocuments_staleAfterRevalidation() throws Exception {
+        saveSnapshot();
+        this.backingStore.updateDocuments(new Document(ids[0], "{\"ghi\":\"jkl\"}", 1));
+
+        revalidate();
+        Document result = store.getDocument(ids[0]);
+
+        assertEquals(1, store.getStaleCount());
+        assertDocument(result, ids[0], "{\"ghi\":\"jkl\"}", 2);
+    }
+
+    @Test
+    public void getDocuments_validAfterRevalidation() throws Exception {
+        saveSnapshot();
+
+        revalidate();
+        Document result = store.getDocument(ids[0]);
+
+        assertEquals(0, store.getStaleCount());
+        assertEquals(0, this.backingStore.bodyReads);
+        assertDocument(result, ids[0], "{\"abc\":\"def\"}", 1);
+    }
+
+    @Test
+    public void getDocuments_updatedAfterRevalidation() throws Exception {
+        saveSnapshot();
+
+        revalidate();
+        this.backingStore.updateDocuments(new Document(ids[0], "{\"ghi\":\"jkl\"}", 1));
+        Document result = store.getDocument(ids[0]);
+
+        assertEquals(1, this.backingStore.bodyReads);
+        assertDocument(result, ids[0], "{\"ghi\":\"jkl\"}", 2);
+    }
+
+    @Test
+    public void getDocuments_revalidationFailure() {
+        saveSnapshot();
+        this.backingStore.failing = true;
+
+        assertThrows(ExecutionException.class, this::revalidate);
+        this.backingStore.failing = false;
+        Document result = store.getDocument(ids[0]);
+
+        assertTrue(store.getRevalidation().isCompletedExceptionally());
+        assertEquals(1, this.backingStore.bodyReads);
+        assertDocument(result, ids[0], "{\"abc\":\"def\"}", 1);
+    }
+
+    @Test
+    public void updateDocuments_stopsServingSnapshot() {
+        saveSnapshot();
+
+        updateDocument(ids[0], "{\"ghi\":\"jkl\"}", 1);
+        Document result = store.getDocument(ids[0]);
+
+        assertEquals(1, this.backingStore.bodyReads);
+        assertDocument(result, ids[0], "{\"ghi\":\"jkl\"}", 2);
+    }
+
+    @Test
+    public void overwriteDocuments_stopsServingSnapshot() {
+        saveSnapshot();
+
+        store.overwriteDocuments(new Document(ids[0], "{\"ghi\":\"jkl\"}", 0));
+        Document result = store.getDocument(ids[0]);
+
+        assertDocument(result, ids[0], "{\"ghi\":\"jkl\"}", 2);
+    }
+
+    @Test
+    public void updateDocuments_staleSnapshotVersion() {
+        saveSnapshot();
+        this.backingStore.updateDocuments(new Document(ids[0], "{\"ghi\":\"jkl\"}", 1));
+
+        Document stale = store.getDocument(ids[0]);
+
+        assertEquals(1, stale.getVersion());
+        assertThrows(
+            UpdateConflictException.class,
+            () -> updateDocument(ids[0], "{\"mno\":\"pqr\"}", stale.getVersion()));
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"ghi\":\"jkl\"}", 2);
+    }
+
+    //endregion
+
+    private SnapshotDocumentStore createSnapshotStore() {
+        return new SnapshotDocumentStore(
+            this.backingStore,
+            this.backingStore,
+            this.directory.resolve("snapshot"),
+            this.pendingTasks::add);
+    }
+
+    private void saveSnapshot() {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+        store.saveSnapshot(List.of(ids[0], ids[1]));
+
+        store = createSnapshotStore();
+        this.backingStore.bodyReads = 0;
+    }
+
+    private void revalidate() throws Exception {
+        this.pendingTasks.forEach(Runnable::run);
+        this.pendingTasks.clear();
+        store.getRevalidation().get();
+    }
+
+    private static class CountingDocumentStore extends InMemoryDocumentStore {
+
+        private int bodyReads = 0;
+        private boolean failing = false;
+
+        @Override
+        public List<Document> getDocuments(Iterable<UUID> ids) {
+            this.bodyReads++;
+            return super.getDocuments(ids);
+        }
+
+        @Override
+        public Map<UUID, Long> getDocumentVersions(Iterable<UUID> ids) {
+            if (this.failing) {
+                throw new DocumentStoreException("The store is unavailable.", null);
+            }
+
+            Map<UUID, Long> result = super.getDocumentVersions(ids);
+            this.bodyReads--;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc;
+
+import com.google.gson.JsonParser;
+import lombok.Cleanup;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks for <code>SqlDocumentStore</code>. They only run when the <code>benchmark</code> system property is set
+ * to <code>true</code>, and print their results to the standard output.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class SqlDocumentStoreBenchmarks {
+
+    private static final String body =
+        "{\"name\":\"benchmark\",\"count\":12345,\"enabled\":true,\"tags\":[\"a\",\"b\",\"c\"]," +
+        "\"nested\":{\"value\":\"0123456789abcdef0123456789abcdef\",\"amount\":1234.5678}}";
+
+    private Connection connection;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        this.connection = createConnection();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 100, 10000})
+    public void updateDocuments_encoding(int batchSize) throws SQLException {
+        int iterations = Math.max(10, 5000 / batchSize);
+        long[] elapsed = new long[3];
+
+        // Alternate between encodings, starting each round from an empty table so that both run on equal terms
+        for (int round = 0; round < 3; round++) {
+            for (int encoding = 0; encoding < 3; encoding++) {
+                truncate(this.connection);
+
+                SqlDocumentStore store = new SqlDocumentStore(this.connection);
+                store.setColumnarEncoding(encoding == 1);
+                store.setSingleStatementUpdates(encoding == 2);
+
+                List<Document> documents = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize; i++) {
+                    documents.add(new Document(UUID.randomUUID(), body, 0));
+                }
+
+                // The first iteration creates the documents and warms up the connection
+                for (int iteration = 0; iteration <= iterations; iteration++) {
+                    long start = System.nanoTime();
+                    store.updateDocuments(documents, List.of());
+                    if (iteration > 0 && round > 0) {
+                        elapsed[encoding] += System.nanoTime() - start;
+                    }
+
+                    documents = nextVersion(documents);
+                }
+            }
+        }
+
+        report("updateDocuments composite", batchSize, iterations * 2, elapsed[0]);
+        report("updateDocuments columnar", batchSize, iterations * 2, elapsed[1]);
+        report("updateDocuments single statement", batchSize, iterations * 2, elapsed[2]);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4, 8})
+    public void updateDocuments_contention(int threads) throws Exception {
+        int documentCount = 32;
+        int batchSize = 4;
+        long duration = 5_000_000_000L;
+        long[] updates = new long[2];
+        long[] conflicts = new long[2];
+
+        // Each thread reads a random set of documents and writes them back, for a fixed amount of time
+        for (int mode = 0; mode < 2; mode++) {
+            truncate(this.connection);
+
+            List<UUID> ids = new ArrayList<>(documentCount);
+            for (int i = 0; i < documentCount; i++) {
+                ids.add(UUID.randomUUID());
+            }
+
+            boolean singleStatement = mode == 1;
+            AtomicLong updateCount = new AtomicLong();
+            AtomicLong conflictCount = new AtomicLong();
+            long deadline = System.nanoTime() + duration;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (int thread = 0; thread < threads; thread++) {
+                Random random = new Random(thread);
+                futures.add(executor.submit(() -> {
+                    @Cleanup Connection connection = createConnection();
+                    SqlDocumentStore store = new SqlDocumentStore(connection);
+                    store.setSingleStatementUpdates(singleStatement);
+
+                    while (System.nanoTime() < deadline) {
+                        if (tryUpdate(store, randomBatch(ids, batchSize, random))) {
+                            updateCount.incrementAndGet();
+                        } else {
+                            conflictCount.incrementAndGet();
+                        }
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            executor.shutdown();
+            updates[mode] = updateCount.get();
+            conflicts[mode] = conflictCount.get();
+        }
+
+        for (int mode = 0; mode < 2; mode++) {
+            System.out.printf(
+                "%-32s threads=%-3d %10.0f batches/s %8d conflicts%n",
+                mode == 0 ? "contention update_documents" : "contention try_update_documents",
+                threads,
+                updates[mode] * 1e9 / duration,
+                conflicts[mode]);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4, 8})
+    public void applyOperations_contention(int threads) throws Exception {
+        int documentCount = 4;
+        long duration = 5_000_000_000L;
+        long[] updates = new long[2];
+        long[] conflicts = new long[2];
+
+        // Each thread increments a counter in a random document, either by reading and writing it back or through an
+        // atomic operation
+        for (int mode = 0; mode < 2; mode++) {
+            truncate(this.connection);
+
+            List<UUID> ids = new ArrayList<>(documentCount);
+            for (int i = 0; i < documentCount; i++) {
+                ids.add(UUID.randomUUID());
+            }
+
+            boolean atomic = mode == 1;
+            AtomicLong updateCount = new AtomicLong();
+            AtomicLong conflictCount = new AtomicLong();
+            long deadline = System.nanoTime() + duration;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (int thread = 0; thread < threads; thread++) {
+                Random random = new Random(thread);
+                futures.add(executor.submit(() -> {
+                    @Cleanup Connection connection = createConnection();
+                    SqlDocumentStore store = new SqlDocumentStore(connection);
+
+                    while (System.nanoTime() < deadline) {
+                        UUID id = ids.get(random.nextInt(ids.size()));
+
+                        if (atomic) {
+                            store.applyOperations(List.of(DocumentOperation.increment(id, "count", 1)));
+                            updateCount.incrementAndGet();
+                        } else if (tryIncrement(store, id)) {
+                            updateCount.incrementAndGet();
+                        } else {
+                            conflictCount.incrementAndGet();
+                        }
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            executor.shutdown();
+            updates[mode] = updateCount.get();
+            conflicts[mode] = conflictCount.get();
+        }
+
+        for (int mode = 0; mode < 2; mode++) {
+            System.out.printf(
+                "%-32s threads=%-3d %10.0f increments/s %8d conflicts%n",
+                mode == 0 ? "counter update_documents" : "counter apply_document_operations",
+                threads,
+                updates[mode] * 1e9 / duration,
+                conflicts[mode]);
+        }
+    }
+
+    private static Set<UUID> randomBatch(List<UUID> ids, int batchSize, Random random) {
+        Set<UUID> batch = new HashSet<>();
+        while (batch.size() < batchSize) {
+            batch.add(ids.get(random.nextInt(ids.size())));
+        }
+
+        return batch;
+    }
+
+    private static boolean tryUpdate(SqlDocumentStore store, Set<UUID> ids) {
+        List<Document> documents = new ArrayList<>(ids.size());
+        for (Document document : store.getDocuments(ids)) {
+            documents.add(new Document(document.getId(), body, document.getVersion()));
+        }
+
+        try {
+            store.updateDocuments(documents, List.of());
+            return true;
+        } catch (UpdateConflictException exception) {
+            return false;
+        }
+    }
+
+    private static boolean tryIncrement(SqlDocumentStore store, UUID id) {
+        Document document = store.getDocument(id);
+        long count = document.getBody() == null
+            ? 0
+            : JsonParser.parseString(document.getBody()).getAsJsonObject().get("count").getAsLong();
+
+        try {
+            store.updateDocuments(new Document(id, "{\"count\":" + (count + 1) + "}", document.getVersion()));
+            return true;
+        } catch (UpdateConflictException exception) {
+            return false;
+        }
+    }
+
+    static Connection createConnection() throws SQLException {
+        String connectionString = System.getProperty("db_connection_url");
+        Properties props = new Properties();
+        props.setProperty("password", System.getProperty("db_connection_password"));
+
+        return DriverManager.getConnection(connectionString, props);
+    }
+
+    static void truncate(Connection connection) throws SQLException {
+        @Cleanup PreparedStatement statement = connection.prepareStatement("TRUNCATE TABLE document;");
+        statement.executeUpdate();
+    }
+
+    static List<Document> nextVersion(List<Document> documents) {
+        List<Document> result = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            result.add(new Document(document.getId(), document.getBody(), document.getVersion() + 1));
+        }
+
+        return result;
+    }
+
+    static void report(String name, int batchSize, int iterations, long elapsedNanos) {
+        double batchMillis = elapsedNanos / 1e6 / iterations;
+        System.out.printf(
+            "%-40s batch=%-6d %10.3f ms/batch %12.0f documents/s%n",
+            name,
+            batchSize,
+            batchMillis,
+            batchSize * 1000 / batchMillis);
+    }
+}
@@ -16,50 +16,47 @@
 
 package org.pgdoc;
 
-import com.google.gson.Gson;
 import lombok.Cleanup;
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
-import org.junit.jupiter.params.provider.Arguments;
-import org.junit.jupiter.params.provider.MethodSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
-import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
-public class SqlDocumentStoreTests {
+public class SqlDocumentStoreTests extends DocumentStoreTests<SqlDocumentStore> {
 
     private Connection connection;
-    private SqlDocumentStore store;
 
-    private static final UUID[] ids = IntStream.rangeClosed(0, 10)
-        .mapToObj(i -> new UUID(i, 255))
-        .toArray(UUID[]::new);
-
-    @BeforeEach
-    void setup() throws SQLException {
-        String connectionString = System.getProperty("db_connection_url");
-        Properties props = new Properties();
-        props.setProperty("password", System.getProperty("db_connection_password"));
-
-        this.connection = DriverManager.getConnection(connectionString, props);
-        this.store = new SqlDocumentStore(this.connection);
+    @Override
+    protected SqlDocumentStore createStore() throws SQLException {
+        this.connection = createConnection();
+        SqlDocumentStore store = createStore(this.connection);
 
         @Cleanup PreparedStatement statement = store.getConnection().prepareStatement("TRUNCATE TABLE document;");
         statement.executeUpdate();
+
+        return store;
+    }
+
+    protected SqlDocumentStore createStore(Connection connection) {
+        return new SqlDocumentStore(connection);
     }
 
     //region Constructor
@@ -94,260 +91,424 @@ public class SqlDocumentStoreTests {
     }
 
     @ParameterizedTest
-    @MethodSource("updateDocuments_oneArgument")
-    public void updateDocuments_emptyToValue(String to) {
-        updateDocument(to, 0);
-
-        Document document = store.getDocument(ids[0]);
-
-        assertDocument(document, ids[0], to, 1);
-    }
+    @ValueSource(booleans = {true, false})
+    public void updateDocuments_unchangedBody(boolean skipUnchanged) {
+        store.setSkipUnchangedDocuments(skipUnchanged);
 
-    @ParameterizedTest
-    @MethodSource("updateDocuments_twoArguments")
-    public void updateDocuments_valueToValue(String from, String to) {
-        updateDocument(from, 0);
-        updateDocument(to, 1);
+        updateDocument("{\"abc\":\"def\",\"ghi\":1}", 0);
+        updateDocument("{\"ghi\":1,\"abc\":\"def\"}", 1);
 
         Document document = store.getDocument(ids[0]);
 
-        assertDocument(document, ids[0], to, 2);
+        assertDocument(document, ids[0], "{\"abc\":\"def\",\"ghi\":1}", skipUnchanged ? 1 : 2);
     }
 
     @Test
-    public void updateDocuments_emptyToCheck() {
-        checkDocument(0);
-
-        Document document = store.getDocument(ids[0]);
-
-        assertDocument(document, ids[0], null, 0);
-    }
+    public void updateDocuments_skipUnchangedChangedBody() {
+        store.setSkipUnchangedDocuments(true);
 
-    @ParameterizedTest
-    @MethodSource("updateDocuments_oneArgument")
-    public void updateDocuments_valueToCheck(String from) {
-        updateDocument(from, 0);
-        checkDocument(1);
+        updateDocument("{\"abc\":\"def\"}", 0);
+        updateDocument("{\"abc\":\"ghi\"}", 1);
+        updateDocument(null, 2);
 
         Document document = store.getDocument(ids[0]);
 
-        assertDocument(document, ids[0], from, 1);
+        assertDocument(document, ids[0], null, 3);
     }
 
-    @ParameterizedTest
-    @MethodSource("updateDocuments_oneArgument")
-    public void updateDocuments_checkToValue(String to) {
-        checkDocument(0);
-        updateDocument(to, 0);
-
-        Document document = store.getDocument(ids[0]);
+    @Test
+    public void updateDocumentsWithVersions_skipUnchanged() {
+        store.setSkipUnchangedDocuments(true);
+        store.updateDocuments(new Document(ids[0], "{\"abc\":\"def\"}", 0), new Document(ids[1], "{\"abc\":1}", 0));
 
-        assertDocument(document, ids[0], to, 1);
+        Map<UUID, Long> result = store.updateDocumentsWithVersions(
+            List.of(
+                new Document(ids[0], "{\"abc\":\"def\"}", 1),
+                new Document(ids[1], "{\"abc\":2}", 1),
+                new Document(ids[2], "{\"abc\":3}", 0)),
+            List.of());
+
+        assertEquals(Map.of(ids[0], 1L, ids[1], 2L, ids[2], 1L), result);
+        assertEquals(1, store.getDocument(ids[0]).getVersion());
+        assertEquals(2, store.getDocument(ids[1]).getVersion());
     }
 
     @Test
-    public void updateDocuments_checkToCheck() {
-        checkDocument(0);
-        checkDocument(0);
+    public void updateDocuments_skipUnchangedConflict() {
+        store.setSkipUnchangedDocuments(true);
 
-        Document document = store.getDocument(ids[0]);
+        updateDocument("{\"abc\":\"def\"}", 0);
 
-        assertDocument(document, ids[0], null, 0);
-    }
+        UpdateConflictException exception = assertThrows(
+            UpdateConflictException.class,
+            () -> updateDocument("{\"abc\":\"def\"}", 0));
 
-    private static Stream<Arguments> updateDocuments_twoArguments() {
-        return Stream.of(
-            Arguments.of("{\"abc\":\"def\"}", "{\"ghi\":\"jkl\"}"),
-            Arguments.of(null, "{\"ghi\":\"jkl\"}"),
-            Arguments.of("{\"abc\":\"def\"}", null),
-            Arguments.of(null, null));
+        assertEquals(ids[0], exception.getId());
+        assertEquals(0, exception.getVersion());
     }
 
-    private static Stream<String> updateDocuments_oneArgument() {
-        return Stream.of(
-            "{\"abc\":\"def\"}",
-            null);
-    }
+    //endregion
+
+    //region tryUpdateDocuments
 
     @ParameterizedTest
     @ValueSource(booleans = {true, false})
-    public void updateDocuments_conflictDocumentDoesNotExist(boolean checkOnly) {
-        UpdateConflictException exception = assertThrows(
-            UpdateConflictException.class,
-            checkOnly
-                ? () -> checkDocument(10)
-                : () -> updateDocument("{\"abc\":\"def\"}", 10));
+    public void tryUpdateDocuments_success(boolean bestEffort) {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
 
-        Document document = store.getDocument(ids[0]);
+        List<DocumentConflict> conflicts = store.tryUpdateDocuments(
+            List.of(
+                new Document(ids[0], "{\"v\":\"1\"}", 1),
+                new Document(ids[1], "{\"v\":\"2\"}", 0)
+            ),
+            List.of(new Document(ids[2], null, 0)),
+            bestEffort);
 
-        assertDocument(document, ids[0], null, 0);
-        assertEquals(ids[0], exception.getId());
-        assertEquals(10, exception.getVersion());
+        assertEquals(0, conflicts.size());
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"v\":\"1\"}", 2);
+        assertDocument(store.getDocument(ids[1]), ids[1], "{\"v\":\"2\"}", 1);
     }
 
     @ParameterizedTest
     @ValueSource(booleans = {true, false})
-    public void updateDocuments_conflictWrongVersion(boolean checkOnly) {
-        updateDocument("{\"abc\":\"def\"}", 0);
-
-        UpdateConflictException exception = assertThrows(
-            UpdateConflictException.class,
-            checkOnly
-                ? () -> checkDocument(10)
-                : () -> updateDocument("{\"abc\":\"def\"}", 10));
+    public void tryUpdateDocuments_allConflicts(boolean bestEffort) {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+        updateDocument(ids[1], "{\"abc\":\"def\"}", 0);
+        updateDocument(ids[1], "{\"abc\":\"ghi\"}", 1);
 
-        Document document = store.getDocument(ids[0]);
+        List<DocumentConflict> conflicts = store.tryUpdateDocuments(
+            List.of(
+                new Document(ids[2], "{\"v\":\"1\"}", 3),
+                new Document(ids[0], "{\"v\":\"2\"}", 1),
+                new Document(ids[1], "{\"v\":\"3\"}", 1),
+                new Document(ids[3], "{\"v\":\"4\"}", 0)
+            ),
+            List.of(new Document(ids[4], null, 1)),
+            bestEffort);
+
+        assertEquals(3, conflicts.size());
+        assertConflict(conflicts.get(0), ids[2], 3, 0);
+        assertConflict(conflicts.get(1), ids[1], 1, 2);
+        assertConflict(conflicts.get(2), ids[4], 1, 0);
+
+        assertDocument(store.getDocument(ids[0]), ids[0], bestEffort ? "{\"v\":\"2\"}" : "{\"abc\":\"def\"}",
+            bestEffort ? 2 : 1);
+        assertDocument(store.getDocument(ids[1]), ids[1], "{\"abc\":\"ghi\"}", 2);
+        assertDocument(store.getDocument(ids[2]), ids[2], null, 0);
+        assertDocument(store.getDocument(ids[3]), ids[3], bestEffort ? "{\"v\":\"4\"}" : null, bestEffort ? 1 : 0);
+    }
 
-        assertDocument(document, ids[0], "{\"abc\":\"def\"}", 1);
-        assertEquals(ids[0], exception.getId());
-        assertEquals(10, exception.getVersion());
+    @Test
+    public void tryUpdateDocuments_concurrentCreation() throws Exception {
+        SqlDocumentStore otherStore = new SqlDocumentStore(createConnection());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<Future<?>> futures = new ArrayList<>();
+
+        // The document is created by a concurrent transaction after the batch has checked that it doesn't exist
+        otherStore.inTransaction(Connection.TRANSACTION_READ_COMMITTED, tx -> {
+            tx.updateDocuments(new Document(ids[1], "{\"abc\":\"def\"}", 0));
+
+            futures.add(executor.submit(() -> store.tryUpdateDocuments(
+                List.of(
+                    new Document(ids[0], "{\"v\":\"1\"}", 0),
+                    new Document(ids[1], "{\"v\":\"2\"}", 0)),
+                List.of(),
+                false)));
+
+            sleep(500);
+            return null;
+        });
+
+        Exception exception = assertThrows(Exception.class, () -> futures.get(0).get());
+        executor.shutdown();
+
+        UpdateConflictException conflict = (UpdateConflictException) exception.getCause();
+        assertEquals(ids[1], conflict.getId());
+        assertEquals(0, conflict.getVersion());
+        assertDocument(store.getDocument(ids[0]), ids[0], null, 0);
+        assertDocument(store.getDocument(ids[1]), ids[1], "{\"abc\":\"def\"}", 1);
     }
 
-    @ParameterizedTest
-    @ValueSource(booleans = {true, false})
-    public void updateDocuments_conflictDocumentAlreadyExists(boolean checkOnly) {
-        updateDocument("{\"abc\":\"def\"}", 0);
+    //endregion
+
+    //region inTransaction
+
+    @Test
+    public void inTransaction_commit() throws SQLException {
+        SqlDocumentStore otherStore = new SqlDocumentStore(createConnection());
+
+        String result = store.inTransaction(Connection.TRANSACTION_READ_COMMITTED, tx -> {
+            updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+            updateDocument(ids[1], "{\"ghi\":\"jkl\"}", 0);
+
+            assertDocument(otherStore.getDocument(ids[0]), ids[0], null, 0);
+            return "result";
+        });
+
+        assertEquals("result", result);
+        assertDocument(otherStore.getDocument(ids[0]), ids[0], "{\"abc\":\"def\"}", 1);
+        assertDocument(otherStore.getDocument(ids[1]), ids[1], "{\"ghi\":\"jkl\"}", 1);
+        assertTrue(connection.getAutoCommit());
+    }
 
+    @Test
+    public void inTransaction_rollbackOnConflict() throws SQLException {
         UpdateConflictException exception = assertThrows(
             UpdateConflictException.class,
-            checkOnly
-                ? () -> checkDocument(0)
-                : () -> updateDocument("{\"abc\":\"def\"}", 0));
+            () -> store.inTransaction(Connection.TRANSACTION_READ_COMMITTED, tx -> {
+                updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+                updateDocument(ids[1], "{\"ghi\":\"jkl\"}", 1);
+                return null;
+            }));
 
-        Document document = store.getDocument(ids[0]);
+        assertEquals(ids[1], exception.getId());
+        assertDocument(store.getDocument(ids[0]), ids[0], null, 0);
+        assertDocument(store.getDocument(ids[1]), ids[1], null, 0);
+        assertTrue(connection.getAutoCommit());
+    }
 
-        assertDocument(document, ids[0], "{\"abc\":\"def\"}", 1);
-        assertEquals(ids[0], exception.getId());
-        assertEquals(0, exception.getVersion());
+    @Test
+    public void inTransaction_savepoint() {
+        store.inTransaction(Connection.TRANSACTION_READ_COMMITTED, tx -> {
+            updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+
+            assertThrows(
+                UpdateConflictException.class,
+                () -> tx.inTransaction(Connection.TRANSACTION_READ_COMMITTED, nested -> {
+                    updateDocument(ids[1], "{\"ghi\":\"jkl\"}", 0);
+                    updateDocument(ids[2], "{\"mno\":\"pqr\"}", 1);
+                    return null;
+                }));
+
+            updateDocument(ids[3], "{\"stu\":\"vwx\"}", 0);
+            return null;
+        });
+
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"abc\":\"def\"}", 1);
+        assertDocument(store.getDocument(ids[1]), ids[1], null, 0);
+        assertDocument(store.getDocument(ids[2]), ids[2], null, 0);
+        assertDocument(store.getDocument(ids[3]), ids[3], "{\"stu\":\"vwx\"}", 1);
     }
 
     @Test
-    public void updateDocuments_multipleDocumentsSuccess() {
+    public void inTransaction_retrySerializationFailure() throws SQLException {
+        SqlDocumentStore otherStore = new SqlDocumentStore(createConnection());
         updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
-        updateDocument(ids[1], "{\"ghi\":\"jkl\"}", 0);
+        AtomicInteger attempts = new AtomicInteger();
 
-        store.updateDocuments(
-            List.of(
-                new Document(ids[0], "{\"v\":\"1\"}", 1),
-                new Document(ids[2], "{\"v\":\"2\"}", 0)
-            ),
-            List.of(
-                new Document(ids[1], "{\"v\":\"3\"}", 1),
-                new Document(ids[3], "{\"v\":\"4\"}", 0)
-            )
-        );
-
-        Document document1 = store.getDocument(ids[0]);
-        Document document2 = store.getDocument(ids[1]);
-        Document document3 = store.getDocument(ids[2]);
-        Document document4 = store.getDocument(ids[3]);
-
-        assertDocument(document1, ids[0], "{\"v\":\"1\"}", 2);
-        assertDocument(document2, ids[1], "{\"ghi\":\"jkl\"}", 1);
-        assertDocument(document3, ids[2], "{\"v\":\"2\"}", 1);
-        assertDocument(document4, ids[3], null, 0);
+        store.inTransaction(Connection.TRANSACTION_REPEATABLE_READ, tx -> {
+            Document document = tx.getDocument(ids[0]);
+
+            if (attempts.incrementAndGet() == 1) {
+                otherStore.updateDocuments(new Document(ids[0], "{\"ghi\":\"jkl\"}", 1));
+            }
+
+            tx.updateDocuments(new Document(ids[0], "{\"mno\":\"pqr\"}", document.getVersion()));
+            return null;
+        });
+
+        assertEquals(2, attempts.get());
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"mno\":\"pqr\"}", 3);
     }
 
-    @ParameterizedTest
-    @ValueSource(booleans = {true, false})
-    public void updateDocuments_multipleDocumentsConflict(boolean checkOnly) {
+    @Test
+    public void inTransaction_maxAttempts() throws SQLException {
+        SqlDocumentStore otherStore = new SqlDocumentStore(createConnection());
         updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+        store.setMaxTransactionAttempts(2);
+        AtomicInteger attempts = new AtomicInteger();
 
-        UpdateConflictException exception = assertThrows(
+        assertThrows(
             UpdateConflictException.class,
-            () -> {
-                if (checkOnly) {
-                    store.updateDocuments(
-                        List.of(new Document(ids[0], "{\"ghi\":\"jkl\"}", 1)),
-                        List.of(new Document(ids[1], "{\"mno\":\"pqr\"}", 10))
-                    );
-                } else {
-                    store.updateDocuments(
-                        new Document(ids[0], "{\"ghi\":\"jkl\"}", 1),
-                        new Document(ids[1], "{\"mno\":\"pqr\"}", 10));
+            () -> store.inTransaction(Connection.TRANSACTION_REPEATABLE_READ, tx -> {
+                Document document = tx.getDocument(ids[0]);
+                attempts.incrementAndGet();
+                otherStore.updateDocuments(new Document(ids[0], "{\"ghi\":\"jkl\"}", document.getVersion()));
+                tx.updateDocuments(new Document(ids[0], "{\"mno\":\"pqr\"}", document.getVersion()));
+                return null;
+            }));
+
+        assertEquals(2, attempts.get());
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"ghi\":\"jkl\"}", 3);
+    }
+
+    @Test
+    public void inTransaction_connectionClosed() throws SQLException {
+        SqlDocumentStore otherStore = new SqlDocumentStore(createConnection());
+
+        IllegalArgumentException exception = assertThrows(
+            IllegalArgumentException.class,
+            () -> otherStore.inTransaction(Connection.TRANSACTION_READ_COMMITTED, tx -> {
+                try {
+                    tx.getConnection().close();
+                } catch (SQLException sqlException) {
+                    throw new DocumentStoreException(sqlException.getMessage(), sqlException);
                 }
-            }
-        );
 
-        Document document1 = store.getDocument(ids[0]);
-        Document document2 = store.getDocument(ids[1]);
+                throw new IllegalArgumentException();
+            }));
 
-        assertDocument(document1, ids[0], "{\"abc\":\"def\"}", 1);
-        assertDocument(document2, ids[1], null, 0);
-        assertEquals(ids[1], exception.getId());
-        assertEquals(10, exception.getVersion());
+        // The failures to roll back and to restore the connection don't hide the original exception
+        assertTrue(exception.getSuppressed().length >= 2);
+    }
+
+    @Test
+    public void inTransaction_connectionInTransaction() throws SQLException {
+        connection.setAutoCommit(false);
+
+        try {
+            updateDocument(ids[1], "{\"ghi\":\"jkl\"}", 0);
+
+            assertThrows(
+                IllegalStateException.class,
+                () -> store.inTransaction(Connection.TRANSACTION_REPEATABLE_READ, tx -> null));
+
+            assertEquals(Connection.TRANSACTION_READ_COMMITTED, connection.getTransactionIsolation());
+        } finally {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        }
+
+        assertDocument(store.getDocument(ids[1]), ids[1], null, 0);
     }
 
     //endregion
 
-    //region GetDocuments
+    //region applyOperations
 
     @Test
-    public void getDocuments_singleDocument() {
-        updateDocument("{\"abc\":\"def\"}", 0);
-
-        List<Document> documents = store.getDocuments(List.of(ids[0]));
+    public void applyOperations_newDocument() {
+        List<Document> result = store.applyOperations(List.of(
+            DocumentOperation.increment(ids[0], "counters.views", 5),
+            DocumentOperation.append(ids[0], "history", "\"created\""),
+            DocumentOperation.setIfGreater(ids[0], "maximum", "3")));
+
+        assertEquals(1, result.size());
+        assertDocument(result.get(0), ids[0], "{\"history\":[\"created\"],\"maximum\":3,\"counters\":{\"views\":5}}", 1);
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"history\":[\"created\"],\"maximum\":3,\"counters\":{\"views\":5}}", 1);
+    }
 
-        assertEquals(1, documents.size());
-        assertDocument(documents.get(0), ids[0], "{\"abc\":\"def\"}", 1);
+    @Test
+    public void applyOperations_existingDocument() {
+        updateDocument(ids[0], "{\"counters\":{\"views\":5},\"history\":[\"created\"],\"maximum\":3,\"abc\":\"def\"}", 0);
+
+        List<Document> result = store.applyOperations(List.of(
+            DocumentOperation.increment(ids[0], "counters.views", new BigDecimal("-1.5")),
+            DocumentOperation.append(ids[0], "history", "\"updated\""),
+            DocumentOperation.setIfGreater(ids[0], "maximum", "7"),
+            DocumentOperation.increment(ids[1], "count", 1)));
+
+        assertEquals(2, result.size());
+        assertDocument(result.get(0), ids[0], "{\"abc\":\"def\",\"history\":[\"created\",\"updated\"],\"maximum\":7,\"counters\":{\"views\":3.5}}", 2);
+        assertDocument(result.get(1), ids[1], "{\"count\":1}", 1);
     }
 
     @Test
-    public void getDocuments_multipleDocuments() {
-        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
-        updateDocument(ids[1], "{\"ghi\":\"jkl\"}", 0);
+    public void applyOperations_unchanged() {
+        updateDocument(ids[0], "{\"maximum\":10}", 0);
 
-        List<Document> documents = store.getDocuments(List.of(ids[0], ids[2], ids[0], ids[1]));
+        List<Document> result = store.applyOperations(List.of(
+            DocumentOperation.setIfGreater(ids[0], "maximum", "7"),
+            DocumentOperation.increment(ids[0], "maximum", 0)));
 
-        assertEquals(4, documents.size());
-        assertDocument(documents.get(0), ids[0], "{\"abc\":\"def\"}", 1);
-        assertDocument(documents.get(1), ids[2], null, 0);
-        assertDocument(documents.get(2), ids[0], "{\"abc\":\"def\"}", 1);
-        assertDocument(documents.get(3), ids[1], "{\"ghi\":\"jkl\"}", 1);
+        assertDocument(result.get(0), ids[0], "{\"maximum\":10}", 1);
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"maximum\":10}", 1);
     }
 
     @Test
-    public void getDocuments_noDocument() {
-        List<Document> documents = store.getDocuments(List.of());
+    public void applyOperations_deletedDocument() {
+        updateDocument(ids[0], "{\"abc\":\"def\"}", 0);
+        updateDocument(ids[0], null, 1);
+
+        List<Document> result = store.applyOperations(List.of(DocumentOperation.increment(ids[0], "count", 1)));
 
-        assertEquals(0, documents.size());
+        assertDocument(result.get(0), ids[0], "{\"count\":1}", 3);
     }
 
-    //endregion
+    @Test
+    public void applyOperations_typeMismatch() {
+        updateDocument(ids[0], "{\"count\":\"abc\"}", 0);
 
-    //region Helper Methods
+        assertThrows(
+            DocumentStoreException.class,
+            () -> store.applyOperations(List.of(
+                DocumentOperation.increment(ids[1], "count", 1),
+                DocumentOperation.increment(ids[0], "count", 1))));
 
-    private void updateDocument(String body, long version) {
-        updateDocument(ids[0], body, version);
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"count\":\"abc\"}", 1);
+        assertDocument(store.getDocument(ids[1]), ids[1], null, 0);
     }
 
-    private void updateDocument(UUID id, String body, long version) {
-        store.updateDocuments(new Document(id, body, version));
+    @Test
+    public void applyOperations_empty() {
+        assertEquals(List.of(), store.applyOperations(List.of()));
     }
 
-    private void checkDocument(long version) {
-        store.updateDocuments(
-            List.of(),
-            List.of(new Document(ids[0], "{\"ignored\":\"ignored\"}", version)));
+    @Test
+    public void applyOperations_invalidPath() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> DocumentOperation.increment(ids[0], "counters..views", 1));
     }
 
-    private static void assertDocument(Document document, UUID id, String body, long version) {
-        assertEquals(id, document.getId());
+    @Test
+    public void applyOperations_concurrent() throws Exception {
+        int threads = 4;
+        int iterations = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int thread = 0; thread < threads; thread++) {
+                futures.add(executor.submit(() -> {
+                    @Cleanup Connection otherConnection = createConnection();
+                    SqlDocumentStore otherStore = new SqlDocumentStore(otherConnection);
+
+                    for (int i = 0; i < iterations; i++) {
+                        otherStore.applyOperations(List.of(
+                            DocumentOperation.increment(ids[1], "count", 1),
+                            DocumentOperation.increment(ids[0], "count", 1)));
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertDocument(store.getDocument(ids[0]), ids[0], "{\"count\":200}", 200);
+        assertDocument(store.getDocument(ids[1]), ids[1], "{\"count\":200}", 200);
+    }
 
-        if (body == null) {
-            assertNull(document.getBody());
-        } else {
-            assertNotNull(document.getBody());
+    //endregion
 
-            Gson gson = new Gson();
+    //region Helper Methods
 
-            // Normalize and compare JSON
-            String expectedJson = gson.toJson(gson.fromJson(body, Object.class));
-            String actualJson = gson.toJson(gson.fromJson(document.getBody(), Object.class));
-            assertEquals(expectedJson, actualJson);
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException exception) {
+            throw new RuntimeException(exception);
         }
+    }
+
+    private static Connection createConnection() throws SQLException {
+        String connectionString = System.getProperty("db_connection_url");
+        Properties props = new Properties();
+        props.setProperty("password", System.getProperty("db_connection_password"));
+
+        return DriverManager.getConnection(connectionString, props);
+    }
 
-        assertEquals(version, document.getVersion());
+    private static void assertConflict(DocumentConflict conflict, UUID id, long expectedVersion, long currentVersion) {
+        assertEquals(id, conflict.getId());
+        assertEquals(expectedVersion, conflict.getExpectedVersion());
+        assertEquals(currentVersion, conflict.getCurrentVersion());
     }
 
     //endregion
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import com.google.gson.JsonObject;
+import com.google.gson.annotations.SerializedName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DocumentProjectionTests {
+
+    @Test
+    public void new_emptyFields() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> new DocumentProjection<>(JsonObject.class, Map.of()));
+    }
+
+    @Test
+    public void fromClass_success() {
+        DocumentProjection<TestProjection> projection = DocumentProjection.fromClass(TestProjection.class);
+
+        assertSame(TestProjection.class, projection.getType());
+        assertEquals(
+            Map.of(
+                "name", List.of("name"),
+                "city", List.of("address", "city"),
+                "zip_code", List.of("address", "zip")),
+            projection.getFields());
+    }
+
+    @Test
+    public void fromPaths_success() {
+        DocumentProjection<JsonObject> projection = DocumentProjection.fromPaths("name", "items.0.price");
+
+        assertEquals(
+            Map.of(
+                "name", List.of("name"),
+                "items.0.price", List.of("items", "0", "price")),
+            projection.getFields());
+    }
+
+    @Test
+    public void fromPaths_invalidPath() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> DocumentProjection.fromPaths("address..city"));
+    }
+
+    @Test
+    public void getBodyExpression_escaping() {
+        DocumentProjection<JsonObject> projection = DocumentProjection.fromPaths("it's");
+
+        assertEquals(
+            "CASE WHEN body IS NULL THEN NULL ELSE jsonb_build_object('it''s', body #> ARRAY['it''s']::text[]) END",
+            projection.getBodyExpression());
+    }
+
+    private static class TestProjection {
+        private static final int ignoredStatic = 0;
+        private transient int ignoredTransient;
+
+        private String name;
+
+        @JsonPath("address.city")
+        private String city;
+
+        @SerializedName("zip_code")
+        @JsonPath("address.zip")
+        private String zipCode;
+    }
+}
@@ -16,22 +16,34 @@
 
 package org.pgdoc.serialization;
 
+import com.google.gson.JsonObject;
 import lombok.AllArgsConstructor;
 import lombok.Cleanup;
 import lombok.Getter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.pgdoc.DocumentStoreException;
 import org.pgdoc.SqlDocumentStore;
 
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class DocumentQueryTests {
 
@@ -91,6 +103,199 @@ public class DocumentQueryTests {
         assertEquals(2, result.get(0).getVersion());
     }
 
+    @Test
+    void execute_projection() {
+        JsonEntity<TestJsonEntity> entity = JsonEntity.create(new TestJsonEntity("correct"));
+        this.store.updateEntities(entity);
+        DocumentProjection<JsonObject> projection = DocumentProjection.fromPaths("value");
+
+        List<JsonEntity<JsonObject>> result = DocumentQuery.execute(
+            JsonObject.class,
+            () -> this.documentStore.getConnection().prepareStatement(
+                String.format("SELECT %s FROM document", projection.getColumns())));
+
+        assertEquals(1, result.size());
+        assertEquals(entity.getId(), result.get(0).getId());
+        assertEquals("correct", result.get(0).getEntity().get("value").getAsString());
+        assertEquals(1, result.get(0).getVersion());
+    }
+
+    @Test
+    void execute_parallel() {
+        List<JsonEntity<?>> entities = IntStream.range(0, 250)
+            .mapToObj(i -> JsonEntity.create(new TestJsonEntity(Integer.toString(i))))
+            .collect(Collectors.toList());
+        this.store.updateEntities(entities, List.of());
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        List<JsonEntity<TestJsonEntity>> result = DocumentQuery.execute(
+            TestJsonEntity.class,
+            () -> this.documentStore.getConnection().prepareStatement(
+                "SELECT id, body, version FROM document ORDER BY id"),
+            pool,
+            16);
+        pool.shutdown();
+
+        List<EntityId> expectedIds = entities.stream()
+            .map(JsonEntity::getId)
+            .sorted((left, right) -> left.getValue().toString().compareTo(right.getValue().toString()))
+            .collect(Collectors.toList());
+
+        assertEquals(250, result.size());
+        assertEquals(expectedIds, result.stream().map(JsonEntity::getId).collect(Collectors.toList()));
+        for (JsonEntity<TestJsonEntity> entity : result) {
+            JsonEntity<?> expected = entities.stream()
+                .filter(item -> item.getId().equals(entity.getId()))
+                .findFirst()
+                .get();
+
+            assertEquals(((TestJsonEntity) expected.getEntity()).getValue(), entity.getEntity().getValue());
+            assertEquals(1, entity.getVersion());
+        }
+    }
+
+    @Test
+    void publish_backpressure() {
+        List<JsonEntity<?>> entities = createEntities(25);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        publishAll().subscribe(subscriber);
+        subscriber.subscription.request(3);
+
+        assertEquals(3, subscriber.items.size());
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertEquals(ids(entities), ids(subscriber.items));
+        assertEquals(
+            ((TestJsonEntity) entities.get(0).getEntity()).getValue(),
+            subscriber.items.get(0).getEntity().getValue());
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    void publish_cancel() throws SQLException {
+        createEntities(25);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        this.documentStore.getConnection().setAutoCommit(false);
+
+        try {
+            publishAll().subscribe(subscriber);
+            subscriber.subscription.request(2);
+            assertEquals(1, getOpenPortals());
+
+            subscriber.subscription.cancel();
+            subscriber.subscription.request(5);
+
+            assertEquals(2, subscriber.items.size());
+            assertFalse(subscriber.completed);
+            assertNull(subscriber.error);
+            assertEquals(0, getOpenPortals());
+        } finally {
+            this.documentStore.getConnection().rollback();
+            this.documentStore.getConnection().setAutoCommit(true);
+        }
+    }
+
+    @Test
+    void publish_invalidRequest() {
+        createEntities(1);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        publishAll().subscribe(subscriber);
+        subscriber.subscription.request(0);
+
+        assertEquals(0, subscriber.items.size());
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    void publish_queryError() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        DocumentQuery.publish(
+            TestJsonEntity.class,
+            () -> this.documentStore.getConnection().prepareStatement("SELECT invalid FROM document"),
+            Runnable::run,
+            10)
+            .subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        assertTrue(subscriber.error instanceof DocumentStoreException);
+    }
+
+    @Test
+    void publish_invalidFetchSize() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> DocumentQuery.publish(
+                TestJsonEntity.class,
+                () -> this.documentStore.getConnection().prepareStatement("SELECT id, body, version FROM document"),
+                Runnable::run,
+                0));
+    }
+
+    private List<JsonEntity<?>> createEntities(int count) {
+        List<JsonEntity<?>> entities = IntStream.range(0, count)
+            .mapToObj(i -> JsonEntity.create(new TestJsonEntity(Integer.toString(i))))
+            .collect(Collectors.toList());
+        this.store.updateEntities(entities, List.of());
+
+        entities.sort(Comparator.comparing(entity -> entity.getId().getValue().toString()));
+        return entities;
+    }
+
+    private Flow.Publisher<JsonEntity<TestJsonEntity>> publishAll() {
+        return DocumentQuery.publish(
+            TestJsonEntity.class,
+            () -> this.documentStore.getConnection().prepareStatement(
+                "SELECT id, body, version FROM document ORDER BY id::text"),
+            Runnable::run,
+            4);
+    }
+
+    private long getOpenPortals() throws SQLException {
+        @Cleanup PreparedStatement statement = this.documentStore.getConnection().prepareStatement(
+            "SELECT count(*) FROM pg_cursors WHERE statement LIKE 'SELECT id, body, version%'");
+        @Cleanup ResultSet resultSet = statement.executeQuery();
+        resultSet.next();
+        return resultSet.getLong(1);
+    }
+
+    private static List<EntityId> ids(List<? extends JsonEntity<?>> entities) {
+        return entities.stream().map(JsonEntity::getId).collect(Collectors.toList());
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<JsonEntity<TestJsonEntity>> {
+
+        private final List<JsonEntity<TestJsonEntity>> items = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private boolean completed = false;
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(JsonEntity<TestJsonEntity> item) {
+            this.items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            this.completed = true;
+        }
+    }
+
     @AllArgsConstructor
     @JsonEntityType(typeId = 5)
     private class TestJsonEntity {
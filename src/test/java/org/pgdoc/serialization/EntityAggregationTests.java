@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import lombok.AllArgsConstructor;
+import lombok.Cleanup;
+import lombok.Getter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pgdoc.SqlDocumentStore;
+
+import java.math.BigDecimal;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class EntityAggregationTests {
+
+    private EntityStore store;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        String connectionString = System.getProperty("db_connection_url");
+        Properties props = new Properties();
+        props.setProperty("password", System.getProperty("db_connection_password"));
+
+        SqlDocumentStore documentStore = new SqlDocumentStore(DriverManager.getConnection(connectionString, props));
+        this.store = new EntityStore(documentStore);
+
+        @Cleanup PreparedStatement statement =
+            documentStore.getConnection().prepareStatement("TRUNCATE TABLE document;");
+        statement.executeUpdate();
+
+        this.store.updateEntities(
+            JsonEntity.create(new OrderEntity("books", 10, "open")),
+            JsonEntity.create(new OrderEntity("books", 30, "closed")),
+            JsonEntity.create(new OrderEntity("games", 5, "open")),
+            JsonEntity.create(new OrderEntity(null, 7, "open")),
+            JsonEntity.create(new OtherEntity(1000)));
+    }
+
+    @Test
+    void aggregate_total() {
+        List<AggregationRow> result = this.store.aggregate(
+            EntityAggregation.of(EntityQuery.from(OrderEntity.class))
+                .count()
+                .sum("amount")
+                .min("amount")
+                .max("amount"));
+
+        assertEquals(1, result.size());
+        assertEquals(List.of(), result.get(0).getGroupValues());
+        assertEquals(0, new BigDecimal(4).compareTo(result.get(0).getValue("count")));
+        assertEquals(0, new BigDecimal(52).compareTo(result.get(0).getValue("sum(amount)")));
+        assertEquals(0, new BigDecimal(5).compareTo(result.get(0).getValue("min(amount)")));
+        assertEquals(0, new BigDecimal(30).compareTo(result.get(0).getValue("max(amount)")));
+    }
+
+    @Test
+    void aggregate_groupBy() {
+        List<AggregationRow> result = this.store.aggregate(
+            EntityAggregation.of(EntityQuery.from(OrderEntity.class))
+                .groupBy("category")
+                .count()
+                .avg("amount"));
+
+        assertEquals(3, result.size());
+        assertEquals("books", result.get(0).getGroupValues().get(0).getAsString());
+        assertEquals(0, new BigDecimal(2).compareTo(result.get(0).getValue("count")));
+        assertEquals(0, new BigDecimal(20).compareTo(result.get(0).getValue("avg(amount)")));
+        assertEquals("games", result.get(1).getGroupValues().get(0).getAsString());
+        assertNull(result.get(2).getGroupValues().get(0));
+        assertEquals(0, new BigDecimal(7).compareTo(result.get(2).getValue("avg(amount)")));
+    }
+
+    @Test
+    void aggregate_filteredMultipleGroups() {
+        List<AggregationRow> result = this.store.aggregate(
+            EntityAggregation.of(EntityQuery.from(OrderEntity.class).equalTo("status", "open"))
+                .groupBy("category")
+                .groupBy("status")
+                .sum("amount"));
+
+        assertEquals(3, result.size());
+        assertEquals("books", result.get(0).getGroupValues().get(0).getAsString());
+        assertEquals("open", result.get(0).getGroupValues().get(1).getAsString());
+        assertEquals(0, new BigDecimal(10).compareTo(result.get(0).getValue("sum(amount)")));
+    }
+
+    @Test
+    void aggregate_nonNumericField() {
+        List<AggregationRow> result = this.store.aggregate(
+            EntityAggregation.of(EntityQuery.from(OrderEntity.class)).sum("status"));
+
+        assertNull(result.get(0).getValue("sum(status)"));
+    }
+
+    @Test
+    void getValue_notComputed() {
+        List<AggregationRow> result = this.store.aggregate(
+            EntityAggregation.of(EntityQuery.from(OrderEntity.class)).count());
+
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> result.get(0).getValue("sum(amount)"));
+    }
+
+    @Test
+    void getSql_noAggregate() {
+        assertThrows(
+            IllegalStateException.class,
+            () -> EntityAggregation.of(EntityQuery.from(OrderEntity.class)).groupBy("category").getSql());
+    }
+
+    @Test
+    void of_limitedQuery() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> EntityAggregation.of(EntityQuery.from(OrderEntity.class).limit(10)));
+    }
+
+    @Test
+    void groupBy_unknownField() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> EntityAggregation.of(EntityQuery.from(OrderEntity.class)).groupBy("customer"));
+    }
+
+    @AllArgsConstructor
+    @JsonEntityType(typeId = 14)
+    private class OrderEntity {
+        @Getter
+        private final String category;
+
+        @Getter
+        private final int amount;
+
+        @Getter
+        private final String status;
+    }
+
+    @AllArgsConstructor
+    @JsonEntityType(typeId = 15)
+    private class OtherEntity {
+        @Getter
+        private final int amount;
+    }
+}
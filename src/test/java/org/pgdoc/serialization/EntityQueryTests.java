@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import lombok.AllArgsConstructor;
+import lombok.Cleanup;
+import lombok.Getter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pgdoc.SqlDocumentStore;
+
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class EntityQueryTests {
+
+    private EntityStore store;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        String connectionString = System.getProperty("db_connection_url");
+        Properties props = new Properties();
+        props.setProperty("password", System.getProperty("db_connection_password"));
+
+        SqlDocumentStore documentStore = new SqlDocumentStore(DriverManager.getConnection(connectionString, props));
+        this.store = new EntityStore(documentStore);
+
+        @Cleanup PreparedStatement statement =
+            documentStore.getConnection().prepareStatement("TRUNCATE TABLE document;");
+        statement.executeUpdate();
+
+        JsonEntity<ProductEntity> deleted = JsonEntity.create(product("deleted", 10, "Paris"));
+        this.store.updateEntities(
+            JsonEntity.create(product("book", 10, "Paris", "sale", "paper")),
+            JsonEntity.create(product("pen", 2, "London", "sale")),
+            JsonEntity.create(product("lamp", 35, "Paris")),
+            JsonEntity.create(new OtherEntity("book")),
+            deleted);
+        this.store.updateEntities(new JsonEntity<>(deleted.getId(), null, 1));
+    }
+
+    @Test
+    void find_all() {
+        assertEquals(Set.of("book", "pen", "lamp"), find(EntityQuery.from(ProductEntity.class)));
+    }
+
+    @Test
+    void find_equalTo() {
+        assertEquals(Set.of("book"), find(EntityQuery.from(ProductEntity.class).equalTo("name", "book")));
+    }
+
+    @Test
+    void find_nestedPath() {
+        assertEquals(
+            Set.of("book", "lamp"),
+            find(EntityQuery.from(ProductEntity.class).equalTo("address.city", "Paris")));
+    }
+
+    @Test
+    void find_contains() {
+        assertEquals(
+            Set.of("book"),
+            find(EntityQuery.from(ProductEntity.class).contains("tags", List.of("sale", "paper"))));
+    }
+
+    @Test
+    void find_in() {
+        assertEquals(
+            Set.of("book", "pen"),
+            find(EntityQuery.from(ProductEntity.class).in("name", List.of("book", "pen", "chair"))));
+    }
+
+    @Test
+    void find_range() {
+        EntityQuery<ProductEntity> query = EntityQuery.from(ProductEntity.class)
+            .atLeast("price", 2)
+            .lessThan("price", 35);
+
+        assertEquals(Set.of("book", "pen"), find(query));
+        assertEquals(Set.of("lamp"), find(EntityQuery.from(ProductEntity.class).greaterThan("price", 10)));
+        assertEquals(Set.of("pen", "book"), find(EntityQuery.from(ProductEntity.class).atMost("price", 10)));
+        assertEquals(Set.of("lamp", "pen"), find(EntityQuery.from(ProductEntity.class).greaterThan("name", "c")));
+    }
+
+    @Test
+    void find_combined() {
+        EntityQuery<ProductEntity> query = EntityQuery.from(ProductEntity.class)
+            .equalTo("address.city", "Paris")
+            .contains("tags", List.of("sale"))
+            .atMost("price", 20);
+
+        assertEquals(Set.of("book"), find(query));
+    }
+
+    @Test
+    void find_limit() {
+        assertEquals(1, this.store.find(EntityQuery.from(ProductEntity.class).limit(1)).size());
+    }
+
+    @Test
+    void find_manyShapes() {
+        for (int i = 1; i <= 100; i++) {
+            assertEquals(Math.min(i, 3), find(EntityQuery.from(ProductEntity.class).limit(i)).size());
+        }
+
+        this.store.close();
+
+        assertEquals(Set.of("book"), find(EntityQuery.from(ProductEntity.class).equalTo("name", "book")));
+        assertEquals(1, find(EntityQuery.from(ProductEntity.class).limit(1)).size());
+    }
+
+    @Test
+    void getSql_sameShape() {
+        EntityQuery<ProductEntity> query1 = EntityQuery.from(ProductEntity.class).equalTo("name", "book");
+        EntityQuery<ProductEntity> query2 = EntityQuery.from(ProductEntity.class).equalTo("name", "pen");
+
+        assertEquals(query1.getSql(), query2.getSql());
+    }
+
+    @Test
+    void equalTo_unknownField() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> EntityQuery.from(ProductEntity.class).equalTo("address.country", "France"));
+    }
+
+    @Test
+    void in_noValue() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> EntityQuery.from(ProductEntity.class).in("name", List.of()));
+    }
+
+    @Test
+    void greaterThan_unsupportedType() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> EntityQuery.from(ProductEntity.class).greaterThan("tags", List.of("sale")));
+    }
+
+    @Test
+    void from_missingAnnotation() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> EntityQuery.from(String.class));
+    }
+
+    private Set<String> find(EntityQuery<ProductEntity> query) {
+        return this.store.find(query).stream()
+            .map(entity -> entity.getEntity().getName())
+            .collect(Collectors.toSet());
+    }
+
+    private ProductEntity product(String name, int price, String city, String... tags) {
+        return new ProductEntity(name, price, List.of(tags), new Address(city));
+    }
+
+    @AllArgsConstructor
+    @JsonEntityType(typeId = 10)
+    private class ProductEntity {
+        @Getter
+        private final String name;
+
+        @Getter
+        private final int price;
+
+        @Getter
+        private final List<String> tags;
+
+        @Getter
+        private final Address address;
+    }
+
+    @AllArgsConstructor
+    private static class Address {
+        @Getter
+        private final String city;
+    }
+
+    @AllArgsConstructor
+    @JsonEntityType(typeId = 11)
+    private class OtherEntity {
+        @Getter
+        private final String name;
+    }
+}
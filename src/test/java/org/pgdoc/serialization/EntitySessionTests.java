@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import lombok.AllArgsConstructor;
+import lombok.Cleanup;
+import lombok.Getter;
+import lombok.Setter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.pgdoc.DocumentCompactor;
+import org.pgdoc.SqlDocumentStore;
+import org.pgdoc.UpdateConflictException;
+
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EntitySessionTests {
+
+    private EntityStore store;
+    private EntitySession session;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        String connectionString = System.getProperty("db_connection_url");
+        Properties props = new Properties();
+        props.setProperty("password", System.getProperty("db_connection_password"));
+
+        SqlDocumentStore documentStore = new SqlDocumentStore(DriverManager.getConnection(connectionString, props));
+        this.store = new EntityStore(documentStore);
+        this.session = new EntitySession(this.store);
+
+        @Cleanup PreparedStatement statement =
+            documentStore.getConnection().prepareStatement("TRUNCATE TABLE document, document_version_floor;");
+        statement.executeUpdate();
+    }
+
+    @Test
+    public void new_nullArgument() {
+        assertThrows(
+            NullPointerException.class,
+            () -> new EntitySession(null));
+    }
+
+    @Test
+    void getEntity_identityMap() {
+        JsonEntity<TestJsonEntity> entity = JsonEntity.create(new TestJsonEntity("initial"));
+        this.store.updateEntities(entity);
+
+        JsonEntity<TestJsonEntity> result1 = this.session.getEntity(TestJsonEntity.class, entity.getId());
+        JsonEntity<TestJsonEntity> result2 = this.session.getEntity(TestJsonEntity.class, entity.getId());
+
+        assertSame(result1, result2);
+        assertEquals("initial", result1.getEntity().getValue());
+        assertEquals(1, result1.getVersion());
+    }
+
+    @Test
+    void getEntity_wrongType() {
+        JsonEntity<TestJsonEntity> entity = JsonEntity.create(new TestJsonEntity("initial"));
+        this.store.updateEntities(entity);
+        this.session.getEntity(TestJsonEntity.class, entity.getId());
+
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> this.session.getEntity(String.class, entity.getId()));
+    }
+
+    @Test
+    void flush_modifiedInPlace() {
+        JsonEntity<TestJsonEntity> entity = JsonEntity.create(new TestJsonEntity("initial"));
+        this.store.updateEntities(entity);
+
+        JsonEntity<TestJsonEntity> loaded = this.session.getEntity(TestJsonEntity.class, entity.getId());
+        assertFalse(this.session.isModified(entity.getId()));
+
+        loaded.getEntity().setValue("updated");
+        assertTrue(this.session.isModified(entity.getId()));
+
+        this.session.flush();
+
+        JsonEntity<TestJsonEntity> result = this.store.getEntity(TestJsonEntity.class, entity.getId());
+        assertEquals("updated", result.getEntity().getValue());
+        assertEquals(2, result.getVersion());
+        assertEquals(2, this.session.getEntity(TestJsonEntity.class, entity.getId()).getVersion());
+        assertFalse(this.session.isModified(entity.getId()));
+    }
+
+    @Test
+    void flush_replacedEntity() {
+        JsonEntity<TestJsonEntity> entity = JsonEntity.create(new TestJsonEntity("initial"));
+        this.store.updateEntities(entity);
+
+        JsonEntity<TestJsonEntity> loaded = this.session.getEntity(TestJsonEntity.class, entity.getId());
+        this.session.update(loaded.modify(new TestJsonEntity("updated")));
+        this.session.flush();
+
+        JsonEntity<TestJsonEntity> result = this.store.getEntity(TestJsonEntity.class, entity.getId());
+        assertEquals("updated", result.getEntity().getValue());
+        assertEquals(2, result.getVersion());
+    }
+
+    @Test
+    void flush_newEntity() {
+        JsonEntity<TestJsonEntity> entity = JsonEntity.create(new TestJsonEntity("initial"));
+
+        this.session.update(entity);
+        this.session.flush();
+
+        JsonEntity<TestJsonEntity> result = this.store.getEntity(TestJsonEntity.class, entity.getId());
+        assertEquals("initial", result.getEntity().getValue());
+        assertEquals(1, result.getVersion());
+    }
+
+    @Test
+    void flush_unmodifiedEntityNotUpdated() {
+        JsonEntity<TestJsonEntity> entity1 = JsonEntity.create(new TestJsonEntity("initial1"));
+        JsonEntity<TestJsonEntity> entity2 = JsonEntity.create(new TestJsonEntity("initial2"));
+        this.store.updateEntities(entity1, entity2);
+
+        List<JsonEntity<TestJsonEntity>> loaded = this.session.getEntities(
+            TestJsonEntity.class,
+            List.of(entity1.getId(), entity2.getId()));
+        this.session.update(loaded.get(0).modify(new TestJsonEntity("initial1")));
+        loaded.get(1).getEntity().setValue("updated2");
+        this.session.flush();
+
+        JsonEntity<TestJsonEntity> result1 = this.store.getEntity(TestJsonEntity.class, entity1.getId());
+        JsonEntity<TestJsonEntity> result2 = this.store.getEntity(TestJsonEntity.class, entity2.getId());
+        assertEquals("initial1", result1.getEntity().getValue());
+        assertEquals(1, result1.getVersion());
+        assertEquals("updated2", result2.getEntity().getValue());
+        assertEquals(2, result2.getVersion());
+    }
+
+    @Test
+    void flush_unmodifiedEntityConflict() {
+        JsonEntity<TestJsonEntity> entity1 = JsonEntity.create(new TestJsonEntity("initial1"));
+        JsonEntity<TestJsonEntity> entity2 = JsonEntity.create(new TestJsonEntity("initial2"));
+        this.store.updateEntities(entity1, entity2);
+
+        this.session.getEntity(TestJsonEntity.class, entity1.getId());
+        JsonEntity<TestJsonEntity> loaded = this.session.getEntity(TestJsonEntity.class, entity2.getId());
+        loaded.getEntity().setValue("updated2");
+
+        this.store.updateEntities(new JsonEntity<>(entity1.getId(), new TestJsonEntity("concurrent"), 1));
+
+        UpdateConflictException exception = assertThrows(
+            UpdateConflictException.class,
+            () -> this.session.flush());
+
+        JsonEntity<TestJsonEntity> result2 = this.store.getEntity(TestJsonEntity.class, entity2.getId());
+        assertEquals(entity1.getId().getValue(), exception.getId());
+        assertEquals("initial2", result2.getEntity().getValue());
+        assertEquals(1, result2.getVersion());
+    }
+
+    @Test
+    void flush_deletedEntity() {
+        JsonEntity<TestJsonEntity> entity = JsonEntity.create(new TestJsonEntity("initial"));
+        this.store.updateEntities(entity);
+
+        JsonEntity<TestJsonEntity> loaded = this.session.getEntity(TestJsonEntity.class, entity.getId());
+        this.session.update(loaded.modify(null));
+        this.session.flush();
+
+        JsonEntity<TestJsonEntity> result = this.store.getEntity(TestJsonEntity.class, entity.getId());
+        assertNull(result.getEntity());
+        assertEquals(2, result.getVersion());
+    }
+
+    @Test
+    void flush_skipUnchangedDocuments() {
+        JsonEntity<TestJsonEntity> entity = JsonEntity.create(new TestJsonEntity("initial"));
+        this.store.updateEntities(entity);
+        SqlDocumentStore documentStore = (SqlDocumentStore) this.store.getDocumentStore();
+        documentStore.setSkipUnchangedDocuments(true);
+
+        // The entity is not loaded through the session, so it is sent as modified although its body is unchanged
+        this.session.update(new JsonEntity<>(entity.getId(), new TestJsonEntity("initial"), 1));
+        this.session.flush();
+
+        assertEquals(1, this.session.getEntity(TestJsonEntity.class, entity.getId()).getVersion());
+
+        this.session.getEntity(TestJsonEntity.class, entity.getId()).getEntity().setValue("updated");
+        this.session.flush();
+
+        JsonEntity<TestJsonEntity> result = this.store.getEntity(TestJsonEntity.class, entity.getId());
+        assertEquals("updated", result.getEntity().getValue());
+        assertEquals(2, result.getVersion());
+        assertEquals(2, this.session.getEntity(TestJsonEntity.class, entity.getId()).getVersion());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void flush_recreatedAfterCompaction(boolean singleStatementUpdates) throws SQLException {
+        SqlDocumentStore documentStore = (SqlDocumentStore) this.store.getDocumentStore();
+        documentStore.setSingleStatementUpdates(singleStatementUpdates);
+        JsonEntity<TestJsonEntity> entity = JsonEntity.create(new TestJsonEntity("initial"));
+        this.store.updateEntities(entity);
+        this.store.updateEntities(new JsonEntity<>(entity.getId(), null, 1));
+
+        try {
+            new DocumentCompactor(documentStore.getConnection()).compactType(5);
+
+            this.session.update(new JsonEntity<>(entity.getId(), new TestJsonEntity("recreated"), 0));
+            this.session.flush();
+
+            assertEquals(3, this.session.getEntity(TestJsonEntity.class, entity.getId()).getVersion());
+
+            this.session.getEntity(TestJsonEntity.class, entity.getId()).getEntity().setValue("updated");
+            this.session.flush();
+
+            JsonEntity<TestJsonEntity> result = this.store.getEntity(TestJsonEntity.class, entity.getId());
+            assertEquals("updated", result.getEntity().getValue());
+            assertEquals(4, result.getVersion());
+
+        } finally {
+            @Cleanup PreparedStatement statement =
+                documentStore.getConnection().prepareStatement("TRUNCATE TABLE document_version_floor;");
+            statement.executeUpdate();
+        }
+    }
+
+    @AllArgsConstructor
+    @JsonEntityType(typeId = 5)
+    private class TestJsonEntity {
+        @Getter
+        @Setter
+        private String value;
+    }
+}
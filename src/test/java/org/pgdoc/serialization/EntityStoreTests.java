@@ -16,23 +16,34 @@
 
 package org.pgdoc.serialization;
 
+import com.google.gson.JsonObject;
 import lombok.AllArgsConstructor;
 import lombok.Cleanup;
 import lombok.Getter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.pgdoc.Document;
+import org.pgdoc.DocumentStore;
 import org.pgdoc.SqlDocumentStore;
 
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class EntityStoreTests {
 
@@ -143,6 +154,60 @@ public class EntityStoreTests {
         assertEquals(1, result2.getVersion());
     }
 
+    @Test
+    void updateEntities_parallel() {
+        List<JsonEntity<?>> entities = IntStream.range(0, 200)
+            .mapToObj(i -> JsonEntity.create(new IntJsonEntity(i)))
+            .collect(Collectors.toList());
+        List<UUID> sentIds = new ArrayList<>();
+        List<Boolean> parallel = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        EntityStore parallelStore = new EntityStore(new DocumentStore() {
+            @Override
+            public void updateDocuments(Iterable<Document> updatedDocuments, Iterable<Document> checkedDocuments) {
+                updatedDocuments.forEach(document -> sentIds.add(document.getId()));
+                documentStore.updateDocuments(updatedDocuments, checkedDocuments);
+            }
+
+            @Override
+            public List<Document> getDocuments(Iterable<UUID> ids) {
+                return documentStore.getDocuments(ids);
+            }
+        });
+        parallelStore.setParallelSerializationThreshold(100);
+        parallelStore.setSerializationPool(pool);
+        parallelStore.setSerializationListener((count, duration, isParallel) -> {
+            assertEquals(200, count);
+            parallel.add(isParallel);
+        });
+
+        parallelStore.updateEntities(entities, List.of());
+        pool.shutdown();
+
+        assertEquals(List.of(true), parallel);
+        assertEquals(
+            entities.stream().map(entity -> entity.getId().getValue()).collect(Collectors.toList()),
+            sentIds);
+
+        JsonEntity<IntJsonEntity> result = this.store.getEntity(IntJsonEntity.class, entities.get(150).getId());
+        assertEquals(150, result.getEntity().getIntValue());
+        assertEquals(1, result.getVersion());
+    }
+
+    @Test
+    void updateEntities_belowParallelThreshold() {
+        List<Boolean> parallel = new ArrayList<>();
+        this.store.setParallelSerializationThreshold(3);
+        this.store.setSerializationListener((count, duration, isParallel) -> parallel.add(isParallel));
+
+        this.store.updateEntities(
+            JsonEntity.create(new IntJsonEntity(1)),
+            JsonEntity.create(new IntJsonEntity(2)));
+
+        assertEquals(List.of(false), parallel);
+    }
+
     @Test
     void getEntity_noEntity() {
         JsonEntity<StringJsonEntity> result = this.store.getEntity(StringJsonEntity.class, id);
@@ -152,6 +217,298 @@ public class EntityStoreTests {
         assertEquals(0, result.getVersion());
     }
 
+    @Test
+    void getEntities_multiple() {
+        JsonEntity<StringJsonEntity> entity = JsonEntity.create(new StringJsonEntity("initial"));
+
+        this.store.updateEntities(entity);
+
+        List<JsonEntity<StringJsonEntity>> result =
+            this.store.getEntities(StringJsonEntity.class, List.of(id, entity.getId()));
+
+        assertEquals(2, result.size());
+        assertEquals(id, result.get(0).getId());
+        assertNull(result.get(0).getEntity());
+        assertEquals(0, result.get(0).getVersion());
+        assertEquals(entity.getId(), result.get(1).getId());
+        assertEquals("initial", result.get(1).getEntity().getValue());
+        assertEquals(1, result.get(1).getVersion());
+    }
+
+    @Test
+    void loadGraph_depth() {
+        EntityId[] nodeIds = createChain(4);
+        AtomicInteger calls = new AtomicInteger();
+        EntityStore countingStore = new EntityStore(countGetDocuments(calls));
+
+        EntityGraph graph = countingStore.loadGraph(List.of(nodeIds[0]), 2, NodeJsonEntity.class);
+
+        assertEquals(3, calls.get());
+        assertEquals(List.of(nodeIds[0]), graph.getRoots());
+        assertEquals(3, graph.getEntities().size());
+        assertEquals("node2", graph.getEntity(NodeJsonEntity.class, nodeIds[2]).getEntity().getName());
+        assertFalse(graph.contains(nodeIds[3]));
+        assertNull(graph.getEntity(NodeJsonEntity.class, nodeIds[3]));
+    }
+
+    @Test
+    void loadGraph_rootsOnly() {
+        EntityId[] nodeIds = createChain(2);
+        AtomicInteger calls = new AtomicInteger();
+        EntityStore countingStore = new EntityStore(countGetDocuments(calls));
+
+        EntityGraph graph = countingStore.loadGraph(List.of(nodeIds[0]), 0, NodeJsonEntity.class);
+
+        assertEquals(1, calls.get());
+        assertEquals(1, graph.getEntities().size());
+        assertTrue(graph.contains(nodeIds[0]));
+    }
+
+    @Test
+    void loadGraph_oneCallPerLevel() {
+        EntityId missing = EntityId.newRandom(5);
+        JsonEntity<NodeJsonEntity> child1 = JsonEntity.create(new NodeJsonEntity("child1", List.of()));
+        JsonEntity<NodeJsonEntity> child2 = JsonEntity.create(new NodeJsonEntity("child2", List.of()));
+        JsonEntity<StringJsonEntity> child3 = JsonEntity.create(new StringJsonEntity("child3"));
+        JsonEntity<NodeJsonEntity> parent = JsonEntity.create(new NodeJsonEntity(
+            "parent",
+            List.of(child1.getId(), child2.getId(), child3.getId(), missing)));
+        this.store.updateEntities(parent, child1, child2, child3);
+
+        AtomicInteger calls = new AtomicInteger();
+        EntityStore countingStore = new EntityStore(countGetDocuments(calls));
+
+        EntityGraph graph = countingStore.loadGraph(
+            List.of(parent.getId()),
+            5,
+            NodeJsonEntity.class,
+            StringJsonEntity.class);
+
+        assertEquals(2, calls.get());
+        assertEquals(5, graph.getEntities().size());
+        assertEquals("child3", graph.getEntity(StringJsonEntity.class, child3.getId()).getEntity().getValue());
+        assertNull(graph.getEntity(StringJsonEntity.class, missing).getEntity());
+    }
+
+    @Test
+    void loadGraph_cycle() {
+        JsonEntity<NodeJsonEntity> node1 = JsonEntity.create(new NodeJsonEntity("node1", List.of()));
+        JsonEntity<NodeJsonEntity> node2 = JsonEntity.create(new NodeJsonEntity("node2", List.of(node1.getId())));
+        this.store.updateEntities(node1.modify(new NodeJsonEntity("node1", List.of(node2.getId()))), node2);
+
+        AtomicInteger calls = new AtomicInteger();
+        EntityStore countingStore = new EntityStore(countGetDocuments(calls));
+
+        EntityGraph graph = countingStore.loadGraph(List.of(node1.getId(), node2.getId()), 10, NodeJsonEntity.class);
+
+        assertEquals(1, calls.get());
+        assertEquals(2, graph.getEntities().size());
+        assertEquals(
+            List.of(node2.getId()),
+            graph.getEntity(NodeJsonEntity.class, node1.getId()).getEntity().getReferences());
+    }
+
+    @Test
+    void loadGraph_unknownRootType() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> this.store.loadGraph(List.of(EntityId.newRandom(6)), 1, NodeJsonEntity.class));
+    }
+
+    private EntityId[] createChain(int length) {
+        EntityId[] nodeIds = new EntityId[length];
+        for (int i = 0; i < length; i++) {
+            nodeIds[i] = EntityId.newRandom(7);
+        }
+
+        for (int i = 0; i < length; i++) {
+            this.store.updateEntities(new JsonEntity<>(
+                nodeIds[i],
+                new NodeJsonEntity("node" + i, i + 1 < length ? List.of(nodeIds[i + 1]) : List.of()),
+                0));
+        }
+
+        return nodeIds;
+    }
+
+    @Test
+    void getPage_orderedById() {
+        List<EntityId> ids = createIntEntities(7).stream()
+            .map(JsonEntity::getId)
+            .sorted(Comparator.comparing(entityId -> entityId.getValue().toString()))
+            .collect(Collectors.toList());
+        PageQuery query = new PageQuery("SELECT id, body, version FROM document");
+
+        List<EntityId> result = new ArrayList<>();
+        String token = null;
+        int pages = 0;
+        do {
+            Page<JsonEntity<IntJsonEntity>> page = this.store.getPage(IntJsonEntity.class, query, token, 3);
+            page.getItems().forEach(entity -> result.add(entity.getId()));
+            token = page.getContinuationToken();
+            pages++;
+        } while (token != null);
+
+        assertEquals(3, pages);
+        assertEquals(ids, result);
+    }
+
+    @Test
+    void getPage_orderedByKey() {
+        createIntEntities(7);
+        PageQuery query = new PageQuery("SELECT id, body, version FROM document", "body->'intValue'", true);
+
+        Page<JsonEntity<IntJsonEntity>> page1 = this.store.getPage(IntJsonEntity.class, query, null, 4);
+        Page<JsonEntity<IntJsonEntity>> page2 =
+            this.store.getPage(IntJsonEntity.class, query, page1.getContinuationToken(), 4);
+
+        assertEquals(List.of(6, 5, 4, 3), intValues(page1));
+        assertTrue(page1.hasMore());
+        assertEquals(List.of(2, 1, 0), intValues(page2));
+        assertFalse(page2.hasMore());
+    }
+
+    @Test
+    void getPage_duplicateKeys() {
+        List<JsonEntity<?>> entities = IntStream.range(0, 5)
+            .mapToObj(i -> JsonEntity.create(new IntJsonEntity(i % 2)))
+            .collect(Collectors.toList());
+        this.store.updateEntities(entities, List.of());
+        PageQuery query = new PageQuery("SELECT id, body, version FROM document", "body->'intValue'", false);
+
+        Page<JsonEntity<IntJsonEntity>> page1 = this.store.getPage(IntJsonEntity.class, query, null, 2);
+        Page<JsonEntity<IntJsonEntity>> page2 =
+            this.store.getPage(IntJsonEntity.class, query, page1.getContinuationToken(), 2);
+        Page<JsonEntity<IntJsonEntity>> page3 =
+            this.store.getPage(IntJsonEntity.class, query, page2.getContinuationToken(), 2);
+
+        assertEquals(List.of(0, 0), intValues(page1));
+        assertEquals(List.of(0, 1), intValues(page2));
+        assertEquals(List.of(1), intValues(page3));
+        assertFalse(page3.hasMore());
+    }
+
+    @Test
+    void getPage_parameters() {
+        createIntEntities(7);
+        PageQuery query = new PageQuery(
+            "SELECT id, body, version FROM document WHERE (body->>'intValue')::int >= ?",
+            "body->'intValue'",
+            false);
+
+        Page<JsonEntity<IntJsonEntity>> page1 = this.store.getPage(IntJsonEntity.class, query, null, 2, 3);
+        Page<JsonEntity<IntJsonEntity>> page2 =
+            this.store.getPage(IntJsonEntity.class, query, page1.getContinuationToken(), 2, 3);
+
+        assertEquals(List.of(3, 4), intValues(page1));
+        assertEquals(List.of(5, 6), intValues(page2));
+        assertFalse(page2.hasMore());
+    }
+
+    @Test
+    void getPage_invalidToken() {
+        PageQuery query = new PageQuery("SELECT id, body, version FROM document", "body->'intValue'", false);
+
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> this.store.getPage(IntJsonEntity.class, query, "invalid", 2));
+    }
+
+    @Test
+    void getPage_invalidPageSize() {
+        PageQuery query = new PageQuery("SELECT id, body, version FROM document");
+
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> this.store.getPage(IntJsonEntity.class, query, null, 0));
+    }
+
+    @Test
+    void getPage_unsupportedStore() {
+        EntityStore store = new EntityStore(countGetDocuments(new AtomicInteger()));
+        PageQuery query = new PageQuery("SELECT id, body, version FROM document");
+
+        assertThrows(
+            UnsupportedOperationException.class,
+            () -> store.getPage(IntJsonEntity.class, query, null, 2));
+    }
+
+    @Test
+    void getProjections_success() {
+        JsonEntity<NodeJsonEntity> entity = JsonEntity.create(new NodeJsonEntity("node", List.of(id)));
+        JsonEntity<NodeJsonEntity> deleted = JsonEntity.create(new NodeJsonEntity("deleted", List.of()));
+        this.store.updateEntities(entity, deleted);
+        this.store.updateEntities(new JsonEntity<>(deleted.getId(), null, 1));
+        EntityId missing = EntityId.newRandom(7);
+
+        List<JsonEntity<NodeProjection>> result = this.store.getProjections(
+            DocumentProjection.fromClass(NodeProjection.class),
+            List.of(entity.getId(), deleted.getId(), missing));
+
+        assertEquals(3, result.size());
+        assertEquals("node", result.get(0).getEntity().getName());
+        assertEquals(id, result.get(0).getEntity().getFirstReference());
+        assertEquals(1, result.get(0).getVersion());
+        assertNull(result.get(1).getEntity());
+        assertEquals(2, result.get(1).getVersion());
+        assertEquals(missing, result.get(2).getId());
+        assertNull(result.get(2).getEntity());
+        assertEquals(0, result.get(2).getVersion());
+    }
+
+    @Test
+    void getProjections_paths() {
+        JsonEntity<NodeJsonEntity> entity = JsonEntity.create(new NodeJsonEntity("node", List.of()));
+        this.store.updateEntities(entity);
+
+        JsonEntity<JsonObject> result = this.store.getProjections(
+            DocumentProjection.fromPaths("name", "missing.path"),
+            List.of(entity.getId()))
+            .get(0);
+
+        assertEquals("node", result.getEntity().get("name").getAsString());
+        assertTrue(result.getEntity().get("missing.path").isJsonNull());
+        assertEquals(2, result.getEntity().size());
+    }
+
+    @Test
+    void getProjections_unsupportedStore() {
+        EntityStore store = new EntityStore(countGetDocuments(new AtomicInteger()));
+
+        assertThrows(
+            UnsupportedOperationException.class,
+            () -> store.getProjections(DocumentProjection.fromPaths("name"), List.of(id)));
+    }
+
+    private List<JsonEntity<?>> createIntEntities(int count) {
+        List<JsonEntity<?>> entities = IntStream.range(0, count)
+            .mapToObj(i -> JsonEntity.create(new IntJsonEntity(i)))
+            .collect(Collectors.toList());
+        this.store.updateEntities(entities, List.of());
+        return entities;
+    }
+
+    private static List<Integer> intValues(Page<JsonEntity<IntJsonEntity>> page) {
+        return page.getItems().stream()
+            .map(entity -> entity.getEntity().getIntValue())
+            .collect(Collectors.toList());
+    }
+
+    private DocumentStore countGetDocuments(AtomicInteger calls) {
+        return new DocumentStore() {
+            @Override
+            public void updateDocuments(Iterable<Document> updatedDocuments, Iterable<Document> checkedDocuments) {
+                documentStore.updateDocuments(updatedDocuments, checkedDocuments);
+            }
+
+            @Override
+            public List<Document> getDocuments(Iterable<UUID> ids) {
+                calls.incrementAndGet();
+                return documentStore.getDocuments(ids);
+            }
+        };
+    }
+
     @AllArgsConstructor
     @JsonEntityType(typeId = 5)
     private class StringJsonEntity {
@@ -165,4 +522,23 @@ public class EntityStoreTests {
         @Getter
         private final int intValue;
     }
+
+    private class NodeProjection {
+        @Getter
+        private String name;
+
+        @Getter
+        @JsonPath("references.0")
+        private EntityId firstReference;
+    }
+
+    @AllArgsConstructor
+    @JsonEntityType(typeId = 7)
+    private class NodeJsonEntity {
+        @Getter
+        private final String name;
+
+        @Getter
+        private final List<EntityId> references;
+    }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class EntityTypeShardingPolicyTests {
+
+    @Test
+    public void getShard_sameType() {
+        EntityTypeShardingPolicy policy = new EntityTypeShardingPolicy();
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(5 % 3, policy.getShard(EntityId.newRandom(5).getValue(), 3));
+            assertEquals(7 % 3, policy.getShard(EntityId.newRandom(7).getValue(), 3));
+        }
+    }
+
+    @Test
+    public void getShard_assignedType() {
+        EntityTypeShardingPolicy policy = new EntityTypeShardingPolicy(Map.of(5, 2));
+
+        assertEquals(2, policy.getShard(EntityId.newRandom(5).getValue(), 3));
+        assertEquals(1, policy.getShard(EntityId.newRandom(4).getValue(), 3));
+        assertEquals(2, policy.getShard(EntityId.newRandom(-1).getValue(), 3));
+    }
+
+    @Test
+    public void getShard_invalidAssignment() {
+        EntityTypeShardingPolicy policy = new EntityTypeShardingPolicy(Map.of(5, 3));
+
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> policy.getShard(EntityId.newRandom(5).getValue(), 3));
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016 Flavien Charlon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pgdoc.serialization;
+
+import lombok.AllArgsConstructor;
+import lombok.Cleanup;
+import lombok.Getter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IndexManagerTests {
+
+    private Connection connection;
+    private IndexManager manager;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        String connectionString = System.getProperty("db_connection_url");
+        Properties props = new Properties();
+        props.setProperty("password", System.getProperty("db_connection_password"));
+
+        this.connection = DriverManager.getConnection(connectionString, props);
+        this.manager = new IndexManager(this.connection);
+    }
+
+    @AfterEach
+    void cleanup() throws SQLException {
+        this.manager.dropObsoleteIndexes(EmptyEntity.class);
+        this.connection.close();
+    }
+
+    @Test
+    public void new_nullArgument() {
+        assertThrows(
+            NullPointerException.class,
+            () -> new IndexManager(null));
+    }
+
+    @Test
+    void getIndexDefinitions_success() {
+        List<IndexDefinition> result = IndexManager.getIndexDefinitions(IndexedEntity.class);
+
+        assertEquals(3, result.size());
+        assertTrue(result.stream().allMatch(definition -> definition.getEntityType() == 12));
+        assertTrue(result.get(0).getCreateStatement().contains("USING gin (body jsonb_path_ops)"));
+        assertTrue(result.get(1).getCreateStatement().contains("((body #> '{\"price\"}'))"));
+        assertTrue(result.get(2).getCreateStatement().contains("((body #> '{\"address\",\"zip\"}'))"));
+        assertTrue(result.get(0).getName().startsWith("pgdoc_0000000c_"));
+        assertEquals(3, result.stream().map(IndexDefinition::getName).distinct().count());
+    }
+
+    @Test
+    void getIndexDefinitions_missingAnnotation() {
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> IndexManager.getIndexDefinitions(String.class));
+    }
+
+    @Test
+    void createMissingIndexes_success() throws SQLException {
+        List<IndexDefinition> created = this.manager.createMissingIndexes(IndexedEntity.class);
+
+        assertEquals(3, created.size());
+        assertEquals(List.of(), this.manager.getMissingIndexes(IndexedEntity.class));
+        assertEquals(List.of(), this.manager.createMissingIndexes(IndexedEntity.class));
+        assertEquals(3, getIndexNames().size());
+    }
+
+    @Test
+    void createMissingIndexes_usedByQueries() throws SQLException {
+        this.manager.createMissingIndexes(IndexedEntity.class);
+
+        @Cleanup PreparedStatement disable = this.connection.prepareStatement("SET enable_seqscan = off");
+        disable.execute();
+
+        String containmentPlan = explain(EntityQuery.from(IndexedEntity.class).equalTo("name", "book"));
+        String rangePlan = explain(EntityQuery.from(IndexedEntity.class).greaterThan("price", 10));
+
+        // The partial indexes can only be used if the query implies their predicate
+        assertTrue(containmentPlan.contains("pgdoc_0000000c_"), containmentPlan);
+        assertTrue(rangePlan.contains("pgdoc_0000000c_"), rangePlan);
+    }
+
+    @Test
+    void dropObsoleteIndexes_success() throws SQLException {
+        this.manager.createMissingIndexes(IndexedEntity.class);
+
+        // EmptyEntity has the same entity type but declares no index
+        List<String> dropped = this.manager.dropObsoleteIndexes(EmptyEntity.class);
+
+        assertEquals(3, dropped.size());
+        assertEquals(List.of(), getIndexNames());
+    }
+
+    @Test
+    void createMissingIndexes_transaction() throws SQLException {
+        this.connection.setAutoCommit(false);
+
+        try {
+            assertThrows(
+                IllegalStateException.class,
+                () -> this.manager.createMissingIndexes(IndexedEntity.class));
+        } finally {
+            this.connection.rollback();
+            this.connection.setAutoCommit(true);
+        }
+    }
+
+    @Test
+    void getObsoleteIndexes_otherType() throws SQLException {
+        this.manager.createMissingIndexes(IndexedEntity.class);
+
+        assertEquals(List.of(), this.manager.getObsoleteIndexes(OtherEntity.class));
+        assertNotEquals(List.of(), this.manager.getObsoleteIndexes(EmptyEntity.class));
+    }
+
+    private String explain(EntityQuery<?> query) throws SQLException {
+        @Cleanup PreparedStatement statement = this.connection.prepareStatement("EXPLAIN " + query.getSql());
+        for (int i = 0; i < query.getParameters().size(); i++) {
+            statement.setObject(i + 1, query.getParameters().get(i));
+        }
+
+        StringBuilder plan = new StringBuilder();
+        @Cleanup ResultSet resultSet = statement.executeQuery();
+        while (resultSet.next()) {
+            plan.append(resultSet.getString(1)).append('\n');
+        }
+
+        return plan.toString();
+    }
+
+    private List<String> getIndexNames() throws SQLException {
+        @Cleanup PreparedStatement statement = this.connection.prepareStatement(
+            "SELECT indexname FROM pg_indexes WHERE tablename = 'document' AND indexname LIKE 'pgdoc\\_0000000c\\_%'");
+
+        List<String> result = new ArrayList<>();
+        @Cleanup ResultSet resultSet = statement.executeQuery();
+        while (resultSet.next()) {
+            result.add(resultSet.getString(1));
+        }
+
+        return result;
+    }
+
+    @AllArgsConstructor
+    @JsonEntityType(typeId = 12)
+    private class IndexedEntity {
+        @Getter
+        @Indexed(Indexed.Kind.CONTAINMENT)
+        private final String name;
+
+        @Getter
+        @Indexed
+        private final int price;
+
+        @Getter
+        private final Address address;
+    }
+
+    @AllArgsConstructor
+    private static class Address {
+        @Getter
+        @Indexed
+        private final String zip;
+    }
+
+    @JsonEntityType(typeId = 12)
+    private class EmptyEntity {
+    }
+
+    @JsonEntityType(typeId = 13)
+    private class OtherEntity {
+    }
+}